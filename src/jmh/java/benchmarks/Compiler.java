@@ -0,0 +1,296 @@
+package benchmarks;
+
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Bridge from the benchmarks to the compiler
+ *
+ * JMH does not accept benchmarks in the default package, and a named package can not refer to
+ * the compiler classes, which live in the default package. The bridge binds the entry points
+ * once as constant method handles, so calls through it are inlined like direct calls.
+ */
+final class Compiler {
+    private Compiler() {}
+
+    private static final Class<?> LEXER = find("Lexer");
+    private static final Class<?> ENGINE = find("Lexer$Engine");
+    private static final Class<?> TOKEN_BUFFER = find("TokenBuffer");
+    private static final Class<?> TOKEN_TYPE = find("TokenType");
+    private static final Class<?> TOKEN = find("Token");
+    private static final Class<?> PARSER = find("Parser");
+    private static final Class<?> NODE = find("Parser$Node");
+    private static final Class<?> AST = find("Ast");
+    private static final Class<?> GENERATOR = find("ProgramGenerator");
+    private static final Class<?> INTERPRETER = find("Interpreter");
+    private static final Class<?> CODE_GENERATOR = find("CodeGenerator");
+    private static final Class<?> CODE = find("CodeGenerator$Program");
+    private static final Class<?> VIRTUAL_MACHINE = find("VirtualMachine");
+    private static final Class<?> BYTECODE_COMPILER = find("BytecodeCompiler");
+    private static final Class<?> BYTECODE = find("BytecodeCompiler$Program");
+
+    private static final MethodHandle NEW_LEXER = constructor(LEXER, CharSequence.class, ENGINE);
+    private static final MethodHandle GET_TOKEN = method(LEXER, "getToken", TOKEN);
+    private static final MethodHandle TOKENIZE = method(LEXER, "tokenize", TOKEN_BUFFER);
+    private static final MethodHandle PRINT_TOKENS = method(LEXER, "printTokens", String.class);
+    private static final MethodHandle TOKEN_TYPE_OF = field(TOKEN, "tokentype", TOKEN_TYPE);
+    private static final MethodHandle NEW_PARSER = constructor(PARSER, TOKEN_BUFFER);
+    private static final MethodHandle PARSE = method(PARSER, "parse", NODE);
+    private static final MethodHandle PRINT_AST = method(PARSER, "printAST", String.class, NODE, StringBuilder.class, boolean.class);
+    private static final MethodHandle WRITE_AST = staticMethod(PARSER, "writeAST", void.class, NODE, Writer.class);
+    private static final MethodHandle NEW_AST = constructor(AST);
+    private static final MethodHandle RESET_AST = method(AST, "reset", void.class);
+    private static final MethodHandle PARSE_AST = method(PARSER, "parse", int.class, AST);
+
+    private static final MethodHandle NEW_INTERPRETER = constructor(INTERPRETER, NODE);
+    private static final MethodHandle INTERPRET = method(INTERPRETER, "run", void.class, Appendable.class);
+    private static final MethodHandle GENERATE_CODE = staticMethod(CODE_GENERATOR, "generate", CODE, NODE);
+    private static final MethodHandle NEW_VIRTUAL_MACHINE = constructor(VIRTUAL_MACHINE, CODE);
+    private static final MethodHandle EXECUTE = method(VIRTUAL_MACHINE, "run", void.class, Appendable.class);
+    private static final MethodHandle COMPILE = staticMethod(BYTECODE_COMPILER, "compile", BYTECODE, NODE);
+    private static final MethodHandle RUN_BYTECODE = method(BYTECODE, "run", void.class, Appendable.class);
+    private static final MethodHandle COMPILE_AND_RUN = staticMethod(BYTECODE_COMPILER, "compileAndRun", String.class, String.class);
+
+    private static final MethodHandle GENERATE = staticMethod(GENERATOR, "generate", String.class, long.class, long.class);
+
+    private static final Object END_OF_INPUT = constant(TOKEN_TYPE, "End_of_input");
+
+    /**
+     * @param name  CLASSIC or TABLE
+     * @return  the lexer engine
+     */
+    static Object engine(String name) {
+        return constant(ENGINE, name);
+    }
+
+    static Object lexer(CharSequence source, Object engine) {
+        try {
+            return (Object) NEW_LEXER.invokeExact((Object) source, engine);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object getToken(Object lexer) {
+        try {
+            return (Object) GET_TOKEN.invokeExact(lexer);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean isEnd(Object token) {
+        try {
+            return (Object) TOKEN_TYPE_OF.invokeExact(token) == END_OF_INPUT;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object tokenize(Object lexer) {
+        try {
+            return (Object) TOKENIZE.invokeExact(lexer);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String printTokens(Object lexer) {
+        try {
+            return (String) (Object) PRINT_TOKENS.invokeExact(lexer);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object parser(Object tokens) {
+        try {
+            return (Object) NEW_PARSER.invokeExact(tokens);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object parse(Object parser) {
+        try {
+            return (Object) PARSE.invokeExact(parser);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object ast() {
+        try {
+            return (Object) NEW_AST.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Parses into an arena after resetting it
+     *
+     * @return  the root of the tree in the arena
+     */
+    static int parse(Object parser, Object ast) {
+        try {
+            RESET_AST.invokeExact(ast);
+            return (int) PARSE_AST.invokeExact(parser, ast);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String printAST(Object parser, Object tree) {
+        try {
+            return (String) (Object) PRINT_AST.invokeExact(parser, tree, (Object) new StringBuilder(), false);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void writeAST(Object tree, Writer out) {
+        try {
+            WRITE_AST.invokeExact(tree, (Object) out);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object interpreter(Object tree) {
+        try {
+            return (Object) NEW_INTERPRETER.invokeExact(tree);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void interpret(Object interpreter, Appendable out) {
+        try {
+            INTERPRET.invokeExact(interpreter, (Object) out);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object virtualMachine(Object tree) {
+        try {
+            return (Object) NEW_VIRTUAL_MACHINE.invokeExact((Object) GENERATE_CODE.invokeExact(tree));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void execute(Object virtualMachine, Appendable out) {
+        try {
+            EXECUTE.invokeExact(virtualMachine, (Object) out);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object compile(Object tree) {
+        try {
+            return (Object) COMPILE.invokeExact(tree);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void runBytecode(Object program, Appendable out) {
+        try {
+            RUN_BYTECODE.invokeExact(program, (Object) out);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String compileAndRun(String source) {
+        try {
+            return (String) (Object) COMPILE_AND_RUN.invokeExact((Object) source);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Reads one of the bundled programs, repeated so the input is scale times as long
+     * The program "synthetic" is generated instead, scale kilobytes of it
+     *
+     * @param program   file name in src/main/resources, or synthetic
+     * @param scale how many copies of the program, or kilobytes of synthetic input
+     * @return  the source text
+     */
+    static String source(String program, int scale) {
+        try {
+            if (program.equals("synthetic")) return (String) (Object) GENERATE.invokeExact(1L, scale * 1024L);
+            String text = Files.readString(Path.of("src/main/resources", program)) + "\n";
+            return text.repeat(scale);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static Class<?> find(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> type) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+    }
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameters) {
+        try {
+            MethodHandle handle = lookup(type).findConstructor(type, MethodType.methodType(void.class, parameters));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle method(Class<?> type, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            MethodHandle handle = lookup(type).findVirtual(type, name, MethodType.methodType(result, parameters));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(Class<?> type, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            MethodHandle handle = lookup(type).findStatic(type, name, MethodType.methodType(result, parameters));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle field(Class<?> type, String name, Class<?> fieldType) {
+        try {
+            MethodHandle handle = lookup(type).findGetter(type, name, fieldType);
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object constant(Class<?> type, String name) {
+        return Enum.valueOf((Class) type, name);
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) return (RuntimeException) e;
+        if (e instanceof Error) throw (Error) e;
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,82 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running a parsed program on each backend: the Interpreter walking the tree, the
+ * VirtualMachine running generated code and the program compiled to a JVM class
+ * The program "primes" counts the primes below 200000 and spends its time in tight loops
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutionBenchmark {
+
+    private static final String PRIMES = String.join("\n",
+            "count = 0;",
+            "n = 2;",
+            "while (n < 200000) {",
+            "    k = 2;",
+            "    p = 1;",
+            "    while (k * k <= n && p) {",
+            "        p = n % k != 0;",
+            "        k = k + 1;",
+            "    }",
+            "    if (p) count = count + 1;",
+            "    n = n + 1;",
+            "}",
+            "print(count, \"\\n\");");
+
+    @Param({"primes", "prime.c", "fizzbuzz.c", "99bottles.c"})
+    public String program;
+
+    private String source;
+    private Object interpreter;
+    private Object virtualMachine;
+    private Object bytecode;
+
+    @Setup
+    public void setup() throws Exception {
+        source = program.equals("primes") ? PRIMES : Files.readString(Path.of("src/main/resources", program));
+        Object tree = Compiler.parse(Compiler.parser(Compiler.tokenize(Compiler.lexer(source, Compiler.engine("CLASSIC")))));
+        interpreter = Compiler.interpreter(tree);
+        virtualMachine = Compiler.virtualMachine(tree);
+        bytecode = Compiler.compile(tree);
+    }
+
+    @Benchmark
+    public StringBuilder interpreter() {
+        StringBuilder out = new StringBuilder();
+        Compiler.interpret(interpreter, out);
+        return out;
+    }
+
+    @Benchmark
+    public StringBuilder virtualMachine() {
+        StringBuilder out = new StringBuilder();
+        Compiler.execute(virtualMachine, out);
+        return out;
+    }
+
+    @Benchmark
+    public StringBuilder bytecode() {
+        StringBuilder out = new StringBuilder();
+        Compiler.runBytecode(bytecode, out);
+        return out;
+    }
+
+    /**
+     * Lexing, parsing, class generation and loading included
+     */
+    @Benchmark
+    public String compileAndRun() {
+        return Compiler.compileAndRun(source);
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexer throughput over the bundled programs, each repeated scale times, and over scale
+ * kilobytes of generated code
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LexerBenchmark {
+
+    @Param({"prime.c", "fizzbuzz.c", "99bottles.c", "count.c", "hello.t", "loop.py", "synthetic"})
+    public String program;
+
+    @Param({"1", "1000"})
+    public int scale;
+
+    @Param({"CLASSIC", "TABLE"})
+    public String engine;
+
+    private String source;
+    private Object lexerEngine;
+
+    @Setup
+    public void setup() {
+        source = Compiler.source(program, scale);
+        lexerEngine = Compiler.engine(engine);
+    }
+
+    @Benchmark
+    public void getToken(Blackhole bh) {
+        Object lexer = Compiler.lexer(source, lexerEngine);
+        Object token;
+        do {
+            token = Compiler.getToken(lexer);
+            bh.consume(token);
+        } while (!Compiler.isEnd(token));
+    }
+
+    @Benchmark
+    public Object tokenize() {
+        return Compiler.tokenize(Compiler.lexer(source, lexerEngine));
+    }
+
+    @Benchmark
+    public String printTokens() {
+        return Compiler.printTokens(Compiler.lexer(source, lexerEngine));
+    }
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser and AST printer throughput over the bundled programs, each repeated scale times, and
+ * over scale kilobytes of generated code
+ * The tokens are lexed once up front so only the parser is measured
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    @Param({"prime.c", "fizzbuzz.c", "99bottles.c", "count.c", "hello.t", "loop.py", "synthetic"})
+    public String program;
+
+    @Param({"1", "1000"})
+    public int scale;
+
+    private Object tokens;
+    private Object parser;
+    private Object tree;
+    private Object ast;
+
+    @Setup
+    public void setup() {
+        tokens = Compiler.tokenize(Compiler.lexer(Compiler.source(program, scale), Compiler.engine("CLASSIC")));
+        parser = Compiler.parser(tokens);
+        tree = Compiler.parse(parser);
+        ast = Compiler.ast();
+    }
+
+    @Benchmark
+    public Object parse() {
+        return Compiler.parse(Compiler.parser(tokens));
+    }
+
+    /**
+     * The same tree built in an arena that is reset and reused, instead of as Node objects
+     */
+    @Benchmark
+    public int parseArena() {
+        return Compiler.parse(Compiler.parser(tokens), ast);
+    }
+
+    @Benchmark
+    public String printAST() {
+        return Compiler.printAST(parser, tree);
+    }
+
+    /**
+     * The .par text streamed through the writer's buffer, without building a String
+     */
+    @Benchmark
+    public void writeAST() {
+        Compiler.writeAST(tree, Writer.nullWriter());
+    }
+}
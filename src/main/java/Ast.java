@@ -0,0 +1,290 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Abstract Syntax Tree arena
+ *
+ * Holds a tree as parallel int arrays instead of Parser.Node objects: the type, the left and
+ * right child and the value of node n are at index n. A child is the index of another node or
+ * Parser.NIL. The value of a leaf is its ID in the arena's own SymbolTable, so the text of
+ * Identifier, String and Integer leaves is stored once per spelling, and -1 for inner nodes.
+ *
+ * The arrays grow in chunks of CHUNK nodes that are never copied, and reset() keeps them, so an
+ * arena reused for one compilation after the other stops allocating once it fits the largest
+ * tree. It is filled by Parser.parse(Ast) as its Builder. It is not thread safe.
+ */
+final class Ast implements Parser.Builder {
+    static final int SHIFT = 14;
+    static final int CHUNK = 1 << SHIFT;
+    private static final int MASK = CHUNK - 1;
+    private static final Parser.NodeType[] TYPES = Parser.NodeType.values();
+
+    /**
+     * Walks a tree, see visit
+     */
+    interface Visitor {
+        /**
+         * Called before the children of a node
+         *
+         * @param ast   the arena
+         * @param node  the node
+         * @return  whether to visit its children
+         */
+        boolean enter(Ast ast, int node);
+
+        /**
+         * Called after the children of a node, or right after enter when they were skipped
+         */
+        default void leave(Ast ast, int node) { }
+    }
+
+    private int[][] types = new int[1][];
+    private int[][] lefts = new int[1][];
+    private int[][] rights = new int[1][];
+    private int[][] values = new int[1][];
+    private int chunks;
+    private int count;
+    private final SymbolTable symbols = new SymbolTable();
+    // the ID + 1 in symbols of each symbol ID of the parser, so a known name is not hashed again
+    private int[] known = new int[64];
+    private int knownSize;
+    private int[] stack = new int[64];
+
+    /**
+     * Forgets every node and value, the chunks are kept for the next tree
+     */
+    void reset() {
+        count = 0;
+        symbols.clear();
+        Arrays.fill(known, 0, knownSize, 0);
+        knownSize = 0;
+    }
+
+    /**
+     * @return  how many nodes there are, every node is below it
+     */
+    int count() { return count; }
+
+    @Override
+    public int node(Parser.NodeType type, int left, int right) {
+        return add(type, left, right, -1);
+    }
+
+    /**
+     * The symbol IDs passed in are remembered until reset(), so every tree added in between must
+     * come from parsers that share one SymbolTable
+     */
+    @Override
+    public int leaf(Parser.NodeType type, String value, int symbol) {
+        if (symbol < 0) return add(type, Parser.NIL, Parser.NIL, symbols.intern(value));
+        if (symbol >= known.length) known = Arrays.copyOf(known, Math.max(symbol + 1, known.length * 2));
+        if (known[symbol] == 0) {
+            known[symbol] = symbols.intern(value) + 1;
+            knownSize = Math.max(knownSize, symbol + 1);
+        }
+        return add(type, Parser.NIL, Parser.NIL, known[symbol] - 1);
+    }
+
+    private int add(Parser.NodeType type, int left, int right, int value) {
+        int n = count;
+        int chunk = n >>> SHIFT;
+        if (chunk == chunks) grow();
+        int i = n & MASK;
+        types[chunk][i] = type.ordinal();
+        lefts[chunk][i] = left;
+        rights[chunk][i] = right;
+        values[chunk][i] = value;
+        count = n + 1;
+        return n;
+    }
+
+    private void grow() {
+        if (chunks == types.length) {
+            types = Arrays.copyOf(types, chunks * 2);
+            lefts = Arrays.copyOf(lefts, chunks * 2);
+            rights = Arrays.copyOf(rights, chunks * 2);
+            values = Arrays.copyOf(values, chunks * 2);
+        }
+        types[chunks] = new int[CHUNK];
+        lefts[chunks] = new int[CHUNK];
+        rights[chunks] = new int[CHUNK];
+        values[chunks] = new int[CHUNK];
+        chunks++;
+    }
+
+    Parser.NodeType type(int n) { return TYPES[types[n >>> SHIFT][n & MASK]]; }
+
+    int left(int n) { return lefts[n >>> SHIFT][n & MASK]; }
+
+    int right(int n) { return rights[n >>> SHIFT][n & MASK]; }
+
+    /**
+     * @return  the ID of the text of a leaf in symbols(), -1 for an inner node
+     */
+    int symbol(int n) { return values[n >>> SHIFT][n & MASK]; }
+
+    /**
+     * @return  the text of a leaf, null for an inner node
+     */
+    String value(int n) {
+        int id = symbol(n);
+        return (id < 0) ? null : symbols.name(id);
+    }
+
+    /**
+     * @return  the table the values of the leaves are interned in
+     */
+    SymbolTable symbols() { return symbols; }
+
+    /**
+     * Walks the tree below a node depth first without recursion, children left to right
+     *
+     * @param root  the node to start at, NIL visits nothing
+     * @param visitor   called for every node that is reached
+     */
+    void visit(int root, Visitor visitor) {
+        if (root == Parser.NIL) return;
+        // a node is pushed as n for its enter and as ~n for its leave
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int n = stack[--top];
+            if (n < 0) {
+                visitor.leave(this, ~n);
+                continue;
+            }
+            if (top + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = ~n;
+            if (visitor.enter(this, n)) {
+                int right = right(n), left = left(n);
+                if (right != Parser.NIL) stack[top++] = right;
+                if (left != Parser.NIL) stack[top++] = left;
+            }
+        }
+    }
+
+    /**
+     * @param root  a node of this arena
+     * @return  the tree below it as Node objects, the symbol IDs are the ones of symbols()
+     */
+    Parser.Node toNode(int root) {
+        if (root == Parser.NIL) return null;
+        Parser.Node[] nodes = new Parser.Node[64];
+        int[] pending = new int[64];
+        int top = 0;
+        // post-order: a node is made once both children are on the node stack
+        int size = 0;
+        pending[top++] = root;
+        while (top > 0) {
+            int n = pending[--top];
+            if (n >= 0) {
+                if (top + 3 > pending.length) pending = Arrays.copyOf(pending, pending.length * 2);
+                pending[top++] = ~n;
+                if (right(n) != Parser.NIL) pending[top++] = right(n);
+                if (left(n) != Parser.NIL) pending[top++] = left(n);
+                continue;
+            }
+            n = ~n;
+            Parser.Node node;
+            if (symbol(n) >= 0) {
+                Parser.NodeType type = type(n);
+                int symbol = (type == Parser.NodeType.nd_Integer) ? -1 : symbol(n);
+                node = Parser.Node.make_leaf(type, value(n), symbol);
+            } else {
+                Parser.Node right = (right(n) != Parser.NIL) ? nodes[--size] : null;
+                Parser.Node left = (left(n) != Parser.NIL) ? nodes[--size] : null;
+                node = Parser.Node.make_node(type(n), left, right);
+            }
+            if (size == nodes.length) nodes = Arrays.copyOf(nodes, size * 2);
+            nodes[size++] = node;
+        }
+        return nodes[0];
+    }
+
+    /**
+     * Copies a tree of Node objects into the arena
+     *
+     * @param root  the tree, null for none
+     * @return  its root in the arena, NIL for null
+     */
+    int add(Parser.Node root) {
+        if (root == null) return Parser.NIL;
+        Parser.Node[] pending = new Parser.Node[64];
+        boolean[] visited = new boolean[64];
+        int[] made = new int[64];
+        int top = 0, size = 0;
+        pending[top] = root;
+        visited[top++] = false;
+        while (top > 0) {
+            Parser.Node t = pending[--top];
+            if (isLeaf(t.nt)) {
+                made = push(made, size++, leaf(t.nt, t.value, -1));
+                continue;
+            }
+            if (!visited[top]) {
+                if (top + 3 > pending.length) {
+                    pending = Arrays.copyOf(pending, pending.length * 2);
+                    visited = Arrays.copyOf(visited, visited.length * 2);
+                }
+                visited[top++] = true;
+                if (t.right != null) {
+                    pending[top] = t.right;
+                    visited[top++] = false;
+                }
+                if (t.left != null) {
+                    pending[top] = t.left;
+                    visited[top++] = false;
+                }
+                continue;
+            }
+            int right = (t.right != null) ? made[--size] : Parser.NIL;
+            int left = (t.left != null) ? made[--size] : Parser.NIL;
+            made = push(made, size++, node(t.nt, left, right));
+        }
+        return made[0];
+    }
+
+    private static int[] push(int[] stack, int at, int value) {
+        if (at == stack.length) stack = Arrays.copyOf(stack, at * 2);
+        stack[at] = value;
+        return stack;
+    }
+
+    private static boolean isLeaf(Parser.NodeType type) {
+        return type == Parser.NodeType.nd_Ident || type == Parser.NodeType.nd_Integer || type == Parser.NodeType.nd_String;
+    }
+
+    /**
+     * Writes the .par text of a tree, the same text Parser.writeAST gives for its Node form
+     *
+     * @param root  the tree
+     * @param out   where the text is appended
+     * @throws IOException  if out fails
+     */
+    void write(int root, Appendable out) throws IOException {
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int n = stack[--top];
+            if (n == Parser.NIL) {
+                out.append(";\n");
+                continue;
+            }
+            Parser.NodeType type = type(n);
+            out.append(type.toString());
+            if (isLeaf(type)) {
+                boolean quoted = type == Parser.NodeType.nd_String;
+                out.append(' ');
+                if (quoted) out.append('"');
+                out.append(value(n));
+                if (quoted) out.append('"');
+                out.append(" \n");
+            } else {
+                out.append('\n');
+                if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = right(n);
+                stack[top++] = left(n);
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+/**
+ * Batch Compiler
+ *
+ * Lexes and parses many source files at once. Each file is compiled by its own task on a fork
+ * join pool, nothing is shared between tasks, and the .lex and .par outputs are written in the
+ * order of the input files no matter which task finishes first. A file that fails is reported
+ * with every error the lexer and parser recovered from, and the rest of the batch goes on.
+ */
+final class BatchCompiler {
+
+    /**
+     * What compiling one file produced
+     */
+    static final class Result {
+        final Path source;
+        final String name;
+        String lex;
+        String par;
+        long bytes;
+        int tokens;
+        int nodes;
+        long nanos;
+        // the first error, every problem of the file is in diagnostics
+        String error;
+        final Diagnostics diagnostics = new Diagnostics();
+
+        Result(Path source) {
+            this.source = source;
+            String file = source.getFileName().toString();
+            this.name = (file.indexOf('.') == -1) ? file : file.substring(0, file.indexOf('.'));
+        }
+
+        boolean ok() { return error == null; }
+    }
+
+    private final int parallelism;
+    private final Lexer.Engine engine;
+    private final CompileCache cache;
+
+    /**
+     * @param parallelism   how many files are compiled at the same time
+     * @param engine    the lexer engine to use
+     */
+    BatchCompiler(int parallelism, Lexer.Engine engine) {
+        this(parallelism, engine, null);
+    }
+
+    /**
+     * @param parallelism   how many files are compiled at the same time
+     * @param engine    the lexer engine to use
+     * @param cache where compiled sources are looked up and stored, null for none
+     */
+    BatchCompiler(int parallelism, Lexer.Engine engine, CompileCache cache) {
+        this.parallelism = parallelism;
+        this.engine = engine;
+        this.cache = cache;
+    }
+
+    /**
+     * Lexes and parses one file, every failure is kept in the result instead of being thrown
+     *
+     * @param source    the source file
+     * @param engine    the lexer engine to use
+     * @return  the .lex and .par text, or the error that stopped the file
+     */
+    static Result compile(Path source, Lexer.Engine engine) {
+        return compile(source, engine, null);
+    }
+
+    /**
+     * Lexes and parses one file, or takes its outputs from the cache when the same bytes were
+     * compiled before
+     *
+     * @param source    the source file
+     * @param engine    the lexer engine to use
+     * @param cache where compiled sources are looked up and stored, null for none
+     * @return  the .lex and .par text, or the error that stopped the file
+     */
+    static Result compile(Path source, Lexer.Engine engine, CompileCache cache) {
+        Result result = new Result(source);
+        Metrics.FileEvent event = Metrics.file();
+        long start = System.nanoTime();
+        try {
+            if (cache == null) {
+                Metrics.Span read = Metrics.start(Metrics.Phase.READ, source);
+                result.bytes = Files.size(source);
+                Lexer lexer = Lexer.fromFile(source, engine, result.diagnostics);
+                read.end(result.bytes, 0, 0, 0);
+                compile(result, lexer);
+            } else {
+                Metrics.Span read = Metrics.start(Metrics.Phase.READ, source);
+                byte[] bytes = Files.readAllBytes(source);
+                result.bytes = bytes.length;
+                read.end(result.bytes, 0, 0, 0);
+                String key = CompileCache.key(bytes);
+                CompileCache.Entry entry = cache.get(key);
+                if (entry != null) {
+                    result.lex = entry.lex;
+                    result.par = entry.par;
+                    result.tokens = entry.tokens;
+                    result.nodes = entry.nodes;
+                } else {
+                    compile(result, new Lexer(Lexer.MappedSource.of(ByteBuffer.wrap(bytes)), engine, new SymbolTable(), result.diagnostics));
+                    if (result.ok()) cache.put(key, result.lex, result.par, result.tokens, result.nodes);
+                }
+            }
+        } catch (IOException | CompileException e) {
+            result.error = e.getMessage();
+        } catch (RuntimeException | StackOverflowError e) {
+            result.error = e.toString();
+        }
+        result.nanos = System.nanoTime() - start;
+        long output = ((result.lex != null) ? result.lex.length() : 0) + ((result.par != null) ? result.par.length() : 0);
+        Metrics.file(event, source, result.bytes, result.tokens, result.nodes, output, result.ok());
+        return result;
+    }
+
+    private static void compile(Result result, Lexer lexer) throws IOException {
+        Path source = result.source;
+        Metrics.Span span = Metrics.start(Metrics.Phase.LEX, source);
+        TokenBuffer tokens = lexer.tokenize();
+        result.tokens = tokens.size();
+        span.end(result.bytes, result.tokens, 0, 0);
+
+        span = Metrics.start(Metrics.Phase.PARSE, source);
+        Parser parser = new Parser(tokens.cursor(), result.diagnostics);
+        Parser.Node tree = parser.parse();
+        result.nodes = parser.nodes();
+        span.end(0, result.tokens, result.nodes, 0);
+        for (Diagnostics.Diagnostic diagnostic : result.diagnostics.sorted()) {
+            if (diagnostic.severity != Diagnostics.Severity.ERROR) continue;
+            result.error = new CompileException(diagnostic.line, diagnostic.pos, diagnostic.message).getMessage();
+            return;
+        }
+
+        span = Metrics.start(Metrics.Phase.FORMAT, source);
+        StringBuilder lex = new StringBuilder(tokens.size() * 32);
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i > 0) lex.append('\n');
+            lex.append(tokens.token(i));
+        }
+        result.lex = lex.toString();
+        span.end(0, result.tokens, 0, result.lex.length());
+
+        span = Metrics.start(Metrics.Phase.PRINT, source);
+        StringBuilder par = new StringBuilder(tokens.size() * 16);
+        Parser.writeAST(tree, par);
+        result.par = par.toString();
+        span.end(0, 0, result.nodes, result.par.length());
+    }
+
+    /**
+     * Compiles the files concurrently and writes their outputs in input order
+     * The text of each result is dropped once it is written
+     *
+     * @param sources   the source files
+     * @param output    the directory the .lex and .par files go to
+     * @return  the results in input order
+     * @throws IOException  if an output can not be written
+     */
+    List<Result> run(List<Path> sources, Path output) throws IOException {
+        Files.createDirectories(output);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>(sources.size());
+            for (Path source : sources) tasks.add(pool.submit(() -> compile(source, engine, cache)));
+
+            List<Result> results = new ArrayList<>(sources.size());
+            for (ForkJoinTask<Result> task : tasks) {
+                Result result = task.join();
+                write(result, output);
+                results.add(result);
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Writes the outputs of a result and drops its text
+     * An output that already holds the same text is left alone, with its modification time
+     *
+     * @param result    what compiling a file produced
+     * @param output    the directory the .lex and .par files go to
+     * @throws IOException  if an output can not be written
+     */
+    static void write(Result result, Path output) throws IOException {
+        if (result.lex == null && result.par == null) return;
+        Metrics.Span span = Metrics.start(Metrics.Phase.WRITE, result.source);
+        long bytes = 0;
+        if (result.lex != null) bytes += write(output.resolve(result.name + ".lex"), result.lex);
+        if (result.par != null) bytes += write(output.resolve(result.name + ".par"), result.par);
+        span.end(0, 0, 0, bytes);
+        result.lex = null;
+        result.par = null;
+    }
+
+    /**
+     * @return  how many bytes were written, 0 when the file already held the text
+     */
+    private static long write(Path file, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (Files.isRegularFile(file) && Files.size(file) == bytes.length && Arrays.equals(Files.readAllBytes(file), bytes)) return 0;
+        Files.write(file, bytes);
+        return bytes.length;
+    }
+
+    /**
+     * @return  whether a file is a source and not one of the generated outputs
+     */
+    static boolean isSource(Path file) {
+        String name = file.toString();
+        return !name.endsWith(".lex") && !name.endsWith(".par") && !name.endsWith(".lexb") && !name.endsWith(".parb");
+    }
+
+    /**
+     * Reports every failed file and the throughput of the batch
+     *
+     * @param results   the results of a run
+     * @param nanos how long the run took
+     * @param out   where to print
+     */
+    static void report(List<Result> results, long nanos, PrintStream out) {
+        long bytes = 0, tokens = 0;
+        int failed = 0;
+        for (Result result : results) {
+            bytes += result.bytes;
+            tokens += result.tokens;
+            if (!result.ok()) failed++;
+            if (!result.diagnostics.list().isEmpty()) result.diagnostics.print(result.source, out);
+            else if (!result.ok()) out.printf("%s: %s%n", result.source, result.error);
+        }
+        double seconds = Math.max(nanos, 1) / 1e9;
+        out.printf("Compiled %d files (%d failed), %d bytes, %d tokens in %.1f ms%n",
+                results.size(), failed, bytes, tokens, nanos / 1e6);
+        out.printf("%.1f files/s, %.2f MB/s, %.0f tokens/s%n",
+                results.size() / seconds, bytes / 1e6 / seconds, tokens / seconds);
+    }
+
+    /**
+     * Lists the source files to compile, directories are expanded in name order
+     *
+     * @param paths files or directories
+     * @return  the source files, generated outputs left out
+     * @throws IOException  if a directory can not be listed
+     */
+    static List<Path> sources(List<Path> paths) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        for (Path path : paths) {
+            if (!Files.isDirectory(path)) {
+                sources.add(path);
+                continue;
+            }
+            try (Stream<Path> files = Files.list(path)) {
+                files.filter(Files::isRegularFile)
+                        .filter(BatchCompiler::isSource)
+                        .sorted()
+                        .forEach(sources::add);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Usage: BatchCompiler [--threads n] [--out dir] [--table] [--cache dir] [--cache-size mb] [--stats] [file or directory ...]
+     * Compiles src/main/resources into src/main/output when no paths are given, with --cache
+     * unchanged sources are taken from the cache, which holds 256 MB unless told otherwise, with
+     * --stats the time, sizes and allocation of every phase are printed at the end
+     */
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path output = Path.of("src/main/output");
+        Lexer.Engine engine = Lexer.Engine.CLASSIC;
+        Path cacheDirectory = null;
+        long cacheSize = 256;
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--cache" -> cacheDirectory = Path.of(args[++i]);
+                case "--cache-size" -> cacheSize = Long.parseLong(args[++i]);
+                case "--out" -> output = Path.of(args[++i]);
+                case "--table" -> engine = Lexer.Engine.TABLE;
+                case "--stats" -> Metrics.count(true);
+                default -> paths.add(Path.of(args[i]));
+            }
+        }
+        if (paths.isEmpty()) paths.add(Path.of("src/main/resources"));
+
+        try {
+            List<Path> sources = sources(paths);
+            CompileCache cache = (cacheDirectory == null) ? null : new CompileCache(cacheDirectory, cacheSize << 20);
+            long start = System.nanoTime();
+            List<Result> results = new BatchCompiler(threads, engine, cache).run(sources, output);
+            report(results, System.nanoTime() - start, System.out);
+            if (cache != null) System.out.printf("Cache: %d hits, %d misses, %d evictions, %d entries, %d bytes%n",
+                    cache.hits(), cache.misses(), cache.evictions(), cache.entries(), cache.size());
+            if (Metrics.counting()) Metrics.snapshot().print(System.out);
+        } catch (IOException e) {
+            System.out.println("Exception: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
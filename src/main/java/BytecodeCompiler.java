@@ -0,0 +1,723 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytecode Compiler
+ *
+ * Compiles the tree built by the Parser to a JVM class and loads it as a hidden class, so the
+ * JIT optimizes the program itself. Every variable is a static int field of the class. The top
+ * level statements are split into methods small enough for the JIT to compile; each method
+ * copies the fields it uses into locals on entry and back on exit, so loops work on locals.
+ * while and if become real branches and prints go to a buffered Sink.
+ *
+ * The class file is written by hand in version 49, which needs no stack map frames. A program
+ * too large for a class file is reported with a CompileException, compileAndRun then runs it on
+ * the VirtualMachine instead.
+ */
+final class BytecodeCompiler {
+
+    private static final String CLASS = "CompiledProgram";
+    private static final String SINK = "BytecodeCompiler$Sink";
+    private static final int FLUSH = 1 << 13;
+    // HotSpot does not compile methods over 8000 bytes, the top level statements are split well below that
+    private static final int METHOD_SIZE = 4000;
+
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13,
+            ILOAD = 0x15, ALOAD_0 = 0x2a, ISTORE = 0x36, IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c,
+            IREM = 0x70, INEG = 0x74, I2C = 0x92, IFEQ = 0x99, IF_ICMPEQ = 0x9f, GOTO = 0xa7, RETURN = 0xb1,
+            GETSTATIC = 0xb2, PUTSTATIC = 0xb3, INVOKEVIRTUAL = 0xb6, INVOKESTATIC = 0xb8, WIDE = 0xc4;
+
+    // conditions in the order of the JVM branches, flipping the lowest bit negates one
+    private static final int EQ = 0, NE = 1, LT = 2, GE = 3, GT = 4, LE = 5;
+
+    /**
+     * Where the compiled program prints to
+     * Public methods are not needed, the hidden class lives in the same package
+     */
+    static final class Sink {
+        private final StringBuilder buffer = new StringBuilder(FLUSH + 256);
+        private final Appendable out;
+
+        Sink(Appendable out) {
+            this.out = out;
+        }
+
+        void print(String text) throws IOException {
+            buffer.append(text);
+            if (buffer.length() >= FLUSH) flush();
+        }
+
+        void print(int value) throws IOException {
+            buffer.append(value);
+            if (buffer.length() >= FLUSH) flush();
+        }
+
+        void print(char value) throws IOException {
+            buffer.append(value);
+            if (buffer.length() >= FLUSH) flush();
+        }
+
+        void flush() throws IOException {
+            out.append(buffer);
+            buffer.setLength(0);
+        }
+    }
+
+    /**
+     * A loaded program
+     */
+    static final class Program {
+        private final MethodHandles.Lookup lookup;
+        private final MethodHandle run;
+        private final int methods;
+
+        Program(MethodHandles.Lookup lookup, int methods) throws ReflectiveOperationException {
+            this.lookup = lookup;
+            this.run = lookup.findStatic(lookup.lookupClass(), "run", MethodType.methodType(void.class, Sink.class));
+            this.methods = methods;
+        }
+
+        /**
+         * Runs the program with all variables set to 0
+         *
+         * @param out   where the program prints to
+         * @throws IOException  if the output can not be written
+         */
+        void run(Appendable out) throws IOException {
+            Sink sink = new Sink(out);
+            try {
+                run.invokeExact(sink);
+            } catch (IOException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            } finally {
+                sink.flush();
+            }
+        }
+
+        /**
+         * @param name  a variable of the program
+         * @return  its value after the last run, 0 if the program has no such variable
+         */
+        int get(String name) {
+            try {
+                return (int) lookup.findStaticVarHandle(lookup.lookupClass(), name, int.class).get();
+            } catch (NoSuchFieldException e) {
+                return 0;
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @return  how many methods the top level statements were split into
+         */
+        int methods() {
+            return methods;
+        }
+    }
+
+    /**
+     * A place in the code of the current method that branches go to
+     */
+    private static final class Label {
+        int position = -1;
+        int[] branches = new int[2];
+        int count;
+    }
+
+    // the class
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolSize = 1;
+    private final Map<String, Integer> fields = new HashMap<>();
+    private final List<String> variables = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    // the method being generated
+    private byte[] code = new byte[METHOD_SIZE * 2];
+    private int size;
+    private int depth;
+    private int maxDepth;
+    private final Map<String, Integer> locals = new HashMap<>();
+    private final List<String> localNames = new ArrayList<>();
+
+    /**
+     * Lexes, parses, compiles and runs a program
+     *
+     * @param source    the program
+     * @return  what the program printed
+     */
+    static String compileAndRun(String source) {
+        Parser.Node tree = new Parser(new Lexer(source)).parse();
+        StringBuilder sb = new StringBuilder();
+        try {
+            Program program;
+            try {
+                program = compile(tree);
+            } catch (CompileException e) {
+                new VirtualMachine(CodeGenerator.generate(tree)).run(sb);
+                return sb.toString();
+            }
+            program.run(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compiles a tree and loads it as a hidden class
+     *
+     * @param tree  the tree of Parser.parse()
+     * @return  the loaded program
+     * @throws CompileException if the program does not fit in a class file
+     */
+    static Program compile(Parser.Node tree) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        byte[] bytes = compiler.generate(tree);
+        try {
+            return new Program(MethodHandles.lookup().defineHiddenClass(bytes, true), compiler.methods.size() - 1);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the class file of a tree
+     *
+     * @param tree  the tree of Parser.parse()
+     * @return  the class file
+     */
+    byte[] generate(Parser.Node tree) {
+        List<Parser.Node> statements = statements(tree);
+        int chunks = 0;
+        for (Parser.Node statement : statements) {
+            stmt(statement);
+            if (size >= METHOD_SIZE) {
+                endChunk(chunks++);
+            }
+        }
+        if (size > 0 || chunks == 0) {
+            endChunk(chunks++);
+        }
+
+        // run: set every variable to 0, then call the chunks in order
+        for (String variable : variables) {
+            op(ICONST_0);
+            op(PUTSTATIC);
+            u2(fields.get(variable));
+        }
+        for (int i = 0; i < chunks; i++) {
+            op(ALOAD_0);
+            op(INVOKESTATIC);
+            u2(methodref(CLASS, "chunk" + i, "(L" + SINK + ";)V"));
+        }
+        op(RETURN);
+        method("run", 1, 1);
+        return write();
+    }
+
+    private static List<Parser.Node> statements(Parser.Node t) {
+        // Sequence chains grow to the left, walk them with a loop
+        List<Parser.Node> statements = new ArrayList<>();
+        Parser.Node node = t;
+        while (node != null && node.nt == Parser.NodeType.nd_Sequence) {
+            if (node.right != null) statements.add(node.right);
+            node = node.left;
+        }
+        if (node != null) statements.add(node);
+        List<Parser.Node> ordered = new ArrayList<>(statements.size());
+        for (int i = statements.size() - 1; i >= 0; i--) ordered.add(statements.get(i));
+        return ordered;
+    }
+
+    /**
+     * Wraps the statements generated so far in a method that works on locals
+     */
+    private void endChunk(int index) {
+        byte[] body = Arrays.copyOf(code, size);
+        size = 0;
+        for (int i = 0; i < localNames.size(); i++) {
+            op(GETSTATIC);
+            u2(fields.get(localNames.get(i)));
+            store(i + 1);
+        }
+        append(body);
+        for (int i = 0; i < localNames.size(); i++) {
+            load(i + 1);
+            op(PUTSTATIC);
+            u2(fields.get(localNames.get(i)));
+        }
+        op(RETURN);
+        method("chunk" + index, Math.max(maxDepth, 1) + 1, localNames.size() + 1);
+        locals.clear();
+        localNames.clear();
+        maxDepth = 0;
+    }
+
+    private void stmt(Parser.Node t) {
+        if (t == null) {
+            return;
+        }
+        switch (t.nt) {
+            case nd_Sequence -> {
+                for (Parser.Node statement : statements(t)) stmt(statement);
+            }
+            case nd_Assign -> {
+                expr(t.right);
+                store(local(t.left.value));
+                depth--;
+            }
+            case nd_If -> {
+                Label otherwise = new Label();
+                jump(t.left, false, otherwise);
+                stmt(t.right.left);
+                if (t.right.right == null) {
+                    place(otherwise);
+                } else {
+                    Label end = new Label();
+                    branch(GOTO, end);
+                    place(otherwise);
+                    stmt(t.right.right);
+                    place(end);
+                }
+            }
+            case nd_While -> {
+                // goto test; top: body; test: condition, branch to top when it holds
+                Label test = new Label(), top = new Label();
+                branch(GOTO, test);
+                place(top);
+                stmt(t.right);
+                place(test);
+                jump(t.left, true, top);
+            }
+            case nd_Prts -> {
+                op(ALOAD_0);
+                op(LDC_W);
+                u2(constant("S", Interpreter.unescape(t.left.value)));
+                op(INVOKEVIRTUAL);
+                u2(methodref(SINK, "print", "(Ljava/lang/String;)V"));
+                push(2);
+                depth -= 2;
+            }
+            case nd_Prti, nd_Prtc -> {
+                op(ALOAD_0);
+                push(1);
+                expr(t.left);
+                if (t.nt == Parser.NodeType.nd_Prtc) op(I2C);
+                op(INVOKEVIRTUAL);
+                u2(methodref(SINK, "print", (t.nt == Parser.NodeType.nd_Prtc) ? "(C)V" : "(I)V"));
+                depth -= 2;
+            }
+            default -> throw new CompileException(0, 0, "Can not compile " + t.nt);
+        }
+    }
+
+    /**
+     * Emits the branches taken when the condition is the given truth value
+     *
+     * @param t the condition
+     * @param when  whether the branches are taken when the condition holds or when it fails
+     * @param target    where the branches go
+     */
+    private void jump(Parser.Node t, boolean when, Label target) {
+        switch (t.nt) {
+            case nd_Not -> {
+                jump(t.left, !when, target);
+                return;
+            }
+            case nd_And, nd_Or -> {
+                if (when == (t.nt == Parser.NodeType.nd_Or)) {
+                    // either side alone decides
+                    jump(t.left, when, target);
+                    jump(t.right, when, target);
+                } else {
+                    // the left side can only rule the branch out, the right side decides
+                    Label skip = new Label();
+                    jump(t.left, !when, skip);
+                    jump(t.right, when, target);
+                    place(skip);
+                }
+                return;
+            }
+            default -> { }
+        }
+        int condition = condition(t.nt);
+        if (condition == -1) {
+            expr(t);
+            depth--;
+            branch(IFEQ + (when ? NE : EQ), target);
+            return;
+        }
+        if (!when) condition ^= 1;
+        expr(t.left);
+        if (t.right.nt == Parser.NodeType.nd_Integer && Interpreter.integer(t.right.value) == 0) {
+            depth--;
+            branch(IFEQ + condition, target);
+        } else {
+            expr(t.right);
+            depth -= 2;
+            branch(IF_ICMPEQ + condition, target);
+        }
+    }
+
+    private static int condition(Parser.NodeType nt) {
+        return switch (nt) {
+            case nd_Eql -> EQ;
+            case nd_Neq -> NE;
+            case nd_Lss -> LT;
+            case nd_Geq -> GE;
+            case nd_Gtr -> GT;
+            case nd_Leq -> LE;
+            default -> -1;
+        };
+    }
+
+    private void expr(Parser.Node t) {
+        switch (t.nt) {
+            case nd_Ident -> {
+                load(local(t.value));
+                push(1);
+            }
+            case nd_Integer -> integer(Interpreter.integer(t.value));
+            case nd_Negate -> {
+                expr(t.left);
+                op(INEG);
+            }
+            case nd_Mul, nd_Div, nd_Mod, nd_Add, nd_Sub -> {
+                expr(t.left);
+                expr(t.right);
+                op(switch (t.nt) {
+                    case nd_Mul -> IMUL;
+                    case nd_Div -> IDIV;
+                    case nd_Mod -> IREM;
+                    case nd_Add -> IADD;
+                    default -> ISUB;
+                });
+                depth--;
+            }
+            default -> {
+                // comparisons and logic: branches when false; 1; goto end; false: 0
+                if (condition(t.nt) == -1 && t.nt != Parser.NodeType.nd_Not
+                        && t.nt != Parser.NodeType.nd_And && t.nt != Parser.NodeType.nd_Or) {
+                    throw new CompileException(0, 0, "Can not compile " + t.nt);
+                }
+                Label otherwise = new Label(), end = new Label();
+                jump(t, false, otherwise);
+                integer(1);
+                branch(GOTO, end);
+                place(otherwise);
+                depth--;
+                integer(0);
+                place(end);
+            }
+        }
+    }
+
+    private void integer(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH);
+            op(value & 0xff);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH);
+            u2(value & 0xffff);
+        } else {
+            int index = constant("I", Integer.toString(value));
+            if (index < 256) {
+                op(LDC);
+                op(index);
+            } else {
+                op(LDC_W);
+                u2(index);
+            }
+        }
+        push(1);
+    }
+
+    private int local(String name) {
+        Integer local = locals.get(name);
+        if (local == null) {
+            field(name);
+            localNames.add(name);
+            local = localNames.size();
+            locals.put(name, local);
+        }
+        return local;
+    }
+
+    private void field(String name) {
+        if (!fields.containsKey(name)) {
+            variables.add(name);
+            fields.put(name, fieldref(CLASS, name, "I"));
+        }
+    }
+
+    private void load(int local) {
+        if (local <= 3) {
+            op(0x1a + local);
+        } else if (local <= 255) {
+            op(ILOAD);
+            op(local);
+        } else {
+            op(WIDE);
+            op(ILOAD);
+            u2(local);
+        }
+    }
+
+    private void store(int local) {
+        if (local <= 3) {
+            op(0x3b + local);
+        } else if (local <= 255) {
+            op(ISTORE);
+            op(local);
+        } else {
+            op(WIDE);
+            op(ISTORE);
+            u2(local);
+        }
+    }
+
+    private void push(int values) {
+        depth += values;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void branch(int opcode, Label target) {
+        int at = size;
+        op(opcode);
+        u2(0);
+        if (target.position >= 0) {
+            offset(at, target.position);
+        } else {
+            if (target.count == target.branches.length) target.branches = Arrays.copyOf(target.branches, target.count * 2);
+            target.branches[target.count++] = at;
+        }
+    }
+
+    private void place(Label label) {
+        label.position = size;
+        for (int i = 0; i < label.count; i++) offset(label.branches[i], size);
+    }
+
+    private void offset(int at, int target) {
+        int offset = target - at;
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new CompileException(0, 0, "Program too large for a class file: branch too far");
+        }
+        code[at + 1] = (byte) (offset >> 8);
+        code[at + 2] = (byte) offset;
+    }
+
+    private void op(int value) {
+        if (size == code.length) code = Arrays.copyOf(code, size * 2);
+        code[size++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        op(value >> 8);
+        op(value);
+    }
+
+    private void append(byte[] bytes) {
+        for (byte b : bytes) op(b);
+    }
+
+    /**
+     * Turns the code generated so far into a method
+     */
+    private void method(String name, int maxStack, int maxLocals) {
+        if (size > 65535) {
+            throw new CompileException(0, 0, "Program too large for a class file: method " + name + " has " + size + " bytes");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size + 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(0x0008);     // static
+            out.writeShort(constant("U", name));
+            out.writeShort(constant("U", "(L" + SINK + ";)V"));
+            out.writeShort(1);
+            out.writeShort(constant("U", "Code"));
+            out.writeInt(12 + size);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(size);
+            out.write(code, 0, size);
+            out.writeShort(0);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(bytes.toByteArray());
+        size = 0;
+        depth = 0;
+    }
+
+    private byte[] write() {
+        int thisClass = constant("C", CLASS);
+        int superClass = constant("C", "java/lang/Object");
+        int type = constant("U", "I");
+        List<Integer> names = new ArrayList<>(variables.size());
+        for (String variable : variables) names.add(constant("U", variable));
+        if (poolSize > 65535) {
+            throw new CompileException(0, 0, "Program too large for a class file: " + poolSize + " constants");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pool.size() + 1024);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolSize);
+            constants.flush();
+            pool.writeTo(out);
+            out.writeShort(0x0030);     // final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(variables.size());
+            for (int name : names) {
+                out.writeShort(0x0008); // static
+                out.writeShort(name);
+                out.writeShort(type);
+                out.writeShort(0);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) out.write(method);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private int fieldref(String owner, String name, String descriptor) {
+        return member(9, owner, name, descriptor);
+    }
+
+    private int methodref(String owner, String name, String descriptor) {
+        return member(10, owner, name, descriptor);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        String key = tag + " " + owner + " " + name + " " + descriptor;
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        int owned = constant("C", owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return entry(key, out -> {
+            out.writeByte(tag);
+            out.writeShort(owned);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N " + name + " " + descriptor;
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        int named = constant("U", name);
+        int described = constant("U", descriptor);
+        return entry(key, out -> {
+            out.writeByte(12);
+            out.writeShort(named);
+            out.writeShort(described);
+        });
+    }
+
+    /**
+     * @param kind  U for a Utf8, C for a class, S for a string, I for an integer
+     * @param value the text of the constant
+     * @return  its index in the constant pool
+     */
+    private int constant(String kind, String value) {
+        String key = kind + " " + value;
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        switch (kind) {
+            case "U" -> {
+                int length = 0;
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    length += c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+                }
+                // the length of a Utf8 constant is a u2 of its modified UTF-8 bytes
+                if (length > 65535) {
+                    throw new CompileException(0, 0, "Program too large for a class file: string constant of " + length + " bytes");
+                }
+                return entry(key, out -> {
+                    out.writeByte(1);
+                    out.writeUTF(value);
+                });
+            }
+            case "C", "S" -> {
+                int utf8 = constant("U", value);
+                return entry(key, out -> {
+                    out.writeByte(kind.equals("C") ? 7 : 8);
+                    out.writeShort(utf8);
+                });
+            }
+            default -> {
+                return entry(key, out -> {
+                    out.writeByte(3);
+                    out.writeInt(Integer.parseInt(value));
+                });
+            }
+        }
+    }
+
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, Entry entry) {
+        try {
+            entry.write(constants);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        entries.put(key, poolSize);
+        return poolSize++;
+    }
+
+    /**
+     * Usage: BytecodeCompiler [-O] file
+     * Runs the program, with -O the tree goes through the Optimizer first
+     */
+    public static void main(String[] args) {
+        boolean optimize = args.length == 2 && args[0].equals("-O");
+        if (args.length != 1 && !optimize) {
+            System.out.println("Usage: BytecodeCompiler [-O] file");
+            System.exit(1);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        try {
+            Parser.Node tree = new Parser(Lexer.fromFile(Path.of(args[args.length - 1]))).parse();
+            compile(optimize ? Optimizer.optimize(tree) : tree).run(out);
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Exception: " + e.getMessage());
+            System.exit(1);
+        } catch (CompileException | ArithmeticException e) {
+            try { out.flush(); } catch (IOException ignored) { }
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
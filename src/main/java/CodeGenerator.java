@@ -0,0 +1,367 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Code Generator
+ *
+ * Lowers the tree built by the Parser to instructions of a stack machine. The instructions are
+ * kept in one flat int[]: an opcode followed by its operands. Operands are the data slot of a
+ * variable, a value, the index of a string in the string pool or the absolute index a jump goes
+ * to. Integer values fit in an operand, so only strings need a pool.
+ *
+ * Besides the plain stack instructions there are forms that take the right side of a binary
+ * operator straight from an operand or a variable, and jumps that compare on their own, so the
+ * machine dispatches fewer instructions per statement. Loops test their condition at the bottom.
+ * && and || jump over their right side when the left side decides, like the Interpreter.
+ */
+final class CodeGenerator {
+
+    static final int FETCH = 0, STORE = 1, PUSH = 2, ADD = 3, SUB = 4, MUL = 5, DIV = 6, MOD = 7,
+            LT = 8, GT = 9, LE = 10, GE = 11, EQ = 12, NE = 13, NEG = 14, NOT = 15,
+            JMP = 16, JZ = 17, JNZ = 18, PRTC = 19, PRTS = 20, PRTI = 21, HALT = 22;
+
+    // a binary operator plus IMMEDIATE takes its right side from its operand instead of the
+    // stack, plus VARIABLE from the data slot in its operand
+    static final int IMMEDIATE = 20, VARIABLE = 31;
+
+    // compare the two values on top of the stack and jump when the comparison holds, plus
+    // JUMP_IMMEDIATE compare the top of the stack with the first of two operands
+    static final int JLT = 45, JGT = 46, JLE = 47, JGE = 48, JEQ = 49, JNE = 50;
+    static final int JUMP_IMMEDIATE = 6;
+
+    static final String[] NAMES = {"fetch", "store", "push", "add", "sub", "mul", "div", "mod",
+            "lt", "gt", "le", "ge", "eq", "ne", "neg", "not",
+            "jmp", "jz", "jnz", "prtc", "prts", "prti", "halt",
+            "addi", "subi", "muli", "divi", "modi", "lti", "gti", "lei", "gei", "eqi", "nei",
+            "addv", "subv", "mulv", "divv", "modv", "ltv", "gtv", "lev", "gev", "eqv", "nev",
+            "jlt", "jgt", "jle", "jge", "jeq", "jne", "jlti", "jgti", "jlei", "jgei", "jeqi", "jnei"};
+
+    // how each instruction changes the height of the stack
+    private static final int[] EFFECT = {1, -1, 1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, 0, 0,
+            0, -1, -1, -1, 0, -1, 0,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            -2, -2, -2, -2, -2, -2, -1, -1, -1, -1, -1, -1};
+
+    /**
+     * A generated program
+     */
+    static final class Program {
+        final int[] code;
+        final String[] strings;
+        final String[] names;
+        final int maxStack;
+
+        Program(int[] code, String[] strings, String[] names, int maxStack) {
+            this.code = code;
+            this.strings = strings;
+            this.names = names;
+            this.maxStack = maxStack;
+        }
+
+        /**
+         * @param opcode    an opcode
+         * @return  how many operands follow it
+         */
+        static int operands(int opcode) {
+            if (opcode >= JLT + JUMP_IMMEDIATE) return 2;
+            if (opcode <= PUSH || (opcode >= JMP && opcode <= JNZ) || opcode == PRTS || opcode > HALT) return 1;
+            return 0;
+        }
+
+        /**
+         * Lists the program as assembly text
+         *
+         * @return  the header with the data size and the string pool, then one line per instruction
+         */
+        String disassemble() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Datasize: ").append(names.length).append(" Strings: ").append(strings.length).append('\n');
+            for (String string : strings) {
+                sb.append('"').append(escape(string)).append('"').append('\n');
+            }
+            for (int pc = 0; pc < code.length; pc += 1 + operands(code[pc])) {
+                int opcode = code[pc];
+                sb.append(String.format("%5d %s", pc, NAMES[opcode]));
+                if (opcode == FETCH || opcode == STORE || (opcode >= ADD + VARIABLE && opcode <= NE + VARIABLE)) {
+                    sb.append(" [").append(code[pc + 1]).append("]");
+                } else if (opcode == PRTS) {
+                    sb.append(" \"").append(escape(strings[code[pc + 1]])).append('"');
+                } else if (opcode == PUSH || (opcode >= ADD + IMMEDIATE && opcode <= NE + IMMEDIATE)) {
+                    sb.append(' ').append(code[pc + 1]);
+                } else if (opcode >= JLT + JUMP_IMMEDIATE) {
+                    sb.append(' ').append(code[pc + 1]).append(" (").append(code[pc + 2] - pc - 2).append(") ").append(code[pc + 2]);
+                } else if (operands(opcode) == 1) {
+                    sb.append(" (").append(code[pc + 1] - pc - 1).append(") ").append(code[pc + 1]);
+                }
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+
+        private static String escape(String string) {
+            return string.replace("\\", "\\\\").replace("\n", "\\n");
+        }
+    }
+
+    private int[] code = new int[256];
+    private int size;
+    private int depth;
+    private int maxStack;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    // data slot + 1 by symbol ID, 0 for symbols not stored or fetched yet
+    private int[] symbolSlots = new int[64];
+    private final Map<String, Integer> pool = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    /**
+     * Generates the code of a tree
+     *
+     * @param tree  the tree of Parser.parse()
+     * @return  the program, ending with halt
+     */
+    static Program generate(Parser.Node tree) {
+        CodeGenerator generator = new CodeGenerator();
+        generator.stmt(tree);
+        generator.emit(HALT);
+        return new Program(Arrays.copyOf(generator.code, generator.size), generator.strings.toArray(new String[0]),
+                generator.names.toArray(new String[0]), Math.max(generator.maxStack, 1));
+    }
+
+    private void stmt(Parser.Node t) {
+        if (t == null) {
+            return;
+        }
+        switch (t.nt) {
+            case nd_Sequence -> {
+                // Sequence chains grow to the left, walk them with a loop
+                List<Parser.Node> statements = new ArrayList<>();
+                Parser.Node node = t;
+                while (node != null && node.nt == Parser.NodeType.nd_Sequence) {
+                    if (node.right != null) statements.add(node.right);
+                    node = node.left;
+                }
+                if (node != null) statements.add(node);
+                for (int i = statements.size() - 1; i >= 0; i--) stmt(statements.get(i));
+            }
+            case nd_Assign -> {
+                expr(t.right);
+                emit(STORE, slot(t.left));
+            }
+            case nd_If -> {
+                int otherwise = jump(t.left, false, 0);
+                stmt(t.right.left);
+                if (t.right.right == null) {
+                    patch(otherwise, size);
+                } else {
+                    int end = emit(JMP, 0);
+                    patch(otherwise, size);
+                    stmt(t.right.right);
+                    patch(end, size);
+                }
+            }
+            case nd_While -> {
+                // jmp test; top: body; test: condition, jump to top when it holds
+                int test = emit(JMP, 0);
+                int top = size;
+                stmt(t.right);
+                patch(test, size);
+                patch(jump(t.left, true, 0), top);
+            }
+            case nd_Prts -> emit(PRTS, string(Interpreter.unescape(t.left.value)));
+            case nd_Prti -> {
+                expr(t.left);
+                emit(PRTI);
+            }
+            case nd_Prtc -> {
+                expr(t.left);
+                emit(PRTC);
+            }
+            default -> throw new CompileException(0, 0, "Can not generate code for " + t.nt);
+        }
+    }
+
+    /**
+     * Emits the jumps taken when the condition is the given truth value
+     * && and || become jumps of their own, no value is pushed for them
+     * Jumps whose target is not known yet are chained through their operands, each one holding
+     * the one before it and the first one holding 0, until patch gives them their target
+     *
+     * @param t the condition
+     * @param when  whether the jumps are taken when the condition holds or when it fails
+     * @param chain the jumps to add to, 0 for none
+     * @return  the chain with the new jumps added
+     */
+    private int jump(Parser.Node t, boolean when, int chain) {
+        switch (t.nt) {
+            case nd_Not -> {
+                return jump(t.left, !when, chain);
+            }
+            case nd_And, nd_Or -> {
+                if (when == (t.nt == Parser.NodeType.nd_Or)) {
+                    // either side alone decides
+                    chain = jump(t.left, when, chain);
+                    return jump(t.right, when, chain);
+                }
+                // the left side can only rule the jump out, the right side decides
+                int skip = jump(t.left, !when, 0);
+                chain = jump(t.right, when, chain);
+                patch(skip, size);
+                return chain;
+            }
+            default -> { }
+        }
+        int compare = comparison(t.nt);
+        if (compare == -1) {
+            expr(t);
+            return emit(when ? JNZ : JZ, chain);
+        }
+        if (!when) {
+            compare = switch (compare) {
+                case JLT -> JGE;
+                case JGE -> JLT;
+                case JGT -> JLE;
+                case JLE -> JGT;
+                case JEQ -> JNE;
+                default -> JEQ;
+            };
+        }
+        expr(t.left);
+        if (t.right.nt == Parser.NodeType.nd_Integer) {
+            return emit(compare + JUMP_IMMEDIATE, Interpreter.integer(t.right.value), chain);
+        }
+        expr(t.right);
+        return emit(compare, chain);
+    }
+
+    private static int comparison(Parser.NodeType nt) {
+        return switch (nt) {
+            case nd_Lss -> JLT;
+            case nd_Gtr -> JGT;
+            case nd_Leq -> JLE;
+            case nd_Geq -> JGE;
+            case nd_Eql -> JEQ;
+            case nd_Neq -> JNE;
+            default -> -1;
+        };
+    }
+
+    private void expr(Parser.Node t) {
+        switch (t.nt) {
+            case nd_Ident -> emit(FETCH, slot(t));
+            case nd_Integer -> emit(PUSH, Interpreter.integer(t.value));
+            case nd_Negate -> {
+                expr(t.left);
+                emit(NEG);
+            }
+            case nd_Not -> {
+                expr(t.left);
+                emit(NOT);
+            }
+            case nd_And, nd_Or -> {
+                // jumps when false; push 1; jmp end; false: push 0
+                int otherwise = jump(t, false, 0);
+                emit(PUSH, 1);
+                int end = emit(JMP, 0);
+                patch(otherwise, size);
+                depth--;
+                emit(PUSH, 0);
+                patch(end, size);
+            }
+            default -> {
+                int opcode = switch (t.nt) {
+                    case nd_Mul -> MUL;
+                    case nd_Div -> DIV;
+                    case nd_Mod -> MOD;
+                    case nd_Add -> ADD;
+                    case nd_Sub -> SUB;
+                    case nd_Lss -> LT;
+                    case nd_Leq -> LE;
+                    case nd_Gtr -> GT;
+                    case nd_Geq -> GE;
+                    case nd_Eql -> EQ;
+                    case nd_Neq -> NE;
+                    default -> throw new CompileException(0, 0, "Can not generate code for " + t.nt);
+                };
+                expr(t.left);
+                if (t.right.nt == Parser.NodeType.nd_Integer) {
+                    emit(opcode + IMMEDIATE, Interpreter.integer(t.right.value));
+                } else if (t.right.nt == Parser.NodeType.nd_Ident) {
+                    emit(opcode + VARIABLE, slot(t.right));
+                } else {
+                    expr(t.right);
+                    emit(opcode);
+                }
+            }
+        }
+    }
+
+    /**
+     * The data slot of an Identifier node, looked up by symbol ID when it has one
+     */
+    private int slot(Parser.Node t) {
+        if (t.symbol < 0) return slot(t.value);
+        if (t.symbol >= symbolSlots.length) symbolSlots = Arrays.copyOf(symbolSlots, Math.max(t.symbol + 1, symbolSlots.length * 2));
+        if (symbolSlots[t.symbol] == 0) symbolSlots[t.symbol] = slot(t.value) + 1;
+        return symbolSlots[t.symbol] - 1;
+    }
+
+    private int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = names.size();
+            slots.put(name, slot);
+            names.add(name);
+        }
+        return slot;
+    }
+
+    private int string(String text) {
+        Integer index = pool.get(text);
+        if (index == null) {
+            index = strings.size();
+            pool.put(text, index);
+            strings.add(text);
+        }
+        return index;
+    }
+
+    private int emit(int opcode) {
+        depth += EFFECT[opcode];
+        maxStack = Math.max(maxStack, depth);
+        return put(opcode);
+    }
+
+    /**
+     * @return  where the last operand went, so that a jump can be patched later
+     */
+    private int emit(int opcode, int operand) {
+        emit(opcode);
+        return put(operand);
+    }
+
+    private int emit(int opcode, int first, int second) {
+        emit(opcode);
+        put(first);
+        return put(second);
+    }
+
+    private void patch(int chain, int target) {
+        while (chain != 0) {
+            int next = code[chain];
+            code[chain] = target;
+            chain = next;
+        }
+    }
+
+    private int put(int value) {
+        if (size == code.length) code = Arrays.copyOf(code, size * 2);
+        code[size] = value;
+        return size++;
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.stream.Stream;
+
+/**
+ * Compile Cache
+ *
+ * Keeps the .lex and .par text of compiled sources on disk, keyed by the SHA-256 of the source
+ * bytes and of VERSION, so that a source that was compiled before is not lexed or parsed again.
+ * An entry is the two files <key>.lex and <key>.par, written under temporary names and moved
+ * in place so a reader never sees half an entry. The .par file starts with a line holding the
+ * number of tokens and nodes, so a hit reports the same counts as compiling.
+ *
+ * The total size of the entries is bounded, the least recently used ones are deleted first.
+ * Use is tracked in memory and in the modification time of the .par file, which a hit moves
+ * forward, so the order survives a restart. Only sources that compile are cached.
+ */
+final class CompileCache {
+    /**
+     * Changes whenever the lexer or parser can give other output for the same source, entries
+     * written by another version are never found again and age out
+     */
+    static final String VERSION = "mini-compiler 2";
+
+    /**
+     * What a cached source compiled to
+     */
+    static final class Entry {
+        final String lex;
+        final String par;
+        final int tokens;
+        final int nodes;
+
+        Entry(String lex, String par, int tokens, int nodes) {
+            this.lex = lex;
+            this.par = par;
+            this.tokens = tokens;
+            this.nodes = nodes;
+        }
+
+        /**
+         * @return  the token stream, read from the .lex text without lexing
+         */
+        List<Token> tokens() {
+            return Parser.readTokens(new Scanner(lex));
+        }
+
+        /**
+         * @param symbols   the table the Identifier and String leaves are interned into
+         * @return  the tree, read from the .par text without parsing
+         */
+        Parser.Node tree(SymbolTable symbols) {
+            return Parser.readAST(new Scanner(par), symbols);
+        }
+    }
+
+    private final Path directory;
+    private final long capacity;
+    // the size of every entry, least recently used first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Opens a cache directory, the entries already in it are kept
+     *
+     * @param directory where the entries are stored
+     * @param capacity  how many bytes the entries may take together
+     * @throws IOException  if the directory can not be created or listed
+     */
+    CompileCache(Path directory, long capacity) throws IOException {
+        this.directory = directory;
+        this.capacity = capacity;
+        Files.createDirectories(directory);
+        Map<String, Long> sizes = new HashMap<>();
+        Map<String, FileTime> used = new HashMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                if (dot == -1 || name.startsWith(".")) continue;
+                String key = name.substring(0, dot);
+                sizes.merge(key, Files.size(file), Long::sum);
+                if (name.endsWith(".par")) used.put(key, Files.getLastModifiedTime(file));
+            }
+        }
+        for (String key : sizes.keySet()) {
+            // a .lex without its .par is what is left of an interrupted put
+            if (!used.containsKey(key)) Files.deleteIfExists(directory.resolve(key + ".lex"));
+        }
+        List<String> keys = new ArrayList<>(used.keySet());
+        keys.sort(Comparator.comparing(used::get));
+        for (String key : keys) {
+            entries.put(key, sizes.get(key));
+            size += sizes.get(key);
+        }
+        evict();
+    }
+
+    /**
+     * @param source    the source bytes
+     * @return  the key of the source, the hex SHA-256 of VERSION and the bytes
+     */
+    static String key(byte[] source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            byte[] hash = digest.digest(source);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) sb.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks a source up, a hit makes it the most recently used entry
+     * An entry that was deleted behind the cache's back, or that is corrupt or cut short, is
+     * dropped and counts as a miss, so the source is compiled and stored again
+     *
+     * @param key   the key of the source
+     * @return  what it compiled to, null if it is not cached
+     * @throws IOException  if the entry can not be read
+     */
+    synchronized Entry get(String key) throws IOException {
+        if (entries.get(key) == null) {
+            misses++;
+            return null;
+        }
+        Path par = directory.resolve(key + ".par");
+        Entry entry;
+        try {
+            entry = read(directory.resolve(key + ".lex"), par);
+        } catch (NoSuchFileException | CharacterCodingException e) {
+            entry = null;
+        }
+        if (entry == null) {
+            Files.deleteIfExists(directory.resolve(key + ".lex"));
+            Files.deleteIfExists(par);
+            size -= entries.remove(key);
+            misses++;
+            return null;
+        }
+        Files.setLastModifiedTime(par, FileTime.fromMillis(System.currentTimeMillis()));
+        hits++;
+        return entry;
+    }
+
+    /**
+     * @return  the entry in the two files, null if the header of the .par file is not two counts
+     */
+    private static Entry read(Path lex, Path par) throws IOException {
+        String tokens = Files.readString(lex);
+        String text = Files.readString(par);
+        int header = text.indexOf('\n');
+        int space = text.indexOf(' ');
+        if (header == -1 || space == -1 || space > header) return null;
+        try {
+            return new Entry(tokens, text.substring(header + 1), Integer.parseInt(text, 0, space, 10),
+                    Integer.parseInt(text, space + 1, header, 10));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores what a source compiled to and evicts the least recently used entries over capacity
+     *
+     * @param key   the key of the source
+     * @param lex   the .lex text
+     * @param par   the .par text
+     * @param tokens    how many tokens the source has
+     * @param nodes how many nodes its tree has
+     * @throws IOException  if the entry can not be written
+     */
+    synchronized void put(String key, String lex, String par, int tokens, int nodes) throws IOException {
+        Long old = entries.remove(key);
+        if (old != null) size -= old;
+        long bytes = write(key + ".lex", "", lex) + write(key + ".par", tokens + " " + nodes + "\n", par);
+        entries.put(key, bytes);
+        size += bytes;
+        evict();
+    }
+
+    private long write(String name, String header, String text) throws IOException {
+        Path temporary = Files.createTempFile(directory, ".", ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temporary)) {
+                out.write(header);
+                out.write(text);
+            }
+            Path file = directory.resolve(name);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Files.size(file);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Long>> oldest = entries.entrySet().iterator();
+        while (size > capacity && oldest.hasNext()) {
+            Map.Entry<String, Long> entry = oldest.next();
+            Files.deleteIfExists(directory.resolve(entry.getKey() + ".lex"));
+            Files.deleteIfExists(directory.resolve(entry.getKey() + ".par"));
+            size -= entry.getValue();
+            oldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return  how many lookups found their source
+     */
+    synchronized long hits() { return hits; }
+
+    /**
+     * @return  how many lookups did not
+     */
+    synchronized long misses() { return misses; }
+
+    /**
+     * @return  how many entries were deleted to stay within capacity
+     */
+    synchronized long evictions() { return evictions; }
+
+    /**
+     * @return  how many entries there are
+     */
+    synchronized int entries() { return entries.size(); }
+
+    /**
+     * @return  how many bytes the entries take together
+     */
+    synchronized long size() { return size; }
+}
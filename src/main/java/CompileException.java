@@ -0,0 +1,25 @@
+/**
+ * Compile Error
+ *
+ * Thrown by the Lexer and the Parser when the source code can not be handled. It carries
+ * where the problem was found so the caller decides whether to stop or to go on with other files.
+ */
+class CompileException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    final int line;
+    final int pos;
+    // the message without the place
+    final String detail;
+
+    /**
+     * @param line  where error occurs, 0 or less when unknown
+     * @param pos   where error occurs, 0 or less when unknown
+     * @param msg   what has happened
+     */
+    CompileException(int line, int pos, String msg) {
+        super((line > 0 && pos > 0) ? String.format("%s in line %d, pos %d", msg, line, pos) : msg);
+        this.line = line;
+        this.pos = pos;
+        this.detail = msg;
+    }
+}
@@ -0,0 +1,306 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiler Daemon
+ *
+ * Stays resident so that the lexer and parser are loaded and compiled by the JIT once, instead
+ * of on every run. Watched directories are compiled when they are added and then every source
+ * file that is created or modified in them is compiled again to .lex and .par. A file whose
+ * size and modification time did not change since it was last compiled is skipped, editors
+ * often report one save as several events.
+ *
+ * Compiles can also be asked for with a line protocol, on stdin or on a local socket:
+ *      compile <file>  answers "ok <name> <tokens> tokens <ms> ms" or "error <file>: <message>"
+ *      status          answers "compiled <n>, failed <n>, skipped <n>, watching <n>"
+ *      stats           answers the Metrics summary, counted when started with --stats
+ *      quit            ends the session
+ *      shutdown        stops the daemon
+ */
+final class CompilerDaemon implements Closeable {
+    private final Path output;
+    private final Lexer.Engine engine;
+    private final PrintStream log;
+    private final WatchService watcher;
+    private final List<Path> watched = new ArrayList<>();
+    // the size and modification time of each file when it was last compiled
+    private final Map<Path, String> stamps = new ConcurrentHashMap<>();
+    private ServerSocket server;
+    private int compiled;
+    private int failed;
+    private int skipped;
+
+    /**
+     * @param output    the directory the .lex and .par files go to
+     * @param engine    the lexer engine to use
+     * @param log   where the files compiled by the watcher are reported
+     * @throws IOException  if the output can not be created or files can not be watched
+     */
+    CompilerDaemon(Path output, Lexer.Engine engine, PrintStream log) throws IOException {
+        Files.createDirectories(output);
+        this.output = output;
+        this.engine = engine;
+        this.log = log;
+        this.watcher = output.getFileSystem().newWatchService();
+    }
+
+    /**
+     * Compiles a file and writes its outputs
+     *
+     * @param source    the source file
+     * @param force whether to compile it even if it did not change since the last time
+     * @return  what compiling produced, null when it was skipped
+     * @throws IOException  if an output can not be written
+     */
+    synchronized BatchCompiler.Result compile(Path source, boolean force) throws IOException {
+        String stamp;
+        try {
+            stamp = Files.size(source) + "@" + Files.getLastModifiedTime(source).toMillis();
+        } catch (IOException e) {
+            // gone before it could be compiled, the compile below reports it
+            stamp = null;
+        }
+        if (!force && stamp != null && stamp.equals(stamps.get(source))) {
+            skipped++;
+            return null;
+        }
+        BatchCompiler.Result result = BatchCompiler.compile(source, engine);
+        try {
+            BatchCompiler.write(result, output);
+        } catch (IOException e) {
+            failed++;
+            throw e;
+        }
+        if (result.ok()) compiled++;
+        else failed++;
+        if (stamp != null) stamps.put(source, stamp);
+        return result;
+    }
+
+    /**
+     * Compiles the sources of a directory and watches it for changes from now on
+     *
+     * @param directory the directory
+     * @throws IOException  if it can not be listed or watched
+     */
+    void watch(Path directory) throws IOException {
+        directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.OVERFLOW);
+        synchronized (watched) {
+            watched.add(directory);
+        }
+        for (Path source : BatchCompiler.sources(List.of(directory))) report(compile(source, false));
+    }
+
+    /**
+     * Compiles the files the watched directories report as changed, until the daemon is closed
+     * A file that can not be compiled or written is logged and the watch goes on
+     */
+    void run() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // events were lost, the stamps tell which files changed
+                        List<Path> sources;
+                        try {
+                            sources = BatchCompiler.sources(List.of(directory));
+                        } catch (IOException e) {
+                            log.println("Exception: " + e.getMessage());
+                            continue;
+                        }
+                        for (Path source : sources) recompile(source);
+                        continue;
+                    }
+                    Path source = directory.resolve((Path) event.context());
+                    if (BatchCompiler.isSource(source) && Files.isRegularFile(source)) recompile(source);
+                }
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void recompile(Path source) {
+        try {
+            report(compile(source, false));
+        } catch (IOException e) {
+            log.printf("%s: %s%n", source, e.getMessage());
+        }
+    }
+
+    private void report(BatchCompiler.Result result) {
+        if (result == null) return;
+        if (result.ok()) log.printf("Compiled %s in %.1f ms%n", result.source, result.nanos / 1e6);
+        else log.printf("%s: %s%n", result.source, result.error);
+    }
+
+    /**
+     * Answers the requests of one session until it says quit or ends
+     *
+     * @param in    the requests, one per line
+     * @param out   the answers, one per request, an output that can not be written is an error
+     *              answer like a source that does not compile
+     * @throws IOException  if the session can not be read
+     */
+    void serve(Reader in, Writer out) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        PrintWriter writer = new PrintWriter(out, true);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.strip();
+            if (line.isEmpty()) continue;
+            int space = line.indexOf(' ');
+            String command = (space == -1) ? line : line.substring(0, space);
+            String argument = (space == -1) ? "" : line.substring(space + 1).strip();
+            switch (command) {
+                case "compile" -> {
+                    BatchCompiler.Result result;
+                    try {
+                        result = compile(Path.of(argument), true);
+                    } catch (IOException e) {
+                        writer.printf("error %s: %s%n", argument, e.getMessage());
+                        continue;
+                    }
+                    if (result.ok()) writer.printf("ok %s %d tokens %.1f ms%n", result.name, result.tokens, result.nanos / 1e6);
+                    else writer.printf("error %s: %s%n", result.source, result.error);
+                }
+                case "status" -> writer.println(status());
+                case "stats" -> writer.println(Metrics.snapshot());
+                case "quit" -> {
+                    return;
+                }
+                case "shutdown" -> {
+                    writer.println("ok");
+                    close();
+                    return;
+                }
+                default -> writer.println("error unknown command: " + command);
+            }
+        }
+    }
+
+    /**
+     * @return  how many files were compiled, failed and skipped and how many directories are watched
+     */
+    synchronized String status() {
+        int directories;
+        synchronized (watched) {
+            directories = watched.size();
+        }
+        return String.format("compiled %d, failed %d, skipped %d, watching %d", compiled, failed, skipped, directories);
+    }
+
+    /**
+     * Accepts sessions on a local port, each on its own thread, until the daemon is closed
+     *
+     * @param port  the port, 0 for any free one
+     * @return  the port it listens on
+     * @throws IOException  if the port can not be opened
+     */
+    int listen(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread session = new Thread(() -> {
+                        try (socket) {
+                            serve(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8),
+                                    new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8));
+                        } catch (IOException e) {
+                            log.println("Exception: " + e.getMessage());
+                        }
+                    }, "compiler-session");
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }, "compiler-listen");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops watching and listening
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+        if (server != null) server.close();
+    }
+
+    /**
+     * Runs the lexer and parser over a generated program a few times, so that the first real
+     * compile is already done by the JIT
+     */
+    static void warmUp() {
+        String source = ProgramGenerator.generate(1, 1 << 16);
+        for (int i = 0; i < 20; i++) new Parser(new Lexer(source).tokenize()).parse();
+    }
+
+    /**
+     * Usage: CompilerDaemon [--out dir] [--table] [--port n] [--stats] [directory ...]
+     * Watches src/main/resources into src/main/output when no directories are given and reads
+     * requests from stdin. With --port they are also taken on a local socket and the daemon
+     * keeps running after stdin ends, until a session asks for shutdown
+     */
+    public static void main(String[] args) {
+        Path output = Path.of("src/main/output");
+        Lexer.Engine engine = Lexer.Engine.CLASSIC;
+        int port = -1;
+        List<Path> directories = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--out" -> output = Path.of(args[++i]);
+                case "--table" -> engine = Lexer.Engine.TABLE;
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--stats" -> Metrics.count(true);
+                default -> directories.add(Path.of(args[i]));
+            }
+        }
+        if (directories.isEmpty()) directories.add(Path.of("src/main/resources"));
+
+        warmUp();
+        try (CompilerDaemon daemon = new CompilerDaemon(output, engine, System.out)) {
+            for (Path directory : directories) daemon.watch(directory);
+            if (port >= 0) System.out.println("Listening on port " + daemon.listen(port));
+            Thread watcher = new Thread(daemon::run, "compiler-watch");
+            watcher.setDaemon(true);
+            watcher.start();
+            daemon.serve(new InputStreamReader(System.in, StandardCharsets.UTF_8), new PrintWriter(System.out, true));
+            if (port >= 0) watcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Exception: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
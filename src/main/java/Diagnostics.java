@@ -0,0 +1,120 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Diagnostics
+ *
+ * Collects the problems found while compiling a file instead of stopping at the first one. A
+ * Lexer or Parser given a collector reports an error and recovers, so one run finds every
+ * error of a file and a batch goes on with the next file. Without one they throw a
+ * CompileException as before.
+ */
+final class Diagnostics {
+
+    enum Severity {
+        ERROR("error"), WARNING("warning");
+
+        private final String name;
+
+        Severity(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() { return this.name; }
+    }
+
+    /**
+     * One problem and where it was found
+     */
+    static final class Diagnostic {
+        final int line;
+        final int pos;
+        final String message;
+        final Severity severity;
+
+        Diagnostic(int line, int pos, String message, Severity severity) {
+            this.line = line;
+            this.pos = pos;
+            this.message = message;
+            this.severity = severity;
+        }
+
+        /**
+         * @return  the severity and the message, with the place in the form CompileException uses
+         */
+        @Override
+        public String toString() {
+            return severity + ": " + ((line > 0 && pos > 0) ? String.format("%s in line %d, pos %d", message, line, pos) : message);
+        }
+    }
+
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private int errors;
+
+    /**
+     * @param line  where the error occurs
+     * @param pos   where the error occurs
+     * @param msg   what has happened
+     */
+    void error(int line, int pos, String msg) {
+        diagnostics.add(new Diagnostic(line, pos, msg, Severity.ERROR));
+        errors++;
+    }
+
+    /**
+     * @param line  where the problem occurs
+     * @param pos   where the problem occurs
+     * @param msg   what has happened, the file still compiles
+     */
+    void warning(int line, int pos, String msg) {
+        diagnostics.add(new Diagnostic(line, pos, msg, Severity.WARNING));
+    }
+
+    /**
+     * Records the error a CompileException was thrown for
+     */
+    void error(CompileException e) {
+        error(e.line, e.pos, e.detail);
+    }
+
+    /**
+     * @return  every problem in the order it was found, a lexer that runs ahead of the parser
+     *          reports all of its problems first
+     */
+    List<Diagnostic> list() { return Collections.unmodifiableList(diagnostics); }
+
+    /**
+     * @return  every problem in the order of the source, the ones found first first on a tie
+     */
+    List<Diagnostic> sorted() {
+        List<Diagnostic> sorted = new ArrayList<>(diagnostics);
+        sorted.sort(Comparator.<Diagnostic>comparingInt(d -> d.line).thenComparingInt(d -> d.pos));
+        return sorted;
+    }
+
+    /**
+     * @return  how many errors were reported
+     */
+    int errors() { return errors; }
+
+    /**
+     * @return  how many warnings were reported
+     */
+    int warnings() { return diagnostics.size() - errors; }
+
+    boolean hasErrors() { return errors > 0; }
+
+    /**
+     * Prints every problem on its own line, in the order of the source
+     *
+     * @param source    what the problems were found in, printed before each one
+     * @param out   where to print
+     */
+    void print(Object source, PrintStream out) {
+        for (Diagnostic diagnostic : sorted()) out.println(source + ": " + diagnostic);
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Incremental Lexer
+ *
+ * Keeps the tokens of a source that is edited in place, as in an editor. An edit replaces a
+ * range of the source with new text. Instead of lexing the whole source again, lexing restarts
+ * right after the last token that ends before the edit and stops as soon as it reaches a token
+ * that starts where a token of the old stream started, past the edit. From there on the text
+ * is the same, so the rest of the old tokens are only moved: their offsets by the change in
+ * length, their lines by the change in lines and, up to the next line break, their positions.
+ * The TokenBuffer is updated in place, it stays the one tokens() returns.
+ *
+ * The tokens scanned between the restart and the resynchronizing token are exactly the ones a
+ * full lex would give. This also covers edits that open or close a comment or a string
+ * literal: lexing then simply carries on over the old tokens until the streams meet again,
+ * which may be the end of the input.
+ *
+ * Every version of the tokens shares one SymbolTable, so the IDs of unchanged identifiers stay
+ * the same from edit to edit. Spellings that disappear stay in the table.
+ */
+final class IncrementalLexer {
+    private final Lexer.Engine engine;
+    private CharSequence source;
+    private final TokenBuffer tokens;
+    private int relexed;
+    private int reused;
+    private int changedFrom;
+    private int changedTo;
+    private int replacedTo;
+
+    IncrementalLexer(CharSequence source) {
+        this(source, Lexer.Engine.CLASSIC);
+    }
+
+    /**
+     * Lexes the whole source once
+     *
+     * @param source    the source code
+     * @param engine    how tokens are scanned
+     */
+    IncrementalLexer(CharSequence source, Lexer.Engine engine) {
+        this.engine = engine;
+        this.source = source;
+        this.tokens = new Lexer(source, engine).tokenize();
+        this.relexed = tokens.size();
+        this.reused = 0;
+        this.changedFrom = 0;
+        this.changedTo = tokens.size();
+        this.replacedTo = 0;
+    }
+
+    /**
+     * @return  the current source
+     */
+    CharSequence source() { return source; }
+
+    /**
+     * @return  the tokens of the current source, End_of_input included
+     */
+    TokenBuffer tokens() { return tokens; }
+
+    /**
+     * @return  how many tokens the last edit scanned again
+     */
+    int relexed() { return relexed; }
+
+    /**
+     * @return  how many tokens the last edit kept from the old stream
+     */
+    int reused() { return reused; }
+
+    /**
+     * @return  index of the first token the last edit scanned again
+     */
+    int changedFrom() { return changedFrom; }
+
+    /**
+     * @return  index just past the last token the last edit scanned again
+     */
+    int changedTo() { return changedTo; }
+
+    /**
+     * @return  index in the old stream just past the last token the last edit replaced, the
+     *          old tokens from changedFrom() up to it became the ones up to changedTo()
+     */
+    int replacedTo() { return replacedTo; }
+
+    /**
+     * Applies an edit to the source and brings the tokens up to date, in place
+     * When the new source does not lex, the error is thrown and nothing changes
+     *
+     * @param offset    where the edit starts
+     * @param removed   how many characters it removes from there
+     * @param inserted  the text put in their place
+     * @return  the tokens of the new source
+     */
+    TokenBuffer edit(int offset, int removed, CharSequence inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > source.length()) {
+            throw new IllegalArgumentException("Edit " + offset + "+" + removed + " outside of a source of " + source.length());
+        }
+        StringBuilder sb = new StringBuilder(source.length() - removed + inserted.length());
+        sb.append(source, 0, offset).append(inserted).append(source, offset + removed, source.length());
+        String next = sb.toString();
+        int shift = inserted.length() - removed;
+        int editEnd = offset + inserted.length();
+        int count = tokens.size();
+
+        // the tokens that end before the edit keep their place, the lexer restarts after them
+        int keep = lastBefore(tokens, offset) + 1;
+        Lexer lexer = new Lexer(next, engine, tokens.symbols());
+        if (keep > 0) lexer.restart(tokens.start(keep - 1) + tokens.length(keep - 1), tokens.line(keep - 1), tokens.pos(keep - 1) + tokens.length(keep - 1));
+
+        // scan until a token starts where an old one did after the edit
+        TokenBuffer scanned = new TokenBuffer(next, 16, tokens.symbols());
+        int candidate = firstFrom(tokens, offset + removed);
+        int resync = count;
+        TokenType type;
+        do {
+            type = lexer.next();
+            int start = lexer.start();
+            if (start >= editEnd) {
+                while (candidate < count && tokens.start(candidate) < start - shift) candidate++;
+                if (candidate < count && tokens.start(candidate) == start - shift && tokens.type(candidate) == type
+                        && tokens.length(candidate) == lexer.end() - start) {
+                    resync = candidate;
+                    break;
+                }
+            }
+            scanned.add(type, start, lexer.end() - start, lexer.line(), lexer.pos(), lexer.symbol());
+        } while (type != TokenType.End_of_input);
+
+        // positions move until the first line break between the old tokens
+        int lineShift = 0, posShift = 0, posUntil = resync;
+        if (resync < count) {
+            lineShift = lexer.line() - tokens.line(resync);
+            posShift = lexer.pos() - tokens.pos(resync);
+            posUntil = resync + 1;
+            while (posUntil < count && !breaksLine(tokens, posUntil)) posUntil++;
+        }
+        tokens.splice(keep, resync, scanned, next, shift, lineShift, posShift, posUntil);
+        relexed = scanned.size();
+        reused = count - (resync - keep);
+        changedFrom = keep;
+        changedTo = keep + scanned.size();
+        replacedTo = resync;
+        source = next;
+        return tokens;
+    }
+
+    /**
+     * @return  index of the last token other than End_of_input that ends before offset, -1 if none
+     */
+    private static int lastBefore(TokenBuffer tokens, int offset) {
+        int low = 0, high = tokens.size() - 2, found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.start(mid) + tokens.length(mid) < offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return  index of the first token that starts at or after offset, size() if none
+     */
+    private static int firstFrom(TokenBuffer tokens, int offset) {
+        int low = 0, high = tokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.start(mid) < offset) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Whether the whitespace and comments before a token hold a line break, which is where the
+     * lexer starts counting positions from 1 again
+     */
+    private static boolean breaksLine(TokenBuffer tokens, int i) {
+        CharSequence source = tokens.source();
+        for (int c = tokens.start(i - 1) + tokens.length(i - 1); c < tokens.start(i); c++) {
+            if (source.charAt(c) == '\n') return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,265 @@
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Incremental Parser
+ *
+ * Keeps the tree of a source that is edited in place, on top of the IncrementalLexer. Every
+ * statement, at the top level or inside a block, is remembered by the span of tokens it was
+ * parsed from. After an edit the statements that end before it are kept as they are and the
+ * ones after it only have their spans moved. Parsing then starts again at the first top level
+ * statement the edit touches: the Sequence chain before it is kept and every statement that
+ * was parsed before is taken from the cache instead of being parsed again, so only the
+ * statements that enclose the edit are parsed from their tokens.
+ *
+ * The tree is the same as Parser.parse() gives for the whole source. A statement depends on
+ * its own tokens and on the token after it (an if looks for an else), so a statement is only
+ * reused when that token is not part of the edit either. A reused statement that was moved by
+ * the edit has its line and pos, and those of the statements in it, moved along. What is left that grows with the
+ * file is moving the spans and tokens, which are flat int arrays, and a new Sequence node for
+ * every top level statement after the edit and every statement of a block that is parsed again.
+ *
+ * When the edited source does not parse, the error is thrown and tree() is null until an edit
+ * makes it parse again, the statements parsed so far are still reused by that edit.
+ */
+final class IncrementalParser implements Parser.StatementCache {
+    private final IncrementalLexer lexer;
+    private Parser.Node tree;
+
+    // the statement starting at each token, the index just past it and its node count
+    private Parser.Node[] statements;
+    private int[] ends;
+    private int[] sizes;
+    private int size;
+
+    // the first token of each top level statement and the Sequence chain up to and with it,
+    // only valid while tree is
+    private int[] topStarts;
+    private Parser.Node[] topChains;
+    private int topCount;
+    private int topStart;
+
+    // the statements this parse took from the cache or parsed and that are not yet part of
+    // another one, to tell the new nodes from the reused ones
+    private final IdentityHashMap<Parser.Node, Integer> done = new IdentityHashMap<>();
+    private Parser.Node[] stack = new Parser.Node[16];
+    private int reused;
+    private int reusedNodes;
+    private int reparsed;
+    private int reparsedNodes;
+
+    IncrementalParser(CharSequence source) {
+        this(new IncrementalLexer(source));
+    }
+
+    /**
+     * Parses the current source of a lexer
+     *
+     * @param lexer the lexer, its edits should be made through this parser from now on
+     */
+    IncrementalParser(IncrementalLexer lexer) {
+        this.lexer = lexer;
+        int count = lexer.tokens().size();
+        this.statements = new Parser.Node[count];
+        this.ends = new int[count];
+        this.sizes = new int[count];
+        this.size = count;
+        this.topStarts = new int[16];
+        this.topChains = new Parser.Node[16];
+        Arrays.fill(ends, -1);
+        parse(0);
+    }
+
+    /**
+     * @return  the tree of the current source, null if it does not parse
+     */
+    Parser.Node tree() { return tree; }
+
+    /**
+     * @return  the lexer with the current source and tokens
+     */
+    IncrementalLexer lexer() { return lexer; }
+
+    /**
+     * @return  how many statements the last parse took from the cache
+     */
+    int reused() { return reused; }
+
+    /**
+     * @return  how many nodes the statements taken from the cache hold
+     */
+    int reusedNodes() { return reusedNodes; }
+
+    /**
+     * @return  how many statements the last parse parsed from their tokens
+     */
+    int reparsed() { return reparsed; }
+
+    /**
+     * @return  how many nodes the last parse made, Sequence nodes of the top level included
+     */
+    int reparsedNodes() { return reparsedNodes; }
+
+    /**
+     * Applies an edit to the source and brings the tree up to date
+     *
+     * @param offset    where the edit starts
+     * @param removed   how many characters it removes from there
+     * @param inserted  the text put in their place
+     * @return  the tree of the new source
+     * @throws CompileException if the new source does not lex or parse
+     */
+    Parser.Node edit(int offset, int removed, CharSequence inserted) {
+        lexer.edit(offset, removed, inserted);
+        int from = lexer.changedFrom(), to = lexer.changedTo(), replaced = lexer.replacedTo();
+        int count = lexer.tokens().size();
+        int shift = to - replaced;
+
+        // statements that end before the edit stay, the ones after it move with their tokens
+        if (count > statements.length) {
+            int capacity = Math.max(count, statements.length + (statements.length >> 1));
+            statements = Arrays.copyOf(statements, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        for (int i = 0; i < from; i++) {
+            if (ends[i] >= from) forget(i);
+        }
+        int moved = size - replaced;
+        System.arraycopy(statements, replaced, statements, to, moved);
+        System.arraycopy(ends, replaced, ends, to, moved);
+        System.arraycopy(sizes, replaced, sizes, to, moved);
+        for (int i = to; i < to + moved; i++) {
+            if (ends[i] >= 0) ends[i] += shift;
+        }
+        for (int i = from; i < to; i++) forget(i);
+        for (int i = count; i < size; i++) forget(i);
+        size = count;
+
+        // the top level is parsed again from the first statement that ends at or after the edit
+        int first = 0;
+        if (tree != null) {
+            int high = topCount;
+            while (first < high) {
+                int mid = (first + high) >>> 1;
+                if (topEnd(mid) < from) first = mid + 1;
+                else high = mid;
+            }
+        }
+        parse(first);
+        return tree;
+    }
+
+    /**
+     * Parses the top level from one of its statements on, the chain before it is kept
+     */
+    private void parse(int first) {
+        reused = 0;
+        reusedNodes = 0;
+        reparsed = 0;
+        reparsedNodes = 0;
+        done.clear();
+        TokenBuffer tokens = lexer.tokens();
+        TokenBuffer.Cursor cursor = tokens.cursor();
+        Parser parser = new Parser(cursor, this);
+        Parser.Node chain = (first > 0) ? topChains[first - 1] : null;
+        int top = first;
+        cursor.seek((first > 0) ? topStarts[first] : 0);
+        tree = null;
+        while (cursor.type() != TokenType.End_of_input) {
+            if (top == topStarts.length) {
+                topStarts = Arrays.copyOf(topStarts, top * 2);
+                topChains = Arrays.copyOf(topChains, top * 2);
+            }
+            topStarts[top] = topStart = cursor.index();
+            Parser.Node statement = parser.stmt();
+            chain = Parser.Node.make_node(Parser.NodeType.nd_Sequence, chain, statement);
+            reparsedNodes++;
+            topChains[top++] = chain;
+        }
+        topCount = top;
+        tree = chain;
+        done.clear();
+    }
+
+    /**
+     * @return  where top level statement i ends, the start of the next one. The last one ends
+     *          with the input, which every edit touches
+     */
+    private int topEnd(int i) {
+        return (i + 1 < topCount) ? topStarts[i + 1] : Integer.MAX_VALUE;
+    }
+
+    private void forget(int i) {
+        statements[i] = null;
+        ends[i] = -1;
+        sizes[i] = 0;
+    }
+
+    @Override
+    public int end(int start) {
+        return (start < size) ? ends[start] : -1;
+    }
+
+    @Override
+    public Parser.Node statement(int start) {
+        reused++;
+        reusedNodes += sizes[start];
+        Parser.Node statement = statements[start];
+        TokenBuffer tokens = lexer.tokens();
+        if (statement.line != tokens.line(start) || statement.pos != tokens.pos(start)) move(statement, tokens.line(start), tokens.pos(start));
+        // a top level statement is not part of another one that is parsed
+        if (start != topStart) done.put(statement, sizes[start]);
+        return statement;
+    }
+
+    /**
+     * Moves a statement to where its first token is now
+     * The edit is outside of its tokens, so everything in it moves by as many lines, and what is
+     * on its first line also by as many columns
+     */
+    private void move(Parser.Node statement, int line, int pos) {
+        int first = statement.line;
+        int lines = line - first;
+        int columns = pos - statement.pos;
+        int top = 0;
+        stack[top++] = statement;
+        while (top > 0) {
+            Parser.Node t = stack[--top];
+            if (t.line > 0) {
+                if (t.line == first) t.pos += columns;
+                t.line += lines;
+            }
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            if (t.left != null) stack[top++] = t.left;
+            if (t.right != null) stack[top++] = t.right;
+        }
+    }
+
+    @Override
+    public void parsed(int start, int end, Parser.Node statement) {
+        // the inner statements were handed out or parsed already, only what is new is counted
+        int size = 0;
+        int top = 0;
+        stack[top++] = statement;
+        while (top > 0) {
+            Parser.Node t = stack[--top];
+            // an inner statement is only ever part of this one
+            Integer inner = done.remove(t);
+            if (inner != null) {
+                size += inner;
+                continue;
+            }
+            size++;
+            reparsedNodes++;
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            if (t.left != null) stack[top++] = t.left;
+            if (t.right != null) stack[top++] = t.right;
+        }
+        reparsed++;
+        done.put(statement, size);
+        statements[start] = statement;
+        ends[start] = end;
+        sizes[start] = size;
+    }
+}
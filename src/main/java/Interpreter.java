@@ -0,0 +1,408 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interpreter
+ *
+ * Runs the tree built by the Parser. Before anything runs, a resolution pass turns every node
+ * into a small closure: each variable gets a slot in an int[] frame, integer literals are
+ * parsed, string escapes are expanded and Sequence chains become flat arrays. Running a program
+ * then never looks up a name or parses a value, every kind of node has call sites of its own
+ * for the JIT to specialize, and the output is collected in a buffer that is handed to the sink
+ * in large pieces.
+ *
+ * Values are 32 bit integers. Variables start out as 0, comparisons and logic give 0 or 1, and
+ * && and || only evaluate their right side when needed.
+ *
+ * Made with a Profiler, every statement is resolved into a closure that also counts and times
+ * it, see Profiler.
+ */
+final class Interpreter {
+
+    /**
+     * A resolved expression
+     */
+    interface Eval {
+        int eval(int[] frame);
+    }
+
+    /**
+     * A resolved statement
+     */
+    interface Exec {
+        void exec(int[] frame) throws IOException;
+    }
+
+    private static final int FLUSH = 1 << 13;
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    // slot + 1 of each symbol ID seen so far, 0 when the symbol has no slot yet
+    private int[] symbolSlots = new int[64];
+    private final Exec program;
+    private final Profiler profiler;
+    // the site of the statement being resolved when profiling
+    private Profiler.Site site;
+    private int[] frame;
+    private StringBuilder buffer;
+    private Appendable out;
+
+    /**
+     * Resolves the tree, nothing runs yet
+     *
+     * @param tree  the tree of Parser.parse()
+     */
+    Interpreter(Parser.Node tree) {
+        this(tree, null);
+    }
+
+    /**
+     * Resolves the tree, every statement is counted and timed in the profiler when it runs
+     *
+     * @param tree  the tree of Parser.parse()
+     * @param profiler  where the sites of the statements are added, null to not profile
+     */
+    Interpreter(Parser.Node tree, Profiler profiler) {
+        this.profiler = profiler;
+        this.program = resolve(tree);
+        this.frame = new int[names.size()];
+    }
+
+    /**
+     * Lexes, parses and runs a program
+     *
+     * @param source    the program
+     * @return  what the program printed
+     */
+    static String run(String source) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            new Interpreter(new Parser(new Lexer(source)).parse()).run(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Runs the program from a fresh frame
+     *
+     * @param out   where the program prints to
+     * @throws IOException  if the output can not be written
+     */
+    void run(Appendable out) throws IOException {
+        this.frame = new int[names.size()];
+        this.buffer = new StringBuilder(FLUSH + 256);
+        this.out = out;
+        try {
+            program.exec(frame);
+        } finally {
+            out.append(buffer);
+            buffer = null;
+            this.out = null;
+        }
+    }
+
+    /**
+     * @param name  a variable of the program
+     * @return  its value after the last run, 0 if the program has no such variable
+     */
+    int get(String name) {
+        Integer slot = slots.get(name);
+        return (slot == null) ? 0 : frame[slot];
+    }
+
+    /**
+     * @return  how many variables the frame holds
+     */
+    int slotCount() {
+        return names.size();
+    }
+
+    private Exec resolve(Parser.Node t) {
+        if (profiler == null || t == null) {
+            return statement(t);
+        }
+        // the site is added before the statements inside it, so the sites are in pre-order
+        Profiler.Site parent = site;
+        Profiler.Site current = profiler.site(t, parent);
+        Exec statement;
+        site = current;
+        try {
+            statement = statement(t);
+        } finally {
+            site = parent;
+        }
+        return frame -> {
+            long start = System.nanoTime();
+            try {
+                statement.exec(frame);
+            } finally {
+                current.exit(System.nanoTime() - start);
+            }
+        };
+    }
+
+    private Exec statement(Parser.Node t) {
+        if (t == null) {
+            return frame -> { };
+        }
+        switch (t.nt) {
+            case nd_Sequence -> {
+                // Sequence chains grow to the left, walk them with a loop
+                List<Parser.Node> statements = new ArrayList<>();
+                Parser.Node node = t;
+                while (node != null && node.nt == Parser.NodeType.nd_Sequence) {
+                    if (node.right != null) statements.add(node.right);
+                    node = node.left;
+                }
+                if (node != null) statements.add(node);
+                Exec[] body = new Exec[statements.size()];
+                for (int i = 0; i < body.length; i++) {
+                    body[i] = resolve(statements.get(body.length - 1 - i));
+                }
+                if (body.length == 1) {
+                    return body[0];
+                }
+                if (body.length == 2) {
+                    Exec first = body[0], second = body[1];
+                    return frame -> {
+                        first.exec(frame);
+                        second.exec(frame);
+                    };
+                }
+                return frame -> {
+                    for (Exec statement : body) statement.exec(frame);
+                };
+            }
+            case nd_Assign -> {
+                int slot = slot(t.left);
+                Eval value = expression(t.right);
+                return frame -> frame[slot] = value.eval(frame);
+            }
+            case nd_If -> {
+                Eval condition = expression(t.left);
+                Exec then = resolve(t.right.left);
+                Exec otherwise = resolve(t.right.right);
+                return frame -> {
+                    if (condition.eval(frame) != 0) then.exec(frame);
+                    else otherwise.exec(frame);
+                };
+            }
+            case nd_While -> {
+                Eval condition = expression(t.left);
+                Exec body = resolve(t.right);
+                if (profiler != null) {
+                    Profiler.Site loop = site;
+                    return frame -> {
+                        while (condition.eval(frame) != 0) {
+                            loop.iterations++;
+                            body.exec(frame);
+                        }
+                    };
+                }
+                return frame -> {
+                    while (condition.eval(frame) != 0) body.exec(frame);
+                };
+            }
+            case nd_Prts -> {
+                String text = unescape(t.left.value);
+                return frame -> print(text);
+            }
+            case nd_Prti -> {
+                Eval value = expression(t.left);
+                return frame -> print(value.eval(frame));
+            }
+            case nd_Prtc -> {
+                Eval value = expression(t.left);
+                return frame -> print((char) value.eval(frame));
+            }
+            default -> {
+                Eval value = expression(t);
+                return frame -> value.eval(frame);
+            }
+        }
+    }
+
+    private Eval expression(Parser.Node t) {
+        switch (t.nt) {
+            case nd_Ident -> {
+                int slot = slot(t);
+                return frame -> frame[slot];
+            }
+            case nd_Integer -> {
+                int value = integer(t.value);
+                return frame -> value;
+            }
+            case nd_Negate -> {
+                Eval operand = expression(t.left);
+                return frame -> -operand.eval(frame);
+            }
+            case nd_Not -> {
+                Eval operand = expression(t.left);
+                return frame -> (operand.eval(frame) == 0) ? 1 : 0;
+            }
+            case nd_Mul, nd_Div, nd_Mod, nd_Add, nd_Sub, nd_Lss, nd_Leq, nd_Gtr, nd_Geq, nd_Eql, nd_Neq, nd_And, nd_Or -> {
+                return binary(t.nt, expression(t.left), expression(t.right));
+            }
+            default -> throw new CompileException(0, 0, "Can not evaluate " + t.nt);
+        }
+    }
+
+    private static Eval binary(Parser.NodeType nt, Eval left, Eval right) {
+        switch (nt) {
+            case nd_Mul: return frame -> left.eval(frame) * right.eval(frame);
+            case nd_Div: return frame -> left.eval(frame) / right.eval(frame);
+            case nd_Mod: return frame -> left.eval(frame) % right.eval(frame);
+            case nd_Add: return frame -> left.eval(frame) + right.eval(frame);
+            case nd_Sub: return frame -> left.eval(frame) - right.eval(frame);
+            case nd_Lss: return frame -> (left.eval(frame) < right.eval(frame)) ? 1 : 0;
+            case nd_Leq: return frame -> (left.eval(frame) <= right.eval(frame)) ? 1 : 0;
+            case nd_Gtr: return frame -> (left.eval(frame) > right.eval(frame)) ? 1 : 0;
+            case nd_Geq: return frame -> (left.eval(frame) >= right.eval(frame)) ? 1 : 0;
+            case nd_Eql: return frame -> (left.eval(frame) == right.eval(frame)) ? 1 : 0;
+            case nd_Neq: return frame -> (left.eval(frame) != right.eval(frame)) ? 1 : 0;
+            case nd_And: return frame -> (left.eval(frame) != 0 && right.eval(frame) != 0) ? 1 : 0;
+            default: return frame -> (left.eval(frame) != 0 || right.eval(frame) != 0) ? 1 : 0;
+        }
+    }
+
+    /**
+     * The slot of an Identifier node, found by its symbol ID without hashing its name
+     */
+    private int slot(Parser.Node t) {
+        if (t.symbol < 0) return slot(t.value);
+        if (t.symbol >= symbolSlots.length) symbolSlots = Arrays.copyOf(symbolSlots, Math.max(t.symbol + 1, symbolSlots.length * 2));
+        if (symbolSlots[t.symbol] == 0) symbolSlots[t.symbol] = slot(t.value) + 1;
+        return symbolSlots[t.symbol] - 1;
+    }
+
+    private int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = names.size();
+            slots.put(name, slot);
+            names.add(name);
+        }
+        return slot;
+    }
+
+    /**
+     * Reads the value of an Integer node, character literals hold their character
+     * A leading - only comes from the Optimizer folding a negative value
+     */
+    static int integer(String value) {
+        String text = value;
+        if (text.startsWith("'")) text = text.substring(1);
+        if (text.endsWith("'") && text.length() > 1) text = text.substring(0, text.length() - 1);
+        if (!text.isEmpty() && (Character.isDigit(text.charAt(0)) || (text.charAt(0) == '-' && text.length() > 1))) {
+            return (int) Long.parseLong(text);
+        }
+        if (text.length() == 1) {
+            return text.charAt(0);
+        }
+        throw new CompileException(0, 0, "Invalid integer " + value);
+    }
+
+    /**
+     * Expands the \n and \\ escapes of a string literal
+     */
+    static String unescape(String value) {
+        if (value.indexOf('\\') == -1) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(i + 1);
+                if (next == 'n') {
+                    sb.append('\n');
+                    i++;
+                    continue;
+                }
+                if (next == '\\') {
+                    sb.append('\\');
+                    i++;
+                    continue;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private void print(String text) throws IOException {
+        buffer.append(text);
+        if (buffer.length() >= FLUSH) flush();
+    }
+
+    private void print(int value) throws IOException {
+        buffer.append(value);
+        if (buffer.length() >= FLUSH) flush();
+    }
+
+    private void print(char value) throws IOException {
+        buffer.append(value);
+        if (buffer.length() >= FLUSH) flush();
+    }
+
+    private void flush() throws IOException {
+        out.append(buffer);
+        buffer.setLength(0);
+    }
+
+    /**
+     * Usage: Interpreter [-O] [--profile] [--collapsed file] file
+     * Runs the program, a source or a .parb file, with -O the tree goes through the Optimizer first.
+     * With --profile the hottest statements, lines and loops are printed to stderr after the run,
+     * --collapsed writes the profile as collapsed stacks for a flame graph
+     */
+    public static void main(String[] args) {
+        boolean optimize = false, profile = false;
+        Path collapsed = null, file = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-O" -> optimize = true;
+                case "--profile" -> profile = true;
+                case "--collapsed" -> collapsed = (i + 1 < args.length) ? Path.of(args[++i]) : null;
+                default -> file = (file == null) ? Path.of(args[i]) : null;
+            }
+        }
+        if (file == null) {
+            System.out.println("Usage: Interpreter [-O] [--profile] [--collapsed file] file");
+            System.exit(1);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        try {
+            // a .parb file is run as it is, without lexing or parsing
+            Parser.Node tree = file.toString().endsWith(".parb") ? Parser.loadBinaryAST(file, new SymbolTable()) : new Parser(Lexer.fromFile(file)).parse();
+            Profiler profiler = (profile || collapsed != null) ? new Profiler() : null;
+            Interpreter interpreter = new Interpreter(optimize ? Optimizer.optimize(tree) : tree, profiler);
+            interpreter.run(out);
+            out.flush();
+            if (profile) profiler.report(10, System.err);
+            if (collapsed != null) {
+                try (Writer stacks = Files.newBufferedWriter(collapsed)) {
+                    profiler.writeCollapsed(stacks);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Exception: " + e.getMessage());
+            System.exit(1);
+        } catch (CompileException | ArithmeticException e) {
+            try { out.flush(); } catch (IOException ignored) { }
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
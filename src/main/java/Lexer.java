@@ -1,7 +1,16 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 
 /**
  * Lexical Analyzer
@@ -12,63 +21,124 @@ import java.util.Scanner;
  * @author Riberiko Niyomwungere
  * @version 1.0
  */
-public class Lexer {
+public class Lexer implements TokenCursor {
     private int line;
     private int pos;
     private int position;
     private char chr;
-    private final String s;
+    private final CharSequence s;
+    private final int length;
+    // the bytes of a MappedSource for LexerScan, null for other sources
+    private final ByteBuffer bytes;
+    private final int size;
+
+    private final Engine engine;
+    private TokenType tokenType;
+    private int tokenStart;
+    private int tokenEnd;
+    private int tokenLine;
+    private int tokenPos;
+    private final SymbolTable symbols;
+    private int symbol;
+    private final Diagnostics diagnostics;
 
     Map<String, TokenType> keywords = new HashMap<>();
 
-    /**
-     * Lexical Analyzer Token
+    /*
+     * .lexb binary token stream, big endian
      *
-     * Stores the information on the group of characters passed in as the value
-     */
-    static class Token {
-        public TokenType tokentype;
-        public String value;
-        public int line;
-        public int pos;
-        Token(TokenType token, String value, int line, int pos) {
-            this.tokentype = token; this.value = value; this.line = line; this.pos = pos;
-        }
-        @Override
-        public String toString() {
-            String result = String.format("%5d  %5d %-15s", this.line, this.pos, this.tokentype);
-            switch (this.tokentype) {
-                case Integer -> result += String.format("  %4s", value);
-                case Identifier -> result += String.format(" %s", value);
-                case String -> result += String.format(" \"%s\"", value);
-            }
-            return result;
-        }
-    }
+     * header:  magic "LEXB", u16 version, u16 record size, i32 token count, i32 string count,
+     *          i32 offset of the string table
+     * records: one per token, u8 type ordinal, 3 reserved bytes, i32 line, i32 pos,
+     *          i32 index of the value in the string table or -1 when the token has no value
+     * strings: i32 offset of each string, then each string as i32 byte length and UTF-8 bytes
+     */
+    static final int LEXB_MAGIC = 0x4C455842;
+    static final short LEXB_VERSION = 1;
+    static final int LEXB_HEADER = 20;
+    static final int LEXB_RECORD = 16;
 
-    @SuppressWarnings("SpellCheckingInspection")
-    enum TokenType {
-        End_of_input, Op_multiply,  Op_divide, Op_mod, Op_add, Op_subtract,
-        Op_negate, Op_not, Op_less, Op_lessequal, Op_greater, Op_greaterequal,
-        Op_equal, Op_notequal, Op_assign, Op_and, Op_or, Keyword_if,
-        Keyword_else, Keyword_while, Keyword_print, Keyword_putc, LeftParen, RightParen,
-        LeftBrace, RightBrace, Semicolon, Comma, Identifier, Integer, String
-    }
+    /**
+     * The two ways of scanning: the original hand written one, and one driven by the
+     * character class and transition tables in LexerTables. Both give the same tokens.
+     */
+    enum Engine { CLASSIC, TABLE }
 
     /**
      * Error handling
+     * Stops lexing by throwing, main reports the error and exits
      *
      * @param line  where error occurs
      * @param pos   where error occurs
      * @param msg   what has happened
      */
     static void error(int line, int pos, String msg) {
-        if (line > 0 && pos > 0) {
-            System.out.printf("%s in line %d, pos %d\n", msg, line, pos);
-        } else {
-            System.out.println(msg);
+        throw new CompileException(line, pos, msg);
+    }
+
+    /**
+     * Reports a character that starts no token, the scanners then drop what they read of it
+     * and go on with the next token. Throws like error when there is no collector
+     */
+    private void bad(int line, int pos, String msg) {
+        if (diagnostics == null) error(line, pos, msg);
+        diagnostics.error(line, pos, msg);
+    }
+
+    /**
+     * Source text backed by a memory-mapped file
+     *
+     * Each byte is one character, so the mapped bytes are read in place without being decoded
+     * or copied. That only holds for ASCII, of() checks the bytes first and decodes anything
+     * else as UTF-8. Like the line-by-line reader this replaces, the last line is always seen as
+     * ending with '\n', even when the file itself does not.
+     */
+    static final class MappedSource implements CharSequence {
+        private final ByteBuffer bytes;
+        private final int size;
+        private final int length;
+
+        /**
+         * @param bytes the source file
+         * @return  the bytes read in place when they are all ASCII, otherwise their UTF-8 text
+         *          with the same '\n' at the end
+         */
+        static CharSequence of(ByteBuffer bytes) {
+            ByteBuffer words = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            if (LexerScan.ascii(words, 0, words.limit())) return new MappedSource(bytes);
+            CharBuffer text = StandardCharsets.UTF_8.decode(bytes.duplicate());
+            if (text.limit() > 0 && text.get(text.limit() - 1) != '\n') text = CharBuffer.wrap(text + "\n");
+            return text;
+        }
+
+        MappedSource(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.size = bytes.limit();
+            this.length = (size > 0 && bytes.get(size - 1) != '\n') ? size + 1 : size;
         }
-        System.exit(1);
+
+        @Override
+        public int length() { return length; }
+
+        @Override
+        public char charAt(int index) {
+            return (index < size) ? (char) (bytes.get(index) & 0xff) : '\n';
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder sb = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) sb.append(charAt(i));
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() { return subSequence(0, length).toString(); }
+
+        /**
+         * @return  the bytes of the file in little endian order, for reading eight at a time
+         */
+        ByteBuffer bytes() { return bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN); }
     }
 
     /**
@@ -77,12 +147,65 @@ public class Lexer {
      *
      * @param source    the source code
      */
-    @SuppressWarnings("SpellCheckingInspection")
     Lexer(String source) {
+        this((CharSequence) source);
+    }
+
+    /**
+     * Lexer over any character sequence, such as a CharBuffer or a MappedSource
+     * The sequence is read in place, the end of input is found by its length
+     *
+     * @param source    the source code
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    Lexer(CharSequence source) {
+        this(source, Engine.CLASSIC);
+    }
+
+    /**
+     * Lexer over a character sequence using the given engine
+     *
+     * @param source    the source code
+     * @param engine    how tokens are scanned
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    Lexer(CharSequence source, Engine engine) {
+        this(source, engine, new SymbolTable());
+    }
+
+    /**
+     * Lexer that interns identifiers and string literals into the given table
+     *
+     * @param source    the source code
+     * @param engine    how tokens are scanned
+     * @param symbols   the symbol table of the compilation
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    Lexer(CharSequence source, Engine engine, SymbolTable symbols) {
+        this(source, engine, symbols, null);
+    }
+
+    /**
+     * Lexer that reports bad characters to a collector and lexes on past them
+     *
+     * @param source    the source code
+     * @param engine    how tokens are scanned
+     * @param symbols   the symbol table of the compilation
+     * @param diagnostics   where errors go, null to throw on the first one
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    Lexer(CharSequence source, Engine engine, SymbolTable symbols, Diagnostics diagnostics) {
+        this.engine = engine;
+        this.symbols = symbols;
+        this.diagnostics = diagnostics;
+        this.symbol = -1;
         this.line = 1;
         this.pos = 0;
         this.position = -1;
-        this.s = source+'\u0000';   //added the end string character so that I would know when the input was done
+        this.s = source;
+        this.length = source.length();
+        this.bytes = (source instanceof MappedSource mapped) ? mapped.bytes() : null;
+        this.size = (source instanceof MappedSource mapped) ? mapped.size : 0;
         this.chr = getNextChar();
         this.keywords.put("if", TokenType.Keyword_if);
         this.keywords.put("else", TokenType.Keyword_else);
@@ -92,6 +215,45 @@ public class Lexer {
 
     }
 
+    /**
+     * Creates a lexer that reads the file through a read only memory mapping
+     *
+     * @param path  the source file
+     * @return  a lexer over the mapped file
+     * @throws IOException  if the file can not be opened or mapped
+     */
+    static Lexer fromFile(Path path) throws IOException {
+        return fromFile(path, Engine.CLASSIC);
+    }
+
+    /**
+     * Creates a lexer over a memory mapped file using the given engine
+     *
+     * @param path  the source file
+     * @param engine    how tokens are scanned
+     * @return  a lexer over the mapped file
+     * @throws IOException  if the file can not be opened or mapped
+     */
+    static Lexer fromFile(Path path, Engine engine) throws IOException {
+        return fromFile(path, engine, null);
+    }
+
+    /**
+     * Creates a lexer over a memory mapped file that reports bad characters to a collector
+     *
+     * @param path  the source file
+     * @param engine    how tokens are scanned
+     * @param diagnostics   where errors go, null to throw on the first one
+     * @return  a lexer over the mapped file
+     * @throws IOException  if the file can not be opened or mapped
+     */
+    static Lexer fromFile(Path path, Engine engine, Diagnostics diagnostics) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("File too large to map: " + path);
+            return new Lexer(MappedSource.of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())), engine, new SymbolTable(), diagnostics);
+        }
+    }
+
     /**
      * When there exsits a posibility that the next character can change the meaning of the current
      *
@@ -100,18 +262,19 @@ public class Lexer {
      * @param ifno  the token type assuming the expected character is not found
      * @param line  the current line
      * @param pos   the current position on the line
-     * @return  a token based on where the expected character was found
+     * @return  a token type based on where the expected character was found
      */
     @SuppressWarnings("SpellCheckingInspection")
-    Token follow(char expect, TokenType ifyes, TokenType ifno, int line, int pos) {
+    TokenType follow(char expect, TokenType ifyes, TokenType ifno, int line, int pos) {
         if (getNextChar() == expect) {
             getNextChar();
-            return new Token(ifyes, Character.toString(chr)+expect, line, pos);
+            return ifyes;
         }
         if (ifno == TokenType.End_of_input) {
-            error(line, pos, String.format("follow: unrecognized character: (%d) '%c'", (int) chr, chr));
+            bad(line, pos, String.format("follow: unrecognized character: (%d) '%c'", (int) chr, chr));
+            return null;
         }
-        return new Token(ifno, Character.toString(chr)+expect, line, pos);
+        return ifno;
     }
 
     /**
@@ -119,35 +282,37 @@ public class Lexer {
      *
      * @param line  the current line
      * @param pos   the current position on the line
-     * @return  an integer token with the character representation for the value
+     * @return  an integer token type, the value is the character itself
      */
-    Token char_lit(int line, int pos) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(chr);
-
-        if(isDigit(chr)) while(isDigit(getNextChar())) sb.append(chr);
+    TokenType char_lit(int line, int pos) {
+        if(isDigit(chr)) while(isDigit(getNextChar()));
         else
         {
             if(getNextChar() == '\'') getNextChar();    //skips the ending '
-            else error(line, pos, String.format("follow: unrecognized character: (%d) '%c'", (int) chr, chr));
+            else {
+                bad(line, pos, String.format("follow: unrecognized character: (%d) '%c'", (int) chr, chr));
+                return null;
+            }
         }
-        return new Token(TokenType.Integer, sb.toString(), line, pos);
+        return TokenType.Integer;
     }
 
     /**
      * Handles string literals
+     * The current character is the first one after the opening " and always belongs to the string
      *
-     * @param start the first character
      * @param line  the current line
      * @param pos   the current position on the line
-     * @return  a string token
+     * @return  a string token type
      */
-    Token string_lit(char start, int line, int pos) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(start);
-        while(getNextChar() != '"') sb.append(chr);
+    TokenType string_lit(int line, int pos) {
+        advance(find(position + 1, '"', '"', '"'));
+        if(chr == '\u0000') {
+            bad(line, pos, "EOF while scanning string literal");
+            return null;
+        }
         getNextChar();  //ignores the ending "
-        return new Token(TokenType.String, sb.toString(), line, pos);
+        return TokenType.String;
     }
 
     /**
@@ -156,40 +321,47 @@ public class Lexer {
      *
      * @param line the current line
      * @param pos   the position on the line
-     * @return  the next token after the comment
+     * @return  the type of the next token after the comment
      */
     @SuppressWarnings("unused") //I did not want to change the method signature
-    Token div_or_comment(int line, int pos) { //should have handled both the division or comment but chose to only have this handle comment
-        char prv;
+    TokenType div_or_comment(int line, int pos) { //should have handled both the division or comment but chose to only have this handle comment
+        skipComment();
+        return scan();
+    }
+
+    /**
+     * Skips a comment, the current character is the one after the / or #
+     * A / starts a comment to the end of the line, a * one that ends at the next * or /
+     */
+    void skipComment() {
         if(chr == '/') {
             this.line++;
-            while (chr != '\n' && chr != '\u0000') getNextChar();
+            advance(find(position, '\n', '\n', '\n'));
         }
         else if(chr == '*') {
+            // the comment ends at the first * or /, newlines in it are counted on the way
             do {
                 if(chr == '\n') {this.line++; this.pos = 0;}
-                getNextChar();
-                prv = chr;
-            } while ((prv != '*' && chr != '/') && chr != '\u0000');
+                advance(find(position + 1, '*', '/', '\n'));
+            } while (chr == '\n');
+            if (chr == '\u0000' && diagnostics != null) diagnostics.warning(tokenLine, tokenPos, "EOF while scanning comment");
             getNextChar();
             getNextChar();
         }
-        return getToken();
     }
 
     /**
      * Handles identifiers
      * @param line  the current line
      * @param pos   the position on the line
-     * @return  an identifiers
+     * @return  the keyword type or an identifier
      */
-    Token identifier_or_integer(int line, int pos) { // should have handled identifiers or integer but chose to have this only handle identifiers
-        StringBuilder sb = new StringBuilder();
-        do {
-            sb.append(chr);
-            getNextChar();
-        }while(isAlpha(this.chr) || isDigit(this.chr) || chr == '_');
-        return new Token( (keywords.get(sb.toString()) == null) ? TokenType.Identifier : keywords.get(sb.toString()), sb.toString(), line, pos);
+    TokenType identifier_or_integer(int line, int pos) { // should have handled identifiers or integer but chose to have this only handle identifiers
+        advance(word(position + 1));
+        int size = position - tokenStart;
+        if(size < 2 || size > 5) return TokenType.Identifier;
+        TokenType keyword = keywords.get(s.subSequence(tokenStart, position).toString());
+        return (keyword == null) ? TokenType.Identifier : keyword;
     }
 
     /**
@@ -197,9 +369,9 @@ public class Lexer {
      *
      * @param line  the current line
      * @param pos   the position on the line
-     * @return  an operator token
+     * @return  an operator token type
      */
-    Token operator(int line, int pos){
+    TokenType operator(int line, int pos){
         if(chr == '-')
         {
             char prv = chr;
@@ -207,26 +379,26 @@ public class Lexer {
             getNextChar();
             while(Character.isWhitespace(prv)) //determining if we are dealing with a negative number or a subtraction operator
             prv = s.charAt(position-(++i));
-            return new Token( (prv == '=') ? TokenType.Op_negate : TokenType.Op_subtract, "-", line, pos);
+            return (prv == '=') ? TokenType.Op_negate : TokenType.Op_subtract;
         }
 
         switch (chr){
             case '*' : {
                 getNextChar();
-                return new Token(TokenType.Op_multiply, "*", line, pos);
+                return TokenType.Op_multiply;
             }
             case '/' : {
                 getNextChar();
                 if(chr == '*' || chr == '/') return div_or_comment(line, pos);
-                return new Token(TokenType.Op_divide, "/", line, pos);
+                return TokenType.Op_divide;
             }
             case '%' : {
                 getNextChar();
-                return new Token(TokenType.Op_mod, "%", line, pos);
+                return TokenType.Op_mod;
             }
             case '+' : {
                 getNextChar();
-                return new Token(TokenType.Op_add, "+", line, pos);
+                return TokenType.Op_add;
             }
             case '<' : return follow('=', TokenType.Op_lessequal, TokenType.Op_less, line, pos);
             case '>' : return follow('=', TokenType.Op_greaterequal, TokenType.Op_greater, line, pos);
@@ -239,17 +411,18 @@ public class Lexer {
     }
 
     /**
-     * Retrieves the next token
+     * Scans the next token without building it
+     * Where the token starts is recorded in tokenStart, tokenLine and tokenPos
      *
-     * @return the next token
+     * @return the type of the next token
      */
-    Token getToken() {
-        while (Character.isWhitespace(this.chr)) {
-            if(chr == '\n') {this.line++; this.pos = 0;}
-            getNextChar();
-        }
+    TokenType scan() {
+        skipWhitespace();
+        tokenStart = Math.min(position, length);
+        tokenLine = line;
+        tokenPos = pos;
 
-        if(chr == '\u0000') return new Token(TokenType.End_of_input, "", line, pos);
+        if(chr == '\u0000') return TokenType.End_of_input;
         else if(isAlpha(chr) || chr == '_') return identifier_or_integer(line, pos);
         else if(isDigit(chr)) return char_lit(line, pos);
         else if(isOperator(chr)) return operator(line, pos);
@@ -259,30 +432,211 @@ public class Lexer {
             getNextChar();
             switch (prv) {
                 case '\'' : return char_lit(line, pos);
-                case '\"' : return string_lit(chr, line, pos);
-                case ';' : return new Token(TokenType.Semicolon, ";", line, pos);
-                case ',' : return new Token(TokenType.Comma, ",", line, pos);
-                case '}' : return new Token(TokenType.RightBrace, "}", line, pos);
-                case '{' : return new Token(TokenType.LeftBrace, "{", line, pos);
-                case ')' : return new Token(TokenType.RightParen, ")", line, pos);
-                case '(' : return new Token(TokenType.LeftParen, "(", line, pos);
+                case '\"' : return string_lit(line, pos);
+                case ';' : return TokenType.Semicolon;
+                case ',' : return TokenType.Comma;
+                case '}' : return TokenType.RightBrace;
+                case '{' : return TokenType.LeftBrace;
+                case ')' : return TokenType.RightParen;
+                case '(' : return TokenType.LeftParen;
                 case '#' : return div_or_comment(line, pos);
-                default: error(line, pos, "Lexer Incapable of Handling this char unless as string or character");
+                default: bad(line, pos, "Lexer Incapable of Handling this char unless as string or character");
+            }
+        }
+        return null;    //only reached after a bad character was reported, next() scans again
+    }
+
+    /**
+     * Scans the next token with the table driven engine
+     * Whitespace is skipped by character class, then the transition table is followed until it
+     * accepts a token or hands over to the same literal and comment handling as scan()
+     *
+     * @return the type of the next token
+     */
+    TokenType scanTable() {
+        for (;;) {
+            skipWhitespace();
+            int cls = LexerTables.classOf(chr);
+            tokenStart = Math.min(position, length);
+            tokenLine = line;
+            tokenPos = pos;
+
+            int state = LexerTables.S_START;
+            int next;
+            while ((next = LexerTables.TRANSITIONS[state * LexerTables.CLASSES + cls]) >= 0) {
+                state = next;
+                // the rest of an identifier is skipped up to its last character
+                if (state == LexerTables.S_IDENT) advance(word(position + 1) - 1);
+                cls = LexerTables.classOf(getNextChar());
+            }
+            int action = -next - 1;
+            if (action == TokenType.Identifier.ordinal()) return LexerTables.keyword(s, tokenStart, position);
+            if (action < LexerTables.A_CHAR_LIT) return LexerTables.TYPES[action];
+            switch (action) {
+                case LexerTables.A_CHAR_LIT -> {
+                    getNextChar();
+                    return char_lit(tokenLine, tokenPos);
+                }
+                case LexerTables.A_STRING_LIT -> {
+                    getNextChar();
+                    return string_lit(tokenLine, tokenPos);
+                }
+                case LexerTables.A_COMMENT -> skipComment();
+                case LexerTables.A_HASH -> {
+                    getNextChar();
+                    skipComment();
+                }
+                case LexerTables.A_BAD_FOLLOW -> bad(tokenLine, tokenPos, String.format("follow: unrecognized character: (%d) '%c'", (int) chr, chr));
+                default -> {
+                    bad(tokenLine, tokenPos, "Lexer Incapable of Handling this char unless as string or character");
+                    getNextChar();
+                }
             }
         }
-        return null;    //this is unreachable because the default error method will terminate the program
+    }
+
+    /**
+     * Advances to the next token
+     *
+     * @return the type of the next token
+     */
+    @Override
+    public TokenType next() {
+        // a null type is what is left of a bad character that was reported, scanning goes on
+        do {
+            tokenType = (engine == Engine.TABLE) ? scanTable() : scan();
+        } while (tokenType == null);
+        tokenEnd = Math.min(position, length);
+        if (tokenType == TokenType.Identifier) symbol = symbols.intern(s, tokenStart, tokenEnd);
+        else if (tokenType == TokenType.String) symbol = symbols.intern(s, tokenStart + 1, tokenEnd - 1);
+        else symbol = -1;
+        return tokenType;
+    }
+
+    @Override
+    public TokenType type() { return tokenType; }
+
+    @Override
+    public int line() { return tokenLine; }
+
+    @Override
+    public int pos() { return tokenPos; }
+
+    @Override
+    public String value() { return (symbol >= 0) ? symbols.name(symbol) : TokenBuffer.value(s, tokenType, tokenStart, tokenEnd).toString(); }
+
+    @Override
+    public int symbol() { return symbol; }
+
+    /**
+     * @return  offset of the first character of the current token
+     */
+    int start() { return tokenStart; }
+
+    /**
+     * @return  offset just past the current token
+     */
+    int end() { return tokenEnd; }
+
+    /**
+     * Moves the lexer to an offset between two tokens, as if it had lexed everything before it
+     * Nothing but the offset, line and position carries over from one token to the next, so
+     * scanning on from there gives the same tokens as lexing the source from the start
+     *
+     * @param start offset to scan on from
+     * @param line  the line the lexer is on at that offset
+     * @param pos   the position on the line of the character at that offset
+     */
+    void restart(int start, int line, int pos) {
+        this.position = start - 1;
+        this.line = line;
+        this.pos = pos - 1;
+        this.tokenType = null;
+        this.symbol = -1;
+        getNextChar();
+    }
+
+    @Override
+    public SymbolTable symbols() { return symbols; }
+
+    /**
+     * Retrieves the next token
+     *
+     * @return the next token
+     */
+    Token getToken() {
+        next();
+        return new Token(tokenType, value(), tokenLine, tokenPos, symbol);
+    }
+
+    /**
+     * Lexes the whole input into a token buffer, End_of_input included
+     *
+     * @return the tokens as slices of the source
+     */
+    TokenBuffer tokenize() {
+        TokenBuffer buffer = new TokenBuffer(s, 64, symbols);
+        do {
+            next();
+            buffer.add(tokenType, tokenStart, tokenEnd - tokenStart, tokenLine, tokenPos, symbol);
+        } while (tokenType != TokenType.End_of_input);
+        return buffer;
     }
 
     /**
      * Retrieves the next character from the source code
-     * @return  the next character
+     * @return  the next character, '\u0000' once the end of the input has been reached
      */
     char getNextChar() {
         pos++;
-        chr = s.charAt(++position);
+        chr = (++position < length) ? s.charAt(position) : '\u0000';
         return this.chr;
     }
 
+    /**
+     * Moves to a later character as that many getNextChar() calls would, lines are not counted
+     *
+     * @param to    the index of the character
+     */
+    private void advance(int to) {
+        pos += to - position;
+        position = to;
+        chr = (to < length) ? s.charAt(to) : '\u0000';
+    }
+
+    /**
+     * Skips whitespace, counting lines at each newline and skipping what lies between at once
+     */
+    private void skipWhitespace() {
+        while (Character.isWhitespace(chr)) {
+            if (chr == '\n') {
+                this.line++;
+                this.pos = 0;
+                getNextChar();
+            }
+            else advance(blanks(position + 1));
+        }
+    }
+
+    /**
+     * The LexerScan methods over the bytes of a mapped file up to its size, then over the
+     * characters after it, which is only the '\n' added to the last line
+     */
+    private int find(int from, char a, char b, char c) {
+        if (bytes != null && (from = LexerScan.find(bytes, from, size, a, b, c)) < size) return from;
+        return LexerScan.find(s, from, length, a, b, c);
+    }
+
+    private int blanks(int from) {
+        if (bytes != null && (from = LexerScan.blanks(bytes, from, size)) < size) return from;
+        return LexerScan.blanks(s, from, length);
+    }
+
+    private int word(int from) {
+        if (bytes != null && (from = LexerScan.word(bytes, from, size)) < size) return from;
+        return LexerScan.word(s, from, length);
+    }
+
     boolean isDigit(char c)
     {
         return (int) c <= 57 && (int) c >= 48;
@@ -316,6 +670,78 @@ public class Lexer {
         return sb.toString();
     }
 
+    /**
+     * Writes a token stream in the .lexb binary format
+     * Identifier, integer and string values are stored once each in the string table
+     *
+     * @param tokens    the tokens, End_of_input included
+     * @param out   where to write
+     * @throws IOException  if writing fails
+     */
+    static void writeBinary(TokenBuffer tokens, OutputStream out) throws IOException {
+        Map<String, Integer> index = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] values = new int[tokens.size()];
+        int stringBytes = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            TokenType type = tokens.type(i);
+            if (type != TokenType.Identifier && type != TokenType.Integer && type != TokenType.String) {
+                values[i] = -1;
+                continue;
+            }
+            String value = tokens.value(i).toString();
+            Integer id = index.get(value);
+            if (id == null) {
+                id = strings.size();
+                index.put(value, id);
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                strings.add(bytes);
+                stringBytes += 4 + bytes.length;
+            }
+            values[i] = id;
+        }
+
+        int tableOffset = LEXB_HEADER + tokens.size() * LEXB_RECORD;
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        data.writeInt(LEXB_MAGIC);
+        data.writeShort(LEXB_VERSION);
+        data.writeShort(LEXB_RECORD);
+        data.writeInt(tokens.size());
+        data.writeInt(strings.size());
+        data.writeInt(tableOffset);
+        for (int i = 0; i < tokens.size(); i++) {
+            data.writeInt(tokens.type(i).ordinal() << 24);
+            data.writeInt(tokens.line(i));
+            data.writeInt(tokens.pos(i));
+            data.writeInt(values[i]);
+        }
+        int offset = tableOffset + strings.size() * 4;
+        for (byte[] bytes : strings) {
+            data.writeInt(offset);
+            offset += 4 + bytes.length;
+        }
+        for (byte[] bytes : strings) {
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+        data.flush();
+    }
+
+    /**
+     * Writes a token stream to a .lexb file
+     *
+     * @param tokens    the tokens, End_of_input included
+     * @param fileName  the name of the file to write to
+     */
+    static void outputToBinaryFile(TokenBuffer tokens, String fileName) {
+        try (OutputStream out = new FileOutputStream("src/main/output/" + fileName + ".lexb")) {
+            writeBinary(tokens, out);
+            System.out.printf("Successfully wrote to the file %s.lexb.%n", fileName);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Writes results to a file
      *
@@ -334,21 +760,29 @@ public class Lexer {
     }
 
     public static void main(String[] args) {
+        Engine engine = Arrays.asList(args).contains("--table") ? Engine.TABLE : Engine.CLASSIC;
+        boolean binary = Arrays.asList(args).contains("--lexb");
         File[] files = new File("src/main/resources").listFiles(file -> !file.toString().endsWith(".lex") && !file.toString().endsWith(".par"));
-        Scanner s;
-        String source = "";
         assert files != null;
+        // a file with errors is reported and skipped, the others are still written
+        boolean failed = false;
         for(File file : files){
             try {
-                s = new Scanner(file);
-                while (s.hasNext()) {
-                    source += s.nextLine() + "\n";
+                String name = file.getName().substring(0, file.getName().indexOf('.'));
+                Diagnostics diagnostics = new Diagnostics();
+                String tokens = Lexer.fromFile(file.toPath(), engine, diagnostics).printTokens();
+                diagnostics.print(file, System.out);
+                if (diagnostics.hasErrors()) {
+                    failed = true;
+                    continue;
                 }
-                outputToFile(new Lexer(source).printTokens(), file.getName().substring(0, file.getName().indexOf('.')));
-            } catch (FileNotFoundException e) {
-                error(-1, -1, "Exception: " + e.getMessage());
+                outputToFile(tokens, name);
+                if (binary) outputToBinaryFile(Lexer.fromFile(file.toPath(), engine).tokenize(), name);
+            } catch (IOException e) {
+                System.out.println("Exception: " + e.getMessage());
+                System.exit(1);
             }
-            source = "";
         }
+        if (failed) System.exit(1);
     }
 }
\ No newline at end of file
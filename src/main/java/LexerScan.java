@@ -0,0 +1,134 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Bulk scanning for the lexer
+ *
+ * The long runs of a program, string literals, comments, indentation and identifiers, are
+ * skipped in one call instead of one getNextChar() per character. Over the bytes of a
+ * MappedSource eight characters are tested at a time as one long (SWAR): a byte equal to the
+ * one looked for becomes zero after an xor, and a zero byte is found with the carry trick
+ * (v - 0x01..01) & ~v & 0x80..80. The bytes are read little endian, so the lowest flagged bit
+ * is the first match; a borrow can only flag bytes above a real zero, never below it.
+ * Any other CharSequence is scanned with a plain loop.
+ *
+ * Every method returns the index where the run ends, the end when it runs to it, and from
+ * itself when from is already past the end.
+ */
+final class LexerScan {
+    private LexerScan() {}
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long SPACES = ' ' * ONES;
+
+    /**
+     * @return  a high bit in every byte of v that is zero, the lowest one always a real zero
+     */
+    private static long zeros(long v) {
+        return (v - ONES) & ~v & HIGHS;
+    }
+
+    /**
+     * Finds the first of three characters or a '\u0000'
+     *
+     * @param bytes the source, little endian, one character per byte
+     * @param from  where to start
+     * @param end   where to stop
+     * @return  the index of the first match, or end
+     */
+    static int find(ByteBuffer bytes, int from, int end, char a, char b, char c) {
+        long pa = a * ONES, pb = b * ONES, pc = c * ONES;
+        int i = from;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            long v = bytes.getLong(i);
+            long hits = zeros(v) | zeros(v ^ pa) | zeros(v ^ pb) | zeros(v ^ pc);
+            if (hits != 0) return i + (Long.numberOfTrailingZeros(hits) >>> 3);
+        }
+        for (; i < end; i++) {
+            int x = bytes.get(i) & 0xff;
+            if (x == a || x == b || x == c || x == 0) return i;
+        }
+        return i;
+    }
+
+    static int find(CharSequence s, int from, int end, char a, char b, char c) {
+        int i = from;
+        for (; i < end; i++) {
+            char x = s.charAt(i);
+            if (x == a || x == b || x == c || x == '\u0000') return i;
+        }
+        return i;
+    }
+
+    /**
+     * Tells whether every byte is ASCII, eight at a time by their high bits
+     *
+     * @return  true if no byte from from to end is 0x80 or above
+     */
+    static boolean ascii(ByteBuffer bytes, int from, int end) {
+        int i = from;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            if ((bytes.getLong(i) & HIGHS) != 0) return false;
+        }
+        for (; i < end; i++) {
+            if (bytes.get(i) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Skips whitespace up to a newline, which the lexer counts itself
+     * Runs of spaces are skipped eight at a time, the first byte that is not a space is the
+     * lowest non zero byte of the long xor eight spaces
+     *
+     * @return  the index of the first newline or other character, or end
+     */
+    static int blanks(ByteBuffer bytes, int from, int end) {
+        int i = from;
+        for (;;) {
+            for (; i + Long.BYTES <= end; i += Long.BYTES) {
+                long x = bytes.getLong(i) ^ SPACES;
+                if (x != 0) {
+                    i += Long.numberOfTrailingZeros(x) >>> 3;
+                    break;
+                }
+            }
+            if (i >= end) return i;
+            char x = (char) (bytes.get(i) & 0xff);
+            if (x == '\n' || !Character.isWhitespace(x)) return i;
+            i++;
+        }
+    }
+
+    static int blanks(CharSequence s, int from, int end) {
+        int i = from;
+        for (; i < end; i++) {
+            char x = s.charAt(i);
+            if (x == '\n' || !Character.isWhitespace(x)) return i;
+        }
+        return i;
+    }
+
+    /**
+     * Skips the letters, digits and underscores of an identifier
+     * Identifiers are short and made of a class of characters rather than a few, so this is a
+     * table lookup
+     *
+     * @return  the index of the first character that can not be in an identifier, or end
+     */
+    static int word(ByteBuffer bytes, int from, int end) {
+        int i = from;
+        while (i < end && isWord(bytes.get(i) & 0xff)) i++;
+        return i;
+    }
+
+    static int word(CharSequence s, int from, int end) {
+        int i = from;
+        while (i < end && isWord(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isWord(int c) {
+        return c < 128 && (LexerTables.CLASS[c] == LexerTables.C_LETTER || LexerTables.CLASS[c] == LexerTables.C_DIGIT);
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Tables for the table driven lexer engine
+ *
+ * Every character is mapped once to a character class, and a transition table over
+ * (state, class) decides whether the token continues, which token was accepted or which
+ * special handler (literals, comments, errors) takes over. Keywords are recognized with a
+ * perfect hash over the first two characters and the length, so no map is built per lexer.
+ */
+final class LexerTables {
+    private LexerTables() {}
+
+    // character classes, whitespace first so the skip loop is a single compare
+    static final int C_SPACE = 0, C_NEWLINE = 1, C_END = 2, C_OTHER = 3, C_LETTER = 4, C_DIGIT = 5,
+            C_STAR = 6, C_SLASH = 7, C_PERCENT = 8, C_PLUS = 9, C_MINUS = 10, C_LESS = 11, C_GREATER = 12,
+            C_EQUAL = 13, C_BANG = 14, C_AMP = 15, C_BAR = 16, C_LPAREN = 17, C_RPAREN = 18, C_LBRACE = 19,
+            C_RBRACE = 20, C_SEMI = 21, C_COMMA = 22, C_QUOTE = 23, C_DQUOTE = 24, C_HASH = 25;
+    static final int CLASSES = 26;
+
+    // states, each one is entered after consuming the character that led to it
+    static final int S_START = 0, S_IDENT = 1, S_NUMBER = 2, S_STAR = 3, S_SLASH = 4, S_PERCENT = 5,
+            S_PLUS = 6, S_MINUS = 7, S_LESS = 8, S_GREATER = 9, S_EQUAL = 10, S_BANG = 11, S_AMP = 12,
+            S_BAR = 13, S_LESSEQUAL = 14, S_GREATEREQUAL = 15, S_EQUALEQUAL = 16, S_NOTEQUAL = 17,
+            S_AND = 18, S_OR = 19, S_LPAREN = 20, S_RPAREN = 21, S_LBRACE = 22, S_RBRACE = 23, S_SEMI = 24,
+            S_COMMA = 25;
+    static final int STATES = 26;
+
+    // actions past the token type ordinals, stored in the table as -(action + 1)
+    static final int A_CHAR_LIT = 64, A_STRING_LIT = 65, A_COMMENT = 66, A_HASH = 67, A_BAD_FOLLOW = 68,
+            A_BAD_CHAR = 69;
+
+    static final TokenType[] TYPES = TokenType.values();
+    static final byte[] CLASS = new byte[128];
+    static final int[] TRANSITIONS = new int[STATES * CLASSES];
+
+    private static final String[] KEYWORDS = new String[8];
+    private static final TokenType[] KEYWORD_TYPES = new TokenType[8];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            if (c == '\n') CLASS[c] = C_NEWLINE;
+            else if (c == 0) CLASS[c] = C_END;
+            else if (Character.isWhitespace(c)) CLASS[c] = C_SPACE;
+            else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_') CLASS[c] = C_LETTER;
+            else if (c >= '0' && c <= '9') CLASS[c] = C_DIGIT;
+            else CLASS[c] = C_OTHER;
+        }
+        CLASS['*'] = C_STAR; CLASS['/'] = C_SLASH; CLASS['%'] = C_PERCENT; CLASS['+'] = C_PLUS;
+        CLASS['-'] = C_MINUS; CLASS['<'] = C_LESS; CLASS['>'] = C_GREATER; CLASS['='] = C_EQUAL;
+        CLASS['!'] = C_BANG; CLASS['&'] = C_AMP; CLASS['|'] = C_BAR; CLASS['('] = C_LPAREN;
+        CLASS[')'] = C_RPAREN; CLASS['{'] = C_LBRACE; CLASS['}'] = C_RBRACE; CLASS[';'] = C_SEMI;
+        CLASS[','] = C_COMMA; CLASS['\''] = C_QUOTE; CLASS['"'] = C_DQUOTE; CLASS['#'] = C_HASH;
+
+        // single character tokens accept on whatever follows them
+        accept(S_STAR, TokenType.Op_multiply);
+        accept(S_SLASH, TokenType.Op_divide);
+        accept(S_PERCENT, TokenType.Op_mod);
+        accept(S_PLUS, TokenType.Op_add);
+        accept(S_MINUS, TokenType.Op_subtract);
+        accept(S_LESS, TokenType.Op_less);
+        accept(S_GREATER, TokenType.Op_greater);
+        accept(S_EQUAL, TokenType.Op_assign);
+        accept(S_BANG, TokenType.Op_not);
+        accept(S_LESSEQUAL, TokenType.Op_lessequal);
+        accept(S_GREATEREQUAL, TokenType.Op_greaterequal);
+        accept(S_EQUALEQUAL, TokenType.Op_equal);
+        accept(S_NOTEQUAL, TokenType.Op_notequal);
+        accept(S_AND, TokenType.Op_and);
+        accept(S_OR, TokenType.Op_or);
+        accept(S_LPAREN, TokenType.LeftParen);
+        accept(S_RPAREN, TokenType.RightParen);
+        accept(S_LBRACE, TokenType.LeftBrace);
+        accept(S_RBRACE, TokenType.RightBrace);
+        accept(S_SEMI, TokenType.Semicolon);
+        accept(S_COMMA, TokenType.Comma);
+        accept(S_IDENT, TokenType.Identifier);
+        accept(S_NUMBER, TokenType.Integer);
+        action(S_AMP, A_BAD_FOLLOW);
+        action(S_BAR, A_BAD_FOLLOW);
+
+        // the characters that extend a token
+        go(S_IDENT, C_LETTER, S_IDENT);
+        go(S_IDENT, C_DIGIT, S_IDENT);
+        go(S_NUMBER, C_DIGIT, S_NUMBER);
+        go(S_SLASH, C_SLASH, -(A_COMMENT + 1));
+        go(S_SLASH, C_STAR, -(A_COMMENT + 1));
+        go(S_LESS, C_EQUAL, S_LESSEQUAL);
+        go(S_GREATER, C_EQUAL, S_GREATEREQUAL);
+        go(S_EQUAL, C_EQUAL, S_EQUALEQUAL);
+        go(S_BANG, C_EQUAL, S_NOTEQUAL);
+        go(S_AMP, C_AMP, S_AND);
+        go(S_BAR, C_BAR, S_OR);
+
+        // where each token starts
+        action(S_START, A_BAD_CHAR);
+        go(S_START, C_END, -(TokenType.End_of_input.ordinal() + 1));
+        go(S_START, C_LETTER, S_IDENT);
+        go(S_START, C_DIGIT, S_NUMBER);
+        go(S_START, C_STAR, S_STAR);
+        go(S_START, C_SLASH, S_SLASH);
+        go(S_START, C_PERCENT, S_PERCENT);
+        go(S_START, C_PLUS, S_PLUS);
+        go(S_START, C_MINUS, S_MINUS);
+        go(S_START, C_LESS, S_LESS);
+        go(S_START, C_GREATER, S_GREATER);
+        go(S_START, C_EQUAL, S_EQUAL);
+        go(S_START, C_BANG, S_BANG);
+        go(S_START, C_AMP, S_AMP);
+        go(S_START, C_BAR, S_BAR);
+        go(S_START, C_LPAREN, S_LPAREN);
+        go(S_START, C_RPAREN, S_RPAREN);
+        go(S_START, C_LBRACE, S_LBRACE);
+        go(S_START, C_RBRACE, S_RBRACE);
+        go(S_START, C_SEMI, S_SEMI);
+        go(S_START, C_COMMA, S_COMMA);
+        go(S_START, C_QUOTE, -(A_CHAR_LIT + 1));
+        go(S_START, C_DQUOTE, -(A_STRING_LIT + 1));
+        go(S_START, C_HASH, -(A_HASH + 1));
+
+        keyword("if", TokenType.Keyword_if);
+        keyword("else", TokenType.Keyword_else);
+        keyword("while", TokenType.Keyword_while);
+        keyword("print", TokenType.Keyword_print);
+        keyword("putc", TokenType.Keyword_putc);
+    }
+
+    private static void accept(int state, TokenType type) {
+        action(state, type.ordinal());
+    }
+
+    private static void action(int state, int action) {
+        for (int c = 0; c < CLASSES; c++) TRANSITIONS[state * CLASSES + c] = -(action + 1);
+    }
+
+    private static void go(int state, int cls, int next) {
+        TRANSITIONS[state * CLASSES + cls] = next;
+    }
+
+    private static void keyword(String word, TokenType type) {
+        int h = hash(word.charAt(0), word.charAt(1), word.length());
+        if (KEYWORDS[h] != null) throw new IllegalStateException("keyword hash collision: " + word);
+        KEYWORDS[h] = word;
+        KEYWORD_TYPES[h] = type;
+    }
+
+    private static int hash(char first, char second, int length) {
+        return (first + (second << 2) + length) & 7;
+    }
+
+    /**
+     * @param c a character
+     * @return  its character class
+     */
+    static int classOf(char c) {
+        if (c < 128) return CLASS[c];
+        return Character.isWhitespace(c) ? C_SPACE : C_OTHER;
+    }
+
+    /**
+     * Tells keywords from identifiers without building a string
+     *
+     * @param s the source code
+     * @param start offset of the identifier
+     * @param end   offset just past the identifier
+     * @return  the keyword type, or Identifier
+     */
+    static TokenType keyword(CharSequence s, int start, int end) {
+        int length = end - start;
+        if (length < 2 || length > 5) return TokenType.Identifier;
+        int h = hash(s.charAt(start), s.charAt(start + 1), length);
+        String word = KEYWORDS[h];
+        if (word == null || word.length() != length) return TokenType.Identifier;
+        for (int i = 2; i < length; i++) {
+            if (word.charAt(i) != s.charAt(start + i)) return TokenType.Identifier;
+        }
+        return (word.charAt(0) == s.charAt(start) && word.charAt(1) == s.charAt(start + 1))
+                ? KEYWORD_TYPES[h] : TokenType.Identifier;
+    }
+}
@@ -0,0 +1,310 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics
+ *
+ * Times the phases of compiling a file: reading it, lexing, formatting the .lex text, parsing,
+ * printing the .par text and writing the outputs. Every phase of every file can be recorded as
+ * a JFR event, minicompiler.Phase, and every file as a minicompiler.File event, so a recording
+ * of a production run shows where the time goes:
+ *
+ *     java -XX:StartFlightRecording=filename=compile.jfr BatchCompiler ...
+ *
+ * When counting is enabled the phases are also added up per phase, with the bytes each thread
+ * allocated in them, for snapshot() and the --stats summary. A phase costs one check when
+ * neither is on, so the hooks stay in place for good.
+ */
+final class Metrics {
+
+    enum Phase {
+        READ("read"), LEX("lex"), FORMAT("format"), PARSE("parse"), PRINT("print"), WRITE("write");
+
+        private final String name;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() { return this.name; }
+    }
+
+    @Name("minicompiler.Phase")
+    @Label("Compiler Phase")
+    @Category("Mini Compiler")
+    @Description("One phase of compiling one file")
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("File")
+        String file;
+        @Label("Phase")
+        String phase;
+        @Label("Input")
+        @DataAmount
+        long bytes;
+        @Label("Tokens")
+        long tokens;
+        @Label("Nodes")
+        long nodes;
+        @Label("Output")
+        @DataAmount
+        long output;
+    }
+
+    @Name("minicompiler.File")
+    @Label("Compiled File")
+    @Category("Mini Compiler")
+    @Description("Compiling one file, from reading it to its outputs")
+    @StackTrace(false)
+    static final class FileEvent extends Event {
+        @Label("File")
+        String file;
+        @Label("Source")
+        @DataAmount
+        long bytes;
+        @Label("Tokens")
+        long tokens;
+        @Label("Nodes")
+        long nodes;
+        @Label("Output")
+        @DataAmount
+        long output;
+        @Label("Compiled")
+        boolean ok;
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    // per phase: how often it ran, nanoseconds, input bytes, tokens, nodes, output bytes, bytes allocated
+    private static final int COUNT = 0, NANOS = 1, BYTES = 2, TOKENS = 3, NODES = 4, OUTPUT = 5, ALLOCATED = 6, FIELDS = 7;
+    private static final AtomicLongArray counters = new AtomicLongArray(PHASES.length * FIELDS);
+    private static final AtomicLongArray files = new AtomicLongArray(2);
+    private static volatile boolean counting;
+
+    private Metrics() {
+    }
+
+    /**
+     * Only touched once counting is on, so the management classes are not loaded before
+     */
+    private static final class Allocation {
+        static final com.sun.management.ThreadMXBean THREADS = threads();
+
+        private static com.sun.management.ThreadMXBean threads() {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                    && threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+            return null;
+        }
+
+        static long allocated() {
+            return (THREADS == null) ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+        }
+    }
+
+    /**
+     * Turns the cumulative counters on or off, JFR events only depend on the recording
+     */
+    static void count(boolean enabled) {
+        if (enabled) Allocation.allocated();
+        counting = enabled;
+    }
+
+    static boolean counting() { return counting; }
+
+    /**
+     * A phase that has started, end() records it
+     */
+    static final class Span {
+        private static final Span NONE = new Span(null, null, null);
+        private final Phase phase;
+        private final Object file;
+        private final PhaseEvent event;
+        private final long start;
+        private final long allocated;
+
+        private Span(Phase phase, Object file, PhaseEvent event) {
+            this.phase = phase;
+            this.file = file;
+            this.event = event;
+            this.start = (phase == null) ? 0 : System.nanoTime();
+            this.allocated = (phase != null && counting) ? Allocation.allocated() : 0;
+        }
+
+        /**
+         * @param bytes how many bytes the phase took in
+         * @param tokens    how many tokens it read or made
+         * @param nodes how many nodes it read or made
+         * @param output    how many bytes it gave
+         */
+        void end(long bytes, long tokens, long nodes, long output) {
+            if (this == NONE) return;
+            long nanos = System.nanoTime() - start;
+            if (event != null && event.shouldCommit()) {
+                event.file = String.valueOf(file);
+                event.phase = phase.toString();
+                event.bytes = bytes;
+                event.tokens = tokens;
+                event.nodes = nodes;
+                event.output = output;
+                event.commit();
+            }
+            if (counting) {
+                int base = phase.ordinal() * FIELDS;
+                counters.incrementAndGet(base + COUNT);
+                counters.addAndGet(base + NANOS, nanos);
+                counters.addAndGet(base + BYTES, bytes);
+                counters.addAndGet(base + TOKENS, tokens);
+                counters.addAndGet(base + NODES, nodes);
+                counters.addAndGet(base + OUTPUT, output);
+                counters.addAndGet(base + ALLOCATED, Math.max(0, Allocation.allocated() - allocated));
+            }
+        }
+    }
+
+    /**
+     * @param phase the phase that starts
+     * @param file  the file it is run on, only turned into a String for an event
+     * @return  the span to end when the phase is done, one that does nothing when neither
+     *          events nor counters are on
+     */
+    static Span start(Phase phase, Object file) {
+        PhaseEvent event = new PhaseEvent();
+        if (!event.isEnabled()) {
+            if (!counting) return Span.NONE;
+            event = null;
+        } else {
+            event.begin();
+        }
+        return new Span(phase, file, event);
+    }
+
+    /**
+     * @return  a started file event, null when it is not recorded
+     */
+    static FileEvent file() {
+        FileEvent event = new FileEvent();
+        if (!event.isEnabled() && !counting) return null;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Records a file that is done
+     *
+     * @param event what file() gave, null does nothing
+     */
+    static void file(FileEvent event, Object file, long bytes, long tokens, long nodes, long output, boolean ok) {
+        if (event == null) return;
+        if (counting) files.incrementAndGet(ok ? 0 : 1);
+        if (!event.shouldCommit()) return;
+        event.file = String.valueOf(file);
+        event.bytes = bytes;
+        event.tokens = tokens;
+        event.nodes = nodes;
+        event.output = output;
+        event.ok = ok;
+        event.commit();
+    }
+
+    /**
+     * Sets every counter back to zero
+     */
+    static void reset() {
+        for (int i = 0; i < counters.length(); i++) counters.set(i, 0);
+        files.set(0, 0);
+        files.set(1, 0);
+    }
+
+    /**
+     * What the counters held at one point in time
+     */
+    static final class Snapshot {
+        final long compiled;
+        final long failed;
+        private final long[] counters;
+
+        private Snapshot(long compiled, long failed, long[] counters) {
+            this.compiled = compiled;
+            this.failed = failed;
+            this.counters = counters;
+        }
+
+        long count(Phase phase) { return counters[phase.ordinal() * FIELDS + COUNT]; }
+
+        long nanos(Phase phase) { return counters[phase.ordinal() * FIELDS + NANOS]; }
+
+        long bytes(Phase phase) { return counters[phase.ordinal() * FIELDS + BYTES]; }
+
+        long tokens(Phase phase) { return counters[phase.ordinal() * FIELDS + TOKENS]; }
+
+        long nodes(Phase phase) { return counters[phase.ordinal() * FIELDS + NODES]; }
+
+        long output(Phase phase) { return counters[phase.ordinal() * FIELDS + OUTPUT]; }
+
+        /**
+         * @return  the bytes the compiling threads allocated in the phase, 0 where the JVM can not tell
+         */
+        long allocated(Phase phase) { return counters[phase.ordinal() * FIELDS + ALLOCATED]; }
+
+        /**
+         * @return  tokens lexed per second of lexing
+         */
+        double tokensPerSecond() {
+            return rate(tokens(Phase.LEX), nanos(Phase.LEX));
+        }
+
+        /**
+         * @return  nodes made per second of parsing
+         */
+        double nodesPerSecond() {
+            return rate(nodes(Phase.PARSE), nanos(Phase.PARSE));
+        }
+
+        private static double rate(long amount, long nanos) {
+            return (nanos == 0) ? 0 : amount * 1e9 / nanos;
+        }
+
+        /**
+         * Prints one line per phase that ran and the rates
+         */
+        void print(PrintStream out) {
+            out.printf("%-8s %8s %10s %12s %10s %10s %12s %12s%n", "phase", "runs", "ms", "bytes", "tokens", "nodes", "output", "allocated");
+            for (Phase phase : PHASES) {
+                if (count(phase) == 0) continue;
+                out.printf("%-8s %8d %10.1f %12d %10d %10d %12d %12d%n", phase, count(phase), nanos(phase) / 1e6,
+                        bytes(phase), tokens(phase), nodes(phase), output(phase), allocated(phase));
+            }
+            out.println(this);
+        }
+
+        /**
+         * @return  the files and the rates on one line
+         */
+        @Override
+        public String toString() {
+            return String.format("%d files compiled, %d failed, %.0f tokens/s lexed, %.0f nodes/s parsed",
+                    compiled, failed, tokensPerSecond(), nodesPerSecond());
+        }
+    }
+
+    /**
+     * @return  the counters as they are now, phases still running are not in them
+     */
+    static Snapshot snapshot() {
+        long[] copy = new long[counters.length()];
+        for (int i = 0; i < copy.length; i++) copy[i] = counters.get(i);
+        return new Snapshot(files.get(0), files.get(1), copy);
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Optimizer
+ *
+ * Rewrites the tree built by the Parser before it is printed, interpreted or compiled. It runs
+ * four passes, each over the whole tree:
+ *
+ *  fold        Integer arithmetic, comparisons and logic are computed, a division by 0 is left
+ *              for the program to fail on
+ *  simplify    x*1, 1*x, x+0, 0+x, x-0, x/1 and --x become x, !!x becomes x where only its
+ *              truth is used: in conditions and under !, && and ||
+ *  prune       if with an Integer condition keeps the branch taken, while (0) is dropped
+ *  flatten     Sequence chains lose their empty statements and nested Sequences are merged
+ *
+ * The input tree is left as it is, nodes are only copied where something changed. The tree is
+ * walked with explicit stacks, so deep and long programs are fine. Each pass counts what it did
+ * and how many nodes are left, see report().
+ */
+final class Optimizer {
+
+    /**
+     * What one pass did
+     */
+    static final class Pass {
+        final String name;
+        int changes;
+        int nodesBefore;
+        int nodesAfter;
+        long nanos;
+
+        Pass(String name) {
+            this.name = name;
+        }
+    }
+
+    private interface Rule {
+        Parser.Node apply(Parser.Node t, Pass pass);
+    }
+
+    private final List<Pass> passes = new ArrayList<>();
+
+    /**
+     * Optimizes a tree with a new optimizer
+     *
+     * @param tree  the tree of Parser.parse()
+     * @return  the optimized tree, null when nothing is left to run
+     */
+    static Parser.Node optimize(Parser.Node tree) {
+        return new Optimizer().run(tree);
+    }
+
+    /**
+     * Runs all passes, the statistics of earlier runs are kept
+     *
+     * @param tree  the tree of Parser.parse()
+     * @return  the optimized tree, null when nothing is left to run
+     */
+    Parser.Node run(Parser.Node tree) {
+        tree = pass("fold", tree, Optimizer::fold);
+        tree = pass("simplify", tree, Optimizer::simplify);
+        tree = pass("prune", tree, Optimizer::prune);
+        return pass("flatten", tree, Optimizer::flatten);
+    }
+
+    /**
+     * @return  the statistics of every pass run so far, in order
+     */
+    List<Pass> passes() {
+        return passes;
+    }
+
+    /**
+     * @return  one line per pass with its changes, the nodes before and after and its time
+     */
+    String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-10s %8s %10s %10s %10s%n", "pass", "changes", "before", "after", "ms"));
+        for (Pass pass : passes) {
+            sb.append(String.format("%-10s %8d %10d %10d %10.2f%n", pass.name, pass.changes, pass.nodesBefore, pass.nodesAfter, pass.nanos / 1e6));
+        }
+        return sb.toString();
+    }
+
+    private Parser.Node pass(String name, Parser.Node tree, Rule rule) {
+        Pass pass = new Pass(name);
+        long start = System.nanoTime();
+        pass.nodesBefore = count(tree);
+        Parser.Node result = rewrite(tree, rule, pass);
+        pass.nodesAfter = count(result);
+        pass.nanos = System.nanoTime() - start;
+        passes.add(pass);
+        return result;
+    }
+
+    /**
+     * Rebuilds the tree bottom up, the rule sees every node after its children were rewritten
+     */
+    private static Parser.Node rewrite(Parser.Node root, Rule rule, Pass pass) {
+        Parser.Node[] nodes = new Parser.Node[64];
+        int[] states = new int[64];
+        Parser.Node[] results = new Parser.Node[64];
+        int top = 0, done = 0;
+        nodes[top] = root;
+        states[top++] = 0;
+        while (top > 0) {
+            Parser.Node t = nodes[top - 1];
+            if (t == null || states[top - 1] == 2) {
+                top--;
+                Parser.Node result = null;
+                if (t != null) {
+                    Parser.Node right = results[--done];
+                    Parser.Node left = results[--done];
+                    result = (left == t.left && right == t.right) ? t : copy(t, left, right);
+                    result = rule.apply(result, pass);
+                }
+                if (done == results.length) results = Arrays.copyOf(results, done * 2);
+                results[done++] = result;
+                continue;
+            }
+            Parser.Node child = (states[top - 1]++ == 0) ? t.left : t.right;
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                states = Arrays.copyOf(states, top * 2);
+            }
+            nodes[top] = child;
+            states[top++] = 0;
+        }
+        return results[0];
+    }
+
+    private static Parser.Node fold(Parser.Node t, Pass pass) {
+        switch (t.nt) {
+            case nd_Negate, nd_Not -> {
+                if (!isInteger(t.left)) return t;
+                int value = value(t.left);
+                pass.changes++;
+                return integer((t.nt == Parser.NodeType.nd_Negate) ? -value : (value == 0) ? 1 : 0);
+            }
+            case nd_And, nd_Or -> {
+                // the left side decides alone or leaves the truth of the right side
+                if (!isInteger(t.left)) return t;
+                boolean and = t.nt == Parser.NodeType.nd_And;
+                pass.changes++;
+                if ((value(t.left) != 0) != and) return integer(and ? 0 : 1);
+                if (isInteger(t.right)) return integer((value(t.right) != 0) ? 1 : 0);
+                return Parser.Node.make_node(Parser.NodeType.nd_Not, Parser.Node.make_node(Parser.NodeType.nd_Not, t.right));
+            }
+            case nd_Mul, nd_Div, nd_Mod, nd_Add, nd_Sub, nd_Lss, nd_Leq, nd_Gtr, nd_Geq, nd_Eql, nd_Neq -> {
+                if (!isInteger(t.left) || !isInteger(t.right)) return t;
+                int left = value(t.left), right = value(t.right);
+                if ((t.nt == Parser.NodeType.nd_Div || t.nt == Parser.NodeType.nd_Mod) && right == 0) return t;
+                pass.changes++;
+                return integer(switch (t.nt) {
+                    case nd_Mul -> left * right;
+                    case nd_Div -> left / right;
+                    case nd_Mod -> left % right;
+                    case nd_Add -> left + right;
+                    case nd_Sub -> left - right;
+                    case nd_Lss -> (left < right) ? 1 : 0;
+                    case nd_Leq -> (left <= right) ? 1 : 0;
+                    case nd_Gtr -> (left > right) ? 1 : 0;
+                    case nd_Geq -> (left >= right) ? 1 : 0;
+                    case nd_Eql -> (left == right) ? 1 : 0;
+                    default -> (left != right) ? 1 : 0;
+                });
+            }
+            default -> {
+                return t;
+            }
+        }
+    }
+
+    private static Parser.Node simplify(Parser.Node t, Pass pass) {
+        switch (t.nt) {
+            case nd_Mul -> {
+                if (isValue(t.right, 1)) return changed(t.left, pass);
+                if (isValue(t.left, 1)) return changed(t.right, pass);
+            }
+            case nd_Add -> {
+                if (isValue(t.right, 0)) return changed(t.left, pass);
+                if (isValue(t.left, 0)) return changed(t.right, pass);
+            }
+            case nd_Sub -> {
+                if (isValue(t.right, 0)) return changed(t.left, pass);
+            }
+            case nd_Div -> {
+                if (isValue(t.right, 1)) return changed(t.left, pass);
+            }
+            case nd_Negate -> {
+                if (t.left.nt == Parser.NodeType.nd_Negate) return changed(t.left.left, pass);
+            }
+            case nd_Not, nd_While -> {
+                Parser.Node condition = truth(t.left, pass);
+                if (condition != t.left) return copy(t, condition, t.right);
+            }
+            case nd_And, nd_Or -> {
+                Parser.Node left = truth(t.left, pass), right = truth(t.right, pass);
+                if (left != t.left || right != t.right) return copy(t, left, right);
+            }
+            case nd_If -> {
+                // the inner If only holds the branches
+                if (t.right != null && t.right.nt == Parser.NodeType.nd_If) {
+                    Parser.Node condition = truth(t.left, pass);
+                    if (condition != t.left) return copy(t, condition, t.right);
+                }
+            }
+            default -> { }
+        }
+        return t;
+    }
+
+    /**
+     * Drops !! from a value of which only the truth is used
+     */
+    private static Parser.Node truth(Parser.Node t, Pass pass) {
+        while (t != null && t.nt == Parser.NodeType.nd_Not && t.left != null && t.left.nt == Parser.NodeType.nd_Not) {
+            t = t.left.left;
+            pass.changes++;
+        }
+        return t;
+    }
+
+    private static Parser.Node prune(Parser.Node t, Pass pass) {
+        if (t.nt == Parser.NodeType.nd_If && t.right != null && t.right.nt == Parser.NodeType.nd_If && isInteger(t.left)) {
+            pass.changes++;
+            return (value(t.left) != 0) ? t.right.left : t.right.right;
+        }
+        if (t.nt == Parser.NodeType.nd_While && isInteger(t.left) && value(t.left) == 0) {
+            pass.changes++;
+            return null;
+        }
+        return t;
+    }
+
+    /**
+     * Makes every Sequence one chain of its statements, empty ones left out
+     * The left side is a flat chain already, the statements of the right side are added to it
+     */
+    private static Parser.Node flatten(Parser.Node t, Pass pass) {
+        if (t.nt != Parser.NodeType.nd_Sequence) return t;
+        if (t.left != null && t.right != null && t.right.nt != Parser.NodeType.nd_Sequence) return t;
+        pass.changes++;
+        Parser.Node result = t.left;
+        List<Parser.Node> statements = new ArrayList<>();
+        Parser.Node chain = t.right;
+        while (chain != null && chain.nt == Parser.NodeType.nd_Sequence) {
+            statements.add(chain.right);
+            chain = chain.left;
+        }
+        if (chain != null) statements.add(chain);
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            result = (result == null) ? statements.get(i) : Parser.Node.make_node(Parser.NodeType.nd_Sequence, result, statements.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Counts the nodes of a tree without recursion
+     */
+    static int count(Parser.Node root) {
+        int count = 0;
+        Parser.Node[] stack = new Parser.Node[64];
+        int top = 0;
+        if (root != null) stack[top++] = root;
+        while (top > 0) {
+            Parser.Node t = stack[--top];
+            count++;
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            if (t.left != null) stack[top++] = t.left;
+            if (t.right != null) stack[top++] = t.right;
+        }
+        return count;
+    }
+
+    /**
+     * @return  a node like t with other children, a statement keeps where it starts
+     */
+    private static Parser.Node copy(Parser.Node t, Parser.Node left, Parser.Node right) {
+        Parser.Node node = new Parser.Node(t.nt, left, right, t.value);
+        node.symbol = t.symbol;
+        node.line = t.line;
+        node.pos = t.pos;
+        return node;
+    }
+
+    private static Parser.Node changed(Parser.Node t, Pass pass) {
+        pass.changes++;
+        return t;
+    }
+
+    private static boolean isInteger(Parser.Node t) {
+        return t != null && t.nt == Parser.NodeType.nd_Integer;
+    }
+
+    private static boolean isValue(Parser.Node t, int value) {
+        return isInteger(t) && value(t) == value;
+    }
+
+    private static int value(Parser.Node t) {
+        return Interpreter.integer(t.value);
+    }
+
+    private static Parser.Node integer(int value) {
+        return Parser.Node.make_leaf(Parser.NodeType.nd_Integer, Integer.toString(value));
+    }
+
+    /**
+     * Usage: Optimizer file
+     * Prints the optimized tree in the .par format, then the statistics of every pass
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: Optimizer file");
+            System.exit(1);
+        }
+        try {
+            Parser parser = new Parser(Lexer.fromFile(Path.of(args[0])));
+            Optimizer optimizer = new Optimizer();
+            Parser.Node tree = optimizer.run(parser.parse());
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+            Parser.writeAST(tree, out);
+            out.append(optimizer.report()).flush();
+        } catch (IOException e) {
+            System.out.println("Exception: " + e.getMessage());
+            System.exit(1);
+        } catch (CompileException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
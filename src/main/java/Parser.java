@@ -1,18 +1,194 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 class Parser {
-    private List<Token> source;
-    private Token token;
-    private int position;
+    private final TokenCursor tokens;
+    private final SymbolTable symbols;
+    private final TokenBuffer.Cursor cursor;
+    private final StatementCache cache;
+    private final Diagnostics diagnostics;
+    private final NodeBuilder nodes = new NodeBuilder();
+    private Builder builder = nodes;
+
+    /**
+     * Statements parsed before, by the index of their first token, for incremental parsing
+     * A statement only depends on its own tokens and the one after it, so one that is handed
+     * out is exactly what parsing its tokens again would give.
+     */
+    interface StatementCache {
+        /**
+         * @param start index of the token a statement is about to be parsed from
+         * @return  index just past the cached statement that starts there, -1 if there is none
+         */
+        int end(int start);
+
+        /**
+         * @param start index of the first token of a cached statement
+         * @return  the statement
+         */
+        Node statement(int start);
+
+        /**
+         * Called for every statement that was parsed from its tokens, inner ones first
+         *
+         * @param start index of its first token
+         * @param end   index just past its last token
+         * @param statement the statement, never null
+         */
+        void parsed(int start, int end, Node statement);
+    }
+
+    /**
+     * Makes the nodes of the tree while it is parsed
+     * A node is known by an int handle, NIL for no node. expr and stmt only ever pass a handle
+     * on once, as the child of a new node or as their result, so a builder may reuse the place
+     * of a child as soon as its parent is made.
+     */
+    interface Builder {
+        /**
+         * @param type  the type of an inner node
+         * @param left  the left child, NIL for none
+         * @param right the right child, NIL for none
+         * @return  the handle of the node
+         */
+        int node(NodeType type, int left, int right);
+
+        /**
+         * @param type  the type of a leaf
+         * @param value its text, the name, the string or the digits
+         * @param symbol    the symbol ID of an Identifier or String leaf, -1 for an Integer
+         * @return  the handle of the leaf
+         */
+        int leaf(NodeType type, String value, int symbol);
+
+        /**
+         * Tells where a statement starts, once it is made, a builder may ignore it
+         *
+         * @param node  the statement
+         * @param line  the line of its first token
+         * @param pos   the position of its first token
+         */
+        default void at(int node, int line, int pos) { }
+    }
+
+    static final int NIL = -1;
+
+    /*
+     * .parb binary tree, big endian
+     *
+     * header:  magic "PARB", u16 version, u16 reserved, i32 record count, i32 string count,
+     *          i32 offset of the string table
+     * records: the tree in pre-order like the .par text, u8 type ordinal with nd_None for a
+     *          missing child, an Identifier, String or Integer leaf is followed by the i32 index
+     *          of its value in the string table
+     * strings: as in .lexb, i32 offset of each string, then each string as i32 byte length and
+     *          UTF-8 bytes
+     */
+    static final int PARB_MAGIC = 0x50415242;
+    static final short PARB_VERSION = 1;
+    static final int PARB_HEADER = 20;
+
+    /**
+     * Builds Node objects, the handles index the nodes that do not have a parent yet
+     */
+    private static final class NodeBuilder implements Builder {
+        private Node[] nodes = new Node[64];
+        private int[] free = new int[64];
+        private int size;
+        private int freeTop;
+        // how many nodes were made since clear()
+        private int made;
+
+        @Override
+        public int node(NodeType type, int left, int right) {
+            made++;
+            return add(Node.make_node(type, take(left), take(right)));
+        }
+
+        @Override
+        public int leaf(NodeType type, String value, int symbol) {
+            made++;
+            return add(Node.make_leaf(type, value, symbol));
+        }
+
+        @Override
+        public void at(int node, int line, int pos) {
+            nodes[node].line = line;
+            nodes[node].pos = pos;
+        }
+
+        /**
+         * @return  the handle of a node made elsewhere, such as a statement from the cache
+         */
+        int add(Node node) {
+            if (node == null) return NIL;
+            int handle;
+            if (freeTop > 0) {
+                handle = free[--freeTop];
+            } else {
+                if (size == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, size * 2);
+                    free = Arrays.copyOf(free, size * 2);
+                }
+                handle = size++;
+            }
+            nodes[handle] = node;
+            return handle;
+        }
+
+        /**
+         * @return  the node of a handle, which stays valid
+         */
+        Node get(int handle) {
+            return (handle == NIL) ? null : nodes[handle];
+        }
+
+        /**
+         * @return  the node of a handle, whose place is free again
+         */
+        Node take(int handle) {
+            if (handle == NIL) return null;
+            Node node = nodes[handle];
+            nodes[handle] = null;
+            free[freeTop++] = handle;
+            return node;
+        }
+
+        /**
+         * Forgets the nodes left over from statements in error
+         */
+        void clear() {
+            Arrays.fill(nodes, 0, size, null);
+            size = 0;
+            freeTop = 0;
+            made = 0;
+        }
+    }
 
     static class Node {
         public NodeType nt;
         public Node left, right;
         public String value;
+        // the symbol ID of an Identifier or String leaf, -1 for every other node
+        public int symbol = -1;
+        // where a statement starts in the source, 0 for other nodes and for trees read back from
+        // .par or .parb, the IncrementalParser moves it with the statements it reuses
+        public int line, pos;
 
         Node() {
             this.nt = null;
@@ -35,75 +211,13 @@ class Parser {
         public static Node make_leaf(NodeType nodetype, String value) {
             return new Node(nodetype, null, null, value);
         }
-    }
-
-    static class Token {
-        public TokenType tokentype;
-        public String value;
-        public int line;
-        public int pos;
-
-        Token(TokenType token, String value, int line, int pos) {
-            this.tokentype = token; this.value = value; this.line = line; this.pos = pos;
+        public static Node make_leaf(NodeType nodetype, String value, int symbol) {
+            Node node = new Node(nodetype, null, null, value);
+            node.symbol = symbol;
+            return node;
         }
-        @Override
-        public String toString() {
-            return String.format("%5d  %5d %-15s %s", this.line, this.pos, this.tokentype, this.value);
-        }
-    }
-
-    static enum TokenType {
-        End_of_input(false, false, false, -1, NodeType.nd_None),
-        Op_multiply(false, true, false, 13, NodeType.nd_Mul),
-        Op_divide(false, true, false, 13, NodeType.nd_Div),
-        Op_mod(false, true, false, 13, NodeType.nd_Mod),
-        Op_add(false, true, false, 12, NodeType.nd_Add),
-        Op_subtract(false, true, false, 12, NodeType.nd_Sub),
-        Op_negate(false, false, true, 14, NodeType.nd_Negate),
-        Op_not(false, false, true, 14, NodeType.nd_Not),
-        Op_less(false, true, false, 10, NodeType.nd_Lss),
-        Op_lessequal(false, true, false, 10, NodeType.nd_Leq),
-        Op_greater(false, true, false, 10, NodeType.nd_Gtr),
-        Op_greaterequal(false, true, false, 10, NodeType.nd_Geq),
-        Op_equal(false, true, true, 9, NodeType.nd_Eql),
-        Op_notequal(false, true, false, 9, NodeType.nd_Neq),
-        Op_assign(false, false, false, -1, NodeType.nd_Assign),
-        Op_and(false, true, false, 5, NodeType.nd_And),
-        Op_or(false, true, false, 4, NodeType.nd_Or),
-        Keyword_if(false, false, false, -1, NodeType.nd_If),
-        Keyword_else(false, false, false, -1, NodeType.nd_None),
-        Keyword_while(false, false, false, -1, NodeType.nd_While),
-        Keyword_print(false, false, false, -1, NodeType.nd_None),
-        Keyword_putc(false, false, false, -1, NodeType.nd_None),
-        LeftParen(false, false, false, -1, NodeType.nd_None),
-        RightParen(false, false, false, -1, NodeType.nd_None),
-        LeftBrace(false, false, false, -1, NodeType.nd_None),
-        RightBrace(false, false, false, -1, NodeType.nd_None),
-        Semicolon(false, false, false, -1, NodeType.nd_None),
-        Comma(false, false, false, -1, NodeType.nd_None),
-        Identifier(false, false, false, -1, NodeType.nd_Ident),
-        Integer(false, false, false, -1, NodeType.nd_Integer),
-        String(false, false, false, -1, NodeType.nd_String);
-
-        private final int precedence;
-        private final boolean right_assoc;
-        private final boolean is_binary;
-        private final boolean is_unary;
-        private final NodeType node_type;
-
-        TokenType(boolean right_assoc, boolean is_binary, boolean is_unary, int precedence, NodeType node) {
-            this.right_assoc = right_assoc;
-            this.is_binary = is_binary;
-            this.is_unary = is_unary;
-            this.precedence = precedence;
-            this.node_type = node;
-        }
-        boolean isRightAssoc() { return this.right_assoc; }
-        boolean isBinary() { return this.is_binary; }
-        boolean isUnary() { return this.is_unary; }
-        int getPrecedence() { return this.precedence; }
-        NodeType getNodeType() { return this.node_type; }
     }
+
     static enum NodeType {
         nd_None(""), nd_Ident("Identifier"), nd_String("String"), nd_Integer("Integer"), nd_Sequence("Sequence"), nd_If("If"),
         nd_Prtc("Prtc"), nd_Prts("Prts"), nd_Prti("Prti"), nd_While("While"),
@@ -121,180 +235,1036 @@ class Parser {
         public String toString() { return this.name; }
     }
     static void error(int line, int pos, String msg) {
-        if (line > 0 && pos > 0) {
-            System.out.printf("%s in line %d, pos %d\n", msg, line, pos);
-        } else {
-            System.out.println(msg);
-        }
-        System.exit(1);
+        throw new CompileException(line, pos, msg);
     }
     Parser(List<Token> source) {
-        this.source = source;
-        this.token = null;
-        this.position = 0;
-    }
-    Token getNextToken() {
-        if(position == source.size()) return new Token(TokenType.End_of_input, "", 0, 0);
-        this.token = this.source.get(this.position++);
-        return this.token;
-    }
-
-    Node expr(int p) {
-        // create nodes for token types such as LeftParen, Op_add, Op_subtract, etc.
-        // be very careful here and be aware of the precedence rules for the AST tree
-        Node result = null, node;
-        switch (token.tokentype)
-        {
-            case LeftParen -> {
-                result = paren_expr();
+        this(new ListCursor(source));
+    }
+
+    /**
+     * Parser that pulls its tokens straight from the lexer as it needs them
+     *
+     * @param lexer the lexer over the source code
+     */
+    Parser(Lexer lexer) {
+        this((TokenCursor) lexer);
+    }
+
+    /**
+     * Parser over an already lexed token buffer
+     *
+     * @param buffer    the tokens
+     */
+    Parser(TokenBuffer buffer) {
+        this(buffer.cursor());
+    }
+
+    /**
+     * Parser over any token cursor, no Token objects are needed
+     * Identifiers and strings get the symbol IDs of the cursor, or of a table of the parser's
+     * own when the cursor does not intern
+     *
+     * @param tokens    the cursor, positioned before the first token
+     */
+    Parser(TokenCursor tokens) {
+        this(tokens, null);
+    }
+
+    /**
+     * Parser that reports syntax errors to a collector and recovers from them
+     * The statement in error is dropped, parsing goes on after the next ; or at the } that
+     * closes the block it is in
+     *
+     * @param tokens    the cursor, positioned before the first token
+     * @param diagnostics   where errors go, null to throw on the first one
+     */
+    Parser(TokenCursor tokens, Diagnostics diagnostics) {
+        this.tokens = tokens;
+        this.symbols = (tokens.symbols() != null) ? tokens.symbols() : new SymbolTable();
+        this.cursor = null;
+        this.cache = null;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Parser that takes statements from a cache where it can and reports the ones it parses
+     *
+     * @param cursor    cursor over the tokens, the cache is keyed by its indices
+     * @param cache the statements parsed before
+     */
+    Parser(TokenBuffer.Cursor cursor, StatementCache cache) {
+        this.tokens = cursor;
+        this.symbols = cursor.symbols();
+        this.cursor = cursor;
+        this.cache = cache;
+        this.diagnostics = null;
+    }
+
+    /**
+     * @return  the table the symbol IDs of the tree belong to
+     */
+    SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * Makes the leaf of the current Identifier or String token, its value is the interned String
+     */
+    private int symbol(NodeType nodetype) {
+        int id = tokens.symbol();
+        if (id < 0) id = symbols.intern(tokens.value());
+        return builder.leaf(nodetype, symbols.name(id), id);
+    }
+
+    /**
+     * Cursor over a list of tokens, such as the ones read back from a .lex file
+     */
+    private static final class ListCursor implements TokenCursor {
+        private static final Token END = new Token(TokenType.End_of_input, "", 0, 0);
+        private final List<Token> source;
+        private int position;
+        private Token token;
+
+        ListCursor(List<Token> source) {
+            this.source = source;
+            this.position = 0;
+            this.token = END;
+        }
+
+        @Override
+        public TokenType next() {
+            this.token = (position == source.size()) ? END : this.source.get(this.position++);
+            return this.token.tokentype;
+        }
+
+        @Override
+        public TokenType type() { return token.tokentype; }
+
+        @Override
+        public int line() { return token.line; }
+
+        @Override
+        public int pos() { return token.pos; }
+
+        @Override
+        public String value() { return token.value; }
+    }
+
+    /**
+     * Reads the tokens of a .lex file, the text form written by Lexer.printTokens
+     *
+     * @param lex   scanner over the .lex text
+     * @return  the tokens in order
+     */
+    static List<Token> readTokens(Scanner lex) {
+        List<Token> list = new ArrayList<>();
+        while (lex.hasNextLine()) {
+            String str = lex.nextLine().strip();
+            if (str.isEmpty()) continue;
+            String[] fields = str.split("\\s+", 4);
+            int line = Integer.parseInt(fields[0]);
+            int pos = Integer.parseInt(fields[1]);
+            TokenType type;
+            try {
+                type = TokenType.valueOf(fields[2]);
+            } catch (IllegalArgumentException e) {
+                error(line, pos, "Token not found: '" + fields[2] + "'");
+                return list;
             }
-            case Op_add, Op_subtract, Op_negate -> {
-                TokenType op = (token.tokentype == TokenType.Op_add) ? TokenType.Op_add : TokenType.Op_negate;
-                getNextToken();
-                node = expr(op.getPrecedence());
-                result = (op == TokenType.Op_add) ? node : Node.make_node(NodeType.nd_Negate, node);
+            String value = (fields.length == 4) ? fields[3] : "";
+            if (type == TokenType.String) value = value.substring(1, value.length() - 1);
+            list.add(new Token(type, value, line, pos));
+        }
+        return list;
+    }
+
+    /**
+     * Reads a tree back from its .par text, the form written by printAST
+     * The nodes are read in pre-order, the ones still waiting for a child are kept on a stack
+     * with the side the next child goes to. Identifier and String leaves are interned
+     *
+     * @param par   scanner over the .par text
+     * @param symbols   the table the leaves are interned into
+     * @return  the tree, null for an empty program
+     */
+    static Node readAST(Scanner par, SymbolTable symbols) {
+        Map<String, NodeType> types = new HashMap<>();
+        for (NodeType type : NodeType.values()) types.put(type.toString(), type);
+        Node root = null;
+        Node[] stack = new Node[64];
+        boolean[] right = new boolean[64];
+        int top = 0;
+        boolean read = false;
+        while (par.hasNextLine()) {
+            String str = par.nextLine();
+            if (str.isBlank()) continue;
+            int space = str.indexOf(' ');
+            String name = (space == -1) ? str.strip() : str.substring(0, space);
+            Node t = null;
+            boolean leaf = true;
+            if (!name.equals(";")) {
+                NodeType type = types.get(name);
+                if (type == null || type == NodeType.nd_None) throw new CompileException(0, 0, "Node not found: '" + name + "'");
+                if (type == NodeType.nd_String) {
+                    // a string may hold line breaks, it ends with its closing quote
+                    StringBuilder value = new StringBuilder(str.substring(space + 2));
+                    while (!value.toString().endsWith("\" ") && par.hasNextLine()) value.append('\n').append(par.nextLine());
+                    value.setLength(value.length() - 2);
+                    t = Node.make_leaf(type, value.toString());
+                } else if (type == NodeType.nd_Ident || type == NodeType.nd_Integer) {
+                    t = Node.make_leaf(type, str.substring(space + 1).strip());
+                } else {
+                    t = Node.make_node(type, null, null);
+                    leaf = false;
+                }
+                if (type == NodeType.nd_Ident || type == NodeType.nd_String) {
+                    t.symbol = symbols.intern(t.value);
+                    t.value = symbols.name(t.symbol);
+                }
             }
-            case Identifier -> {
-                result = Node.make_leaf(NodeType.nd_Ident, this.token.value);
-                getNextToken();
+            if (top > 0) {
+                Node parent = stack[top - 1];
+                if (right[top - 1]) {
+                    parent.right = t;
+                    stack[--top] = null;
+                } else {
+                    parent.left = t;
+                    right[top - 1] = true;
+                }
+            } else if (!read) {
+                root = t;
+            } else {
+                throw new CompileException(0, 0, "Text after the end of the tree: '" + str + "'");
             }
-            case Integer -> {
-                result = Node.make_leaf(NodeType.nd_Integer, this.token.value);
-                getNextToken();
+            read = true;
+            if (!leaf) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                    right = Arrays.copyOf(right, top * 2);
+                }
+                stack[top] = t;
+                right[top++] = false;
+            }
+        }
+        if (top > 0) throw new CompileException(0, 0, "Tree ends early, " + stack[top - 1].nt + " is missing a child");
+        return root;
+    }
+
+    /**
+     * Opens a .lexb file written by Lexer.writeBinary
+     * The file is memory mapped and checked once, then its records are read in place as the
+     * parser advances
+     *
+     * @param path  the .lexb file
+     * @return  a cursor over the tokens in the file
+     * @throws IOException  if the file can not be mapped, is not a supported .lexb file or is corrupt
+     */
+    static TokenCursor loadBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new BinaryCursor(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Cursor over the records of a mapped .lexb file
+     */
+    static final class BinaryCursor implements TokenCursor {
+        private static final TokenType[] TYPES = TokenType.values();
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int strings;
+        private final int tableOffset;
+        private final String[] decoded;
+        private int record;
+        private int index;
+
+        BinaryCursor(ByteBuffer buffer) throws IOException {
+            if (buffer.limit() < Lexer.LEXB_HEADER || buffer.getInt(0) != Lexer.LEXB_MAGIC) throw new IOException("Not a .lexb file");
+            if (buffer.getShort(4) != Lexer.LEXB_VERSION) throw new IOException("Unsupported .lexb version " + buffer.getShort(4));
+            if (buffer.getShort(6) != Lexer.LEXB_RECORD) throw new IOException("Unsupported .lexb record size " + buffer.getShort(6));
+            this.buffer = buffer;
+            this.count = buffer.getInt(8);
+            this.strings = buffer.getInt(12);
+            this.tableOffset = buffer.getInt(16);
+            int limit = buffer.limit();
+            if (count < 0 || Lexer.LEXB_HEADER + (long) count * Lexer.LEXB_RECORD > limit || strings < 0
+                    || tableOffset < Lexer.LEXB_HEADER || (long) tableOffset + strings * 4L > limit) throw new IOException("Corrupt .lexb file, bad header");
+            // every record and string is checked here, so next() and value() can not run off the mapping
+            for (int i = 0; i < strings; i++) {
+                int offset = buffer.getInt(tableOffset + i * 4);
+                if (offset < Lexer.LEXB_HEADER || offset > limit - 4) throw new IOException("Corrupt .lexb file, a string is out of bounds");
+                int length = buffer.getInt(offset);
+                if (length < 0 || length > limit - offset - 4) throw new IOException("Corrupt .lexb file, a string is out of bounds");
             }
-            default -> {
-                error(this.token.line, this.token.pos, "error with expr");
+            for (int i = 0, record = Lexer.LEXB_HEADER; i < count; i++, record += Lexer.LEXB_RECORD) {
+                int type = buffer.get(record) & 0xff;
+                if (type >= TYPES.length) throw new IOException("Corrupt .lexb file, unknown token type " + type);
+                int id = buffer.getInt(record + 12);
+                if (id >= strings) throw new IOException("Corrupt .lexb file, unknown string " + id);
             }
+            this.decoded = new String[strings];
+            this.index = -1;
+            this.record = Lexer.LEXB_HEADER - Lexer.LEXB_RECORD;
         }
 
-        while (this.token.tokentype.isBinary()&& this.token.tokentype.getPrecedence() >= p)
-        {
-            TokenType operation = this.token.tokentype;
-            getNextToken();
-            int precedence = operation.getPrecedence();
-            if (!operation.isRightAssoc()){
-                precedence++;
+        @Override
+        public TokenType next() {
+            if (index < count - 1) {
+                index++;
+                record += Lexer.LEXB_RECORD;
+            }
+            return type();
+        }
+
+        @Override
+        public TokenType type() { return (index < 0) ? TokenType.End_of_input : TYPES[buffer.get(record) & 0xff]; }
+
+        @Override
+        public int line() { return (index < 0) ? 0 : buffer.getInt(record + 4); }
+
+        @Override
+        public int pos() { return (index < 0) ? 0 : buffer.getInt(record + 8); }
+
+        @Override
+        public String value() {
+            int id = (index < 0) ? -1 : buffer.getInt(record + 12);
+            if (id < 0) return "";
+            if (decoded[id] == null) {
+                int offset = buffer.getInt(tableOffset + id * 4);
+                byte[] bytes = new byte[buffer.getInt(offset)];
+                buffer.get(offset + 4, bytes);
+                decoded[id] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return decoded[id];
+        }
+
+        /**
+         * @return  how many tokens the file holds
+         */
+        int size() { return count; }
+    }
+
+    TokenType getNextToken() {
+        return tokens.next();
+    }
+
+    // what an expression or statement that is being parsed waits for, kept on explicit stacks
+    // so that deep nesting and long programs never grow the Java call stack
+    private static final int EXPR_OPERAND = 0, EXPR_PAREN = 1, EXPR_UNARY = 2, EXPR_OPERATOR = 3, EXPR_BINARY = 4;
+    private static final int STMT_IF = 0, STMT_ELSE = 1, STMT_WHILE = 2, STMT_BLOCK = 3;
+
+    private int[] exprState = new int[16];
+    private int[] exprPrecedence = new int[16];
+    private NodeType[] exprOperation = new NodeType[16];
+    private int[] exprLeft = new int[16];
+    private int exprTop;
+
+    private int[] stmtState = new int[16];
+    private int[] stmtFirst = new int[16];
+    private int[] stmtSecond = new int[16];
+    private int[] stmtStart = new int[16];
+    private int[] stmtLine = new int[16];
+    private int[] stmtPos = new int[16];
+    private int stmtTop;
+
+    /**
+     * Precedence climbing on an explicit stack
+     * Every frame stands for one level of the classic recursive expr(p) and the tokens are
+     * consumed in the same order, so the trees and the errors are the same
+     *
+     * @param p the lowest precedence of a binary operator that may be taken
+     * @return  the expression
+     */
+    int expr(int p) {
+        int base = exprTop;
+        pushExpr(p);
+        int result = NIL;
+        while (true) {
+            int top = exprTop - 1;
+            switch (exprState[top]) {
+                case EXPR_OPERAND -> {
+                    // create nodes for token types such as LeftParen, Op_add, Op_subtract, etc.
+                    // be very careful here and be aware of the precedence rules for the AST tree
+                    switch (tokens.type())
+                    {
+                        case LeftParen -> {
+                            expect("paren_expr", TokenType.LeftParen);
+                            exprState[top] = EXPR_PAREN;
+                            pushExpr(0);
+                        }
+                        case Op_add, Op_subtract, Op_negate -> {
+                            TokenType op = (tokens.type() == TokenType.Op_add) ? TokenType.Op_add : TokenType.Op_negate;
+                            getNextToken();
+                            exprState[top] = EXPR_UNARY;
+                            exprOperation[top] = (op == TokenType.Op_add) ? null : NodeType.nd_Negate;
+                            pushExpr(op.getPrecedence());
+                        }
+                        case Op_not -> {
+                            getNextToken();
+                            exprState[top] = EXPR_UNARY;
+                            exprOperation[top] = NodeType.nd_Not;
+                            pushExpr(TokenType.Op_not.getPrecedence());
+                        }
+                        case Identifier -> {
+                            exprLeft[top] = symbol(NodeType.nd_Ident);
+                            getNextToken();
+                            exprState[top] = EXPR_OPERATOR;
+                        }
+                        case Integer -> {
+                            exprLeft[top] = builder.leaf(NodeType.nd_Integer, tokens.value(), -1);
+                            getNextToken();
+                            exprState[top] = EXPR_OPERATOR;
+                        }
+                        default -> {
+                            error(tokens.line(), tokens.pos(), "error with expr");
+                        }
+                    }
+                }
+                case EXPR_PAREN -> {
+                    expect("paren_expr", TokenType.RightParen);
+                    exprLeft[top] = result;
+                    exprState[top] = EXPR_OPERATOR;
+                }
+                case EXPR_UNARY -> {
+                    exprLeft[top] = (exprOperation[top] == null) ? result : builder.node(exprOperation[top], result, NIL);
+                    exprState[top] = EXPR_OPERATOR;
+                }
+                case EXPR_BINARY -> {
+                    exprLeft[top] = builder.node(exprOperation[top], exprLeft[top], result);
+                    exprState[top] = EXPR_OPERATOR;
+                }
+                default -> {
+                    if (tokens.type().isBinary() && tokens.type().getPrecedence() >= exprPrecedence[top]) {
+                        TokenType operation = tokens.type();
+                        getNextToken();
+                        int precedence = operation.getPrecedence();
+                        if (!operation.isRightAssoc()){
+                            precedence++;
+                        }
+                        exprOperation[top] = operation.getNodeType();
+                        exprState[top] = EXPR_BINARY;
+                        pushExpr(precedence);
+                    } else {
+                        result = exprLeft[top];
+                        exprOperation[top] = null;
+                        exprLeft[top] = NIL;
+                        exprTop = top;
+                        if (exprTop == base) {
+                            return result;
+                        }
+                    }
+                }
             }
-            result = Node.make_node(operation.node_type, result, expr(precedence));
         }
-        return result;
     }
-    Node paren_expr() {
+
+    private void pushExpr(int p) {
+        if (exprTop == exprState.length) {
+            int size = exprTop * 2;
+            exprState = Arrays.copyOf(exprState, size);
+            exprPrecedence = Arrays.copyOf(exprPrecedence, size);
+            exprOperation = Arrays.copyOf(exprOperation, size);
+            exprLeft = Arrays.copyOf(exprLeft, size);
+        }
+        exprState[exprTop] = EXPR_OPERAND;
+        exprPrecedence[exprTop] = p;
+        exprTop++;
+    }
+
+    int paren_expr() {
         expect("paren_expr", TokenType.LeftParen);
-        Node node = expr(0);
+        int node = expr(0);
         expect("paren_expr", TokenType.RightParen);
         return node;
     }
     void expect(String msg, TokenType s) {
-        if (this.token.tokentype == s) {
+        if (tokens.type() == s) {
             getNextToken();
             return;
         }
-        error(this.token.line, this.token.pos, msg + ": Expecting '" + s + "', found: '" + this.token.tokentype + "'");
+        error(tokens.line(), tokens.pos(), msg + ": Expecting '" + s + "', found: '" + tokens.type() + "'");
     }
 
-
+    /**
+     * Parses one statement
+     * if, while and blocks push a frame and go on with their inner statement instead of
+     * recursing, the frame builds their node once the inner statement is done
+     *
+     * @return  the statement, null for an empty statement or the end of input
+     */
     Node stmt() {
-        Node s, s2, e = null, v;
-        Node t = null;
-
-        switch (token.tokentype)
-        {
-            case Keyword_if -> {
-                getNextToken();
-                e = paren_expr();
-                s = stmt();
-                s2 = null;
-                if (this.token.tokentype == TokenType.Keyword_else) {
-                    getNextToken();
-                    s2 = stmt();
+        return nodes.take(statement());
+    }
+
+    /**
+     * @return  the handle of the statement, NIL for an empty statement or the end of input
+     */
+    private int statement() {
+        int base = stmtTop;
+        while (true) {
+            int e, v;
+            int t = NIL;
+            boolean done = true;
+            int start = (cache != null) ? cursor.index() : -1;
+            int line = tokens.line(), pos = tokens.pos();
+            int end = (cache != null) ? cache.end(start) : -1;
+
+            try {
+                if (end >= 0) {
+                    // parsed before, its tokens are skipped
+                    t = nodes.add(cache.statement(start));
+                    cursor.seek(end);
+                } else {
+                    switch (tokens.type())
+                    {
+                        case Keyword_if -> {
+                            getNextToken();
+                            pushStmt(STMT_IF, paren_expr(), start, line, pos);
+                            done = false;
+                        }
+                        case Keyword_print -> {
+                            getNextToken();
+                            expect("", TokenType.LeftParen);
+                            while (1==1) {
+                                // every item is a statement of its own once the Optimizer flattens the print
+                                int itemLine = tokens.line(), itemPos = tokens.pos();
+                                if (tokens.type() == TokenType.String) {
+                                    e = builder.node(NodeType.nd_Prts, symbol(NodeType.nd_String), NIL);
+                                    getNextToken();
+
+                                } else {
+                                    e = builder.node(NodeType.nd_Prti, expr(0), NIL);
+                                }
+                                builder.at(e, itemLine, itemPos);
+                                t = builder.node(NodeType.nd_Sequence, t, e);
+                                if (tokens.type() != TokenType.Comma) {
+                                    break;
+                                }
+                                getNextToken();
+                            }
+                            expect("Print", TokenType.RightParen);
+                            expect("Print", TokenType.Semicolon);
+                        }
+                        case Identifier -> {
+                            v = symbol(NodeType.nd_Ident);
+                            getNextToken();
+                            expect("", TokenType.Op_assign);
+                            t = builder.node(NodeType.nd_Assign, v, expr(0));
+                            expect("", TokenType.Semicolon);
+                        }
+                        case Keyword_putc -> {
+                            getNextToken();
+                            t = builder.node(NodeType.nd_Prtc, paren_expr(), NIL);
+                            expect("", TokenType.Semicolon);
+                        }
+                        case LeftBrace -> {
+                            getNextToken();
+                            if (tokens.type() != TokenType.End_of_input && tokens.type() != TokenType.RightBrace) {
+                                pushStmt(STMT_BLOCK, NIL, start, line, pos);
+                                done = false;
+                            } else {
+                                expect("LBrace", TokenType.RightBrace);
+                            }
+                        }
+                        case Keyword_while -> {
+                            getNextToken();
+                            pushStmt(STMT_WHILE, paren_expr(), start, line, pos);
+                            done = false;
+                        }
+                        case Semicolon -> {
+                            getNextToken();
+                        }
+                        case End_of_input -> {
+                        }
+                        default -> {
+                            error(tokens.line(), tokens.pos(), "error in stmt" + tokens.type());
+                        }
+                    }
+                    if (done && t != NIL) {
+                        builder.at(t, line, pos);
+                        parsed(start, t);
+                    }
                 }
-                t = Node.make_node(NodeType.nd_If, e, Node.make_node(NodeType.nd_If, s, s2));
+            } catch (CompileException error) {
+                if (diagnostics == null) throw error;
+                recover(error, base);
+                t = NIL;
+                done = true;
             }
-            case Keyword_print -> {
-                getNextToken();
-                expect("", TokenType.LeftParen);
-                while (1==1) {
-                    if (this.token.tokentype == TokenType.String) {
-                        e = Node.make_node(NodeType.nd_Prts, Node.make_leaf(NodeType.nd_String, this.token.value));
-                        getNextToken();
 
-                    } else {
-                        e = Node.make_node(NodeType.nd_Prti, expr(0), null);
+            // hand the finished statement to the frames waiting for it
+            while (done && stmtTop > base) {
+                int top = stmtTop - 1;
+                switch (stmtState[top]) {
+                    case STMT_IF -> {
+                        if (tokens.type() == TokenType.Keyword_else) {
+                            getNextToken();
+                            stmtState[top] = STMT_ELSE;
+                            stmtSecond[top] = t;
+                            done = false;
+                        } else {
+                            t = builder.node(NodeType.nd_If, stmtFirst[top], builder.node(NodeType.nd_If, t, NIL));
+                            finished(top, t);
+                            popStmt();
+                        }
                     }
-                    t = Node.make_node(NodeType.nd_Sequence, t, e);
-                    if (this.token.tokentype != TokenType.Comma) {
-                        break;
+                    case STMT_ELSE -> {
+                        t = builder.node(NodeType.nd_If, stmtFirst[top], builder.node(NodeType.nd_If, stmtSecond[top], t));
+                        finished(top, t);
+                        popStmt();
+                    }
+                    case STMT_WHILE -> {
+                        t = builder.node(NodeType.nd_While, stmtFirst[top], t);
+                        finished(top, t);
+                        popStmt();
+                    }
+                    default -> {
+                        stmtFirst[top] = builder.node(NodeType.nd_Sequence, stmtFirst[top], t);
+                        if (tokens.type() != TokenType.End_of_input && tokens.type() != TokenType.RightBrace) {
+                            done = false;
+                        } else {
+                            if (tokens.type() == TokenType.RightBrace || diagnostics == null) {
+                                expect("LBrace", TokenType.RightBrace);
+                            } else {
+                                // the input ended inside the block, it is closed there
+                                diagnostics.error(tokens.line(), tokens.pos(), "LBrace: Expecting '" + TokenType.RightBrace + "', found: '" + tokens.type() + "'");
+                            }
+                            t = stmtFirst[top];
+                            finished(top, t);
+                            popStmt();
+                        }
                     }
-                    getNextToken();
                 }
-                expect("Print", TokenType.RightParen);
-            }
-            case Identifier -> {
-                v = Node.make_leaf(NodeType.nd_Ident, this.token.value);
-                getNextToken();
-                expect("", TokenType.Op_assign);
-                t = Node.make_node(NodeType.nd_Assign, v, expr(0));
-                expect("", TokenType.Semicolon);
             }
-            case Keyword_putc -> {
-                getNextToken();
-                t = Node.make_node(NodeType.nd_Prtc, paren_expr());
-                expect("", TokenType.Semicolon);
+            if (done) {
+                return t;
             }
-            case LeftBrace -> {
-                getNextToken();
-                while (this.token.tokentype != TokenType.End_of_input && this.token.tokentype != TokenType.RightBrace ) {
-                    t = Node.make_node(NodeType.nd_Sequence, t, stmt());
+        }
+    }
+
+    /**
+     * Panic mode: reports the error of a statement and skips to where the next one can start
+     * The expression frames of the statement are dropped. Tokens are skipped up to and with the
+     * next ; or up to a } that closes a block still open in this statement, which that block
+     * then takes. Braces opened while skipping are skipped with their contents, and a } that
+     * closes nothing is skipped as well
+     */
+    private void recover(CompileException error, int base) {
+        diagnostics.error(error);
+        while (exprTop > 0) {
+            exprTop--;
+            exprOperation[exprTop] = null;
+            exprLeft[exprTop] = NIL;
+        }
+        int depth = 0;
+        while (tokens.type() != TokenType.End_of_input) {
+            switch (tokens.type()) {
+                case LeftBrace -> depth++;
+                case RightBrace -> {
+                    if (depth == 0) {
+                        boolean block = false;
+                        for (int i = base; i < stmtTop; i++) block |= stmtState[i] == STMT_BLOCK;
+                        if (!block) getNextToken();
+                        return;
+                    }
+                    if (--depth == 0) {
+                        getNextToken();
+                        return;
+                    }
+                }
+                case Semicolon -> {
+                    if (depth == 0) {
+                        getNextToken();
+                        return;
+                    }
+                }
+                default -> {
                 }
-                expect("LBrace", TokenType.RightBrace);
-            }
-            case Keyword_while -> {
-                getNextToken();
-                t = Node.make_node(NodeType.nd_While, paren_expr(), stmt());
-            }
-            case Semicolon -> {
-                getNextToken();
-            }
-            case End_of_input -> {
-                return null;
-            }
-            default -> {
-                error(this.token.line, this.token.pos, "error in stmt" + this.token.tokentype);
             }
+            getNextToken();
         }
-        return t;
     }
+
+    private void pushStmt(int state, int first, int start, int line, int pos) {
+        if (stmtTop == stmtState.length) {
+            int size = stmtTop * 2;
+            stmtState = Arrays.copyOf(stmtState, size);
+            stmtFirst = Arrays.copyOf(stmtFirst, size);
+            stmtSecond = Arrays.copyOf(stmtSecond, size);
+            stmtStart = Arrays.copyOf(stmtStart, size);
+            stmtLine = Arrays.copyOf(stmtLine, size);
+            stmtPos = Arrays.copyOf(stmtPos, size);
+        }
+        stmtState[stmtTop] = state;
+        stmtFirst[stmtTop] = first;
+        stmtStart[stmtTop] = start;
+        stmtLine[stmtTop] = line;
+        stmtPos[stmtTop] = pos;
+        stmtTop++;
+    }
+
+    /**
+     * Gives the statement a frame just built the place of its first token and reports it
+     */
+    private void finished(int top, int t) {
+        builder.at(t, stmtLine[top], stmtPos[top]);
+        parsed(stmtStart[top], t);
+    }
+
+    /**
+     * Hands a statement that was just parsed to the cache, the cursor is on the token after it
+     */
+    private void parsed(int start, int t) {
+        if (cache != null) cache.parsed(start, cursor.index(), nodes.get(t));
+    }
+
+    private void popStmt() {
+        stmtTop--;
+        stmtFirst[stmtTop] = NIL;
+        stmtSecond[stmtTop] = NIL;
+    }
+
     Node parse() {
-        Node t = null;
+        nodes.clear();
+        return nodes.take(program());
+    }
+
+    /**
+     * @return  how many Node objects the last parse() made, statements taken from a cache and
+     *          trees built into an Ast are not counted
+     */
+    int nodes() {
+        return nodes.made;
+    }
+
+    /**
+     * Parses the program into an arena instead of Node objects, nothing is allocated per node
+     * once the arena has grown to the size of the tree
+     *
+     * @param ast   the arena the nodes are added to, it is not reset
+     * @return  the root of the tree in the arena, NIL for an empty program
+     */
+    int parse(Ast ast) {
+        if (cache != null) throw new IllegalStateException("an incremental parser builds Node trees");
+        builder = ast;
+        try {
+            return program();
+        } finally {
+            builder = nodes;
+        }
+    }
+
+    private int program() {
+        int t = NIL;
         getNextToken();
-        while (this.token.tokentype != TokenType.End_of_input) {
-            t = Node.make_node(NodeType.nd_Sequence, t, stmt());
+        while (tokens.type() != TokenType.End_of_input) {
+            t = builder.node(NodeType.nd_Sequence, t, statement());
         }
         return t;
     }
     String printAST(Node t, StringBuilder sb) {
-        int i = 0;
-        if (t == null) {
-            sb.append(";");
-            sb.append("\n");
-            System.out.println("\t;");
-        } else {
-            sb.append(t.nt);
-            System.out.printf("\t%-14s", t.nt);
+        return printAST(t, sb, true);
+    }
+
+    /**
+     * Builds the .par text of a tree
+     *
+     * @param t the tree
+     * @param sb    where the text is appended
+     * @param echo  whether the tree is also printed to the console, in one write at the end
+     * @return  the text of sb
+     */
+    String printAST(Node t, StringBuilder sb, boolean echo) {
+        StringBuilder console = echo ? new StringBuilder() : null;
+        try {
+            appendAST(t, sb, console);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (echo) System.out.print(console);
+        return sb.toString();
+    }
+
+    /**
+     * Streams the .par text of a tree in one pass, nothing is echoed
+     *
+     * @param t the tree
+     * @param out   where the text is appended
+     * @throws IOException  if out fails
+     */
+    static void writeAST(Node t, Appendable out) throws IOException {
+        appendAST(t, out, null);
+    }
+
+    /**
+     * Streams the .par text of a tree through a 64 KB buffer, the writer is flushed but left open
+     *
+     * @param t the tree
+     * @param out   where the text is written
+     * @throws IOException  if out fails
+     */
+    static void writeAST(Node t, Writer out) throws IOException {
+        Writer buffered = (out instanceof BufferedWriter) ? out : new BufferedWriter(out, 1 << 16);
+        appendAST(t, buffered, null);
+        buffered.flush();
+    }
+
+    private static final String PAD = " ".repeat(14);
+
+    /**
+     * Writes the tree in pre-order, the nodes still to be written are kept on a stack
+     * with the right child pushed before the left so the left one comes out first
+     * The echo, when there is one, is the console form: a tab, the node name padded to 14 and
+     * for a leaf a tab and its value
+     */
+    private static void appendAST(Node root, Appendable out, Appendable echo) throws IOException {
+        Node[] stack = new Node[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node t = stack[--top];
+            stack[top] = null;
+            if (t == null) {
+                out.append(";\n");
+                if (echo != null) echo.append("\t;\n");
+                continue;
+            }
+            String name = t.nt.toString();
+            out.append(name);
+            if (echo != null) echo.append('\t').append(name).append(PAD, Math.min(name.length(), 14), 14);
             if (t.nt == NodeType.nd_Ident || t.nt == NodeType.nd_Integer || t.nt == NodeType.nd_String) {
-                sb.append(" " + t.value);
-                sb.append("\n");
-                System.out.println("\t " + t.value);
+                boolean quoted = t.nt == NodeType.nd_String;
+                out.append(' ');
+                if (quoted) out.append('"');
+                out.append(t.value);
+                if (quoted) out.append('"');
+                out.append(" \n");
+                if (echo != null) {
+                    echo.append("\t ");
+                    if (quoted) echo.append('"');
+                    echo.append(t.value);
+                    if (quoted) echo.append('"');
+                    echo.append(" \n");
+                }
             } else {
-                sb.append("\n");
-                System.out.println();
-                printAST(t.left, sb);
-                printAST(t.right, sb);
+                out.append('\n');
+                if (echo != null) echo.append('\n');
+                if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = t.right;
+                stack[top++] = t.left;
             }
+        }
+    }
 
+    /**
+     * Writes a tree in the .parb binary format
+     * Identifier, integer and string values are stored once each in the string table
+     *
+     * @param root  the tree
+     * @param out   where to write
+     * @throws IOException  if writing fails
+     */
+    static void writeBinaryAST(Node root, OutputStream out) throws IOException {
+        Map<String, Integer> index = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int records = 0;
+        int recordBytes = 0;
+        Node[] stack = new Node[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node t = stack[--top];
+            records++;
+            recordBytes++;
+            if (t == null) continue;
+            if (isLeaf(t.nt)) {
+                recordBytes += 4;
+                if (!index.containsKey(t.value)) {
+                    index.put(t.value, strings.size());
+                    strings.add(t.value.getBytes(StandardCharsets.UTF_8));
+                }
+            } else {
+                if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = t.right;
+                stack[top++] = t.left;
+            }
+        }
+
+        int tableOffset = PARB_HEADER + recordBytes;
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        data.writeInt(PARB_MAGIC);
+        data.writeShort(PARB_VERSION);
+        data.writeShort(0);
+        data.writeInt(records);
+        data.writeInt(strings.size());
+        data.writeInt(tableOffset);
+        top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node t = stack[--top];
+            stack[top] = null;
+            if (t == null) {
+                data.writeByte(NodeType.nd_None.ordinal());
+                continue;
+            }
+            data.writeByte(t.nt.ordinal());
+            if (isLeaf(t.nt)) {
+                data.writeInt(index.get(t.value));
+            } else {
+                stack[top++] = t.right;
+                stack[top++] = t.left;
+            }
+        }
+        int offset = tableOffset + strings.size() * 4;
+        for (byte[] bytes : strings) {
+            data.writeInt(offset);
+            offset += 4 + bytes.length;
+        }
+        for (byte[] bytes : strings) {
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+        data.flush();
+    }
+
+    private static boolean isLeaf(NodeType type) {
+        return type == NodeType.nd_Ident || type == NodeType.nd_Integer || type == NodeType.nd_String;
+    }
+
+    /**
+     * Opens a .parb file written by writeBinaryAST
+     * The file is memory mapped and the tree is rebuilt straight from the records, nothing is
+     * lexed or parsed
+     *
+     * @param path  the .parb file
+     * @param symbols   the table the Identifier and String leaves are interned into
+     * @return  the tree
+     * @throws IOException  if the file can not be mapped or is not a supported .parb file
+     */
+    static Node loadBinaryAST(Path path, SymbolTable symbols) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readBinaryAST(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), symbols);
+        }
+    }
+
+    /**
+     * @param buffer    the .parb bytes, read in place
+     * @param symbols   the table the Identifier and String leaves are interned into
+     * @return  the tree
+     * @throws IOException  if the bytes are not a supported .parb file
+     */
+    static Node readBinaryAST(ByteBuffer buffer, SymbolTable symbols) throws IOException {
+        NodeBuilder nodes = new NodeBuilder();
+        return nodes.take(readBinaryAST(buffer, nodes, symbols));
+    }
+
+    /**
+     * Rebuilds the tree of .parb bytes in an arena, no Node objects are made
+     *
+     * @param buffer    the .parb bytes, read in place
+     * @param ast   the arena the nodes are added to, it is not reset
+     * @return  the root of the tree in the arena, NIL for an empty program
+     * @throws IOException  if the bytes are not a supported .parb file
+     */
+    static int readBinaryAST(ByteBuffer buffer, Ast ast) throws IOException {
+        return readBinaryAST(buffer, ast, null);
+    }
+
+    /**
+     * Decodes the pre-order records, an inner node waits on a stack for its children
+     * Every string of the table is decoded and interned once
+     */
+    private static int readBinaryAST(ByteBuffer buffer, Builder builder, SymbolTable symbols) throws IOException {
+        if (buffer.limit() < PARB_HEADER || buffer.getInt(0) != PARB_MAGIC) throw new IOException("Not a .parb file");
+        if (buffer.getShort(4) != PARB_VERSION) throw new IOException("Unsupported .parb version " + buffer.getShort(4));
+        NodeType[] types = NodeType.values();
+        int records = buffer.getInt(8);
+        int strings = buffer.getInt(12);
+        int tableOffset = buffer.getInt(16);
+        // every record takes at least a byte and every string an offset
+        if (records < 0 || records > buffer.limit() - PARB_HEADER || strings < 0 || tableOffset < PARB_HEADER
+                || (long) tableOffset + strings * 4L > buffer.limit()) throw new IOException("Corrupt .parb file, bad header");
+        String[] decoded = new String[strings];
+        // the symbol ID + 1 of each string, 0 until an Identifier or String leaf uses it
+        int[] ids = new int[strings];
+        NodeType[] waiting = new NodeType[64];
+        int[] left = new int[64];
+        boolean[] second = new boolean[64];
+        int top = 0;
+        int root = NIL;
+        int position = PARB_HEADER;
+        try {
+            for (int record = 0; record < records; record++) {
+                if (record > 0 && top == 0) throw new IOException("Corrupt .parb file, records after the end of the tree");
+                int ordinal = buffer.get(position++) & 0xff;
+                if (ordinal >= types.length) throw new IOException("Corrupt .parb file, unknown node type " + ordinal);
+                NodeType type = types[ordinal];
+                int done;
+                if (type == NodeType.nd_None) {
+                    done = NIL;
+                } else if (isLeaf(type)) {
+                    int id = buffer.getInt(position);
+                    position += 4;
+                    if (decoded[id] == null) {
+                        int offset = buffer.getInt(tableOffset + id * 4);
+                        int length = buffer.getInt(offset);
+                        if (length < 0 || length > buffer.limit() - offset - 4) throw new IOException("Corrupt .parb file, a string is out of bounds");
+                        byte[] bytes = new byte[length];
+                        buffer.get(offset + 4, bytes);
+                        decoded[id] = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    int symbol = -1;
+                    if (symbols != null && type != NodeType.nd_Integer) {
+                        if (ids[id] == 0) ids[id] = symbols.intern(decoded[id]) + 1;
+                        symbol = ids[id] - 1;
+                    }
+                    done = builder.leaf(type, decoded[id], symbol);
+                } else {
+                    if (top == waiting.length) {
+                        waiting = Arrays.copyOf(waiting, top * 2);
+                        left = Arrays.copyOf(left, top * 2);
+                        second = Arrays.copyOf(second, top * 2);
+                    }
+                    waiting[top] = type;
+                    second[top] = false;
+                    top++;
+                    continue;
+                }
+                // hand the finished subtree to the nodes waiting for it
+                while (true) {
+                    if (top == 0) {
+                        root = done;
+                        break;
+                    }
+                    if (!second[top - 1]) {
+                        left[top - 1] = done;
+                        second[top - 1] = true;
+                        break;
+                    }
+                    top--;
+                    done = builder.node(waiting[top], left[top], done);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt .parb file, an offset is out of bounds");
+        }
+        if (records == 0 || top > 0) throw new IOException("Corrupt .parb file, the tree ends early");
+        return root;
+    }
+
+    /**
+     * Writes a tree to a .parb file
+     *
+     * @param root  the tree
+     * @param fileName  the name of the file to write to
+     */
+    static void outputToBinaryFile(Node root, String fileName) {
+        try (OutputStream out = new FileOutputStream("src/main/output/" + fileName + ".parb")) {
+            writeBinaryAST(root, out);
+            System.out.printf("Successfully wrote file : %s.parb%n", fileName);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        return sb.toString();
     }
 
     static void outputToFile(String result, String filename) {
@@ -308,60 +1278,44 @@ class Parser {
         }
     }
 
+    /**
+     * Usage: Parser [--echo] [--parb]
+     * Parses every .lex file in src/test/resources, the trees are only printed with --echo and
+     * written to src/main/output as .parb files with --parb
+     */
     public static void main(String[] args) {
+        boolean echo = Arrays.asList(args).contains("--echo");
+        boolean binary = Arrays.asList(args).contains("--parb");
         try {
-            String value, token;
             String result;
             StringBuilder sb;
-            int line, pos;
-            Token t;
-            boolean found;
-            List<Token> list = new ArrayList<>();
-            Map<String, TokenType> str_to_tokens = new HashMap<>();
-
-            for (TokenType tokenType : TokenType.values()) str_to_tokens.put(tokenType.toString(), tokenType);
 
             File[] files = new File("src/test/resources").listFiles(file -> file.toString().endsWith(".lex"));
-            Scanner s;
-            String source;
 
+            // every file is parsed, the errors of each are reported as they are found
+            boolean failed = false;
             for(File file : files)
             {
                 sb = new StringBuilder();
-                s = new Scanner(file);
-                source = "";
-                result = "";
-                list.clear();
                 System.out.println(String.format("\nParsing File : %s", file.getName()));
-
-                while (s.hasNext()) {
-                    String str = s.nextLine();
-                    StringTokenizer st = new StringTokenizer(str);
-                    line = Integer.parseInt(st.nextToken());
-                    pos = Integer.parseInt(st.nextToken());
-                    token = st.nextToken();
-                    value = "";
-                    while (st.hasMoreTokens()) {
-                        value += st.nextToken() + " ";
-                    }
-                    found = false;
-                    if (str_to_tokens.containsKey(token)) {
-                        found = true;
-                        list.add(new Token(str_to_tokens.get(token), value, line, pos));
-                    }
-                    if (found == false) {
-                        throw new Exception("Token not found: '" + token + "'");
-                    }
+                Diagnostics diagnostics = new Diagnostics();
+                try {
+                    Parser p = new Parser(new ListCursor(readTokens(new Scanner(file))), diagnostics);
+                    Node tree = p.parse();
+                    result = p.printAST(tree, sb, echo);
+                    if (binary && !diagnostics.hasErrors()) outputToBinaryFile(tree, file.getName().substring(0, file.getName().indexOf('.')));
+                    //outputToFile(result, file.getName().substring(0, file.getName().indexOf('.')));
+                } catch (CompileException e) {
+                    diagnostics.error(e);
                 }
-                Parser p = new Parser(list);
-                result = p.printAST(p.parse(), sb);
-                //outputToFile(result, file.getName().substring(0, file.getName().indexOf('.')));
+                diagnostics.print(file.getName(), System.out);
+                failed |= diagnostics.hasErrors();
             }
+            if (failed) System.exit(1);
 
-        } catch (FileNotFoundException e) {
-            error(-1, -1, "Exception: " + e.getMessage());
         } catch (Exception e) {
-            error(-1, -1, "Exception: " + e.getMessage());
+            System.out.println("Exception: " + e.getMessage());
+            System.exit(1);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Profiler
+ *
+ * Counts how often every statement of a program runs and how long it takes, when the program
+ * is run by an Interpreter made with a profiler. Each statement is a site; the statements
+ * inside a while, an if or a block are the children of its site, so the sites form the same
+ * tree as the statements. The time of a site includes its children, its self time does not.
+ *
+ * A site is known by its node type and where the statement starts, from Parser.Node line and
+ * pos. From the sites come the totals per source line, the while loops that took longest and
+ * a collapsed stack per site, the input format of flame graph tools:
+ *
+ *     Sequence;While@4:1;If@6:5;Prti@7:15 1234567
+ *
+ * Without a profiler the Interpreter resolves the tree as before and pays nothing.
+ */
+final class Profiler {
+
+    /**
+     * One statement of the program and what it cost
+     */
+    static final class Site {
+        final Parser.Node node;
+        final Site parent;
+        final int depth;
+        long count;
+        long nanos;
+        long childNanos;
+        // for a while loop: how often its body ran
+        long iterations;
+
+        Site(Parser.Node node, Site parent) {
+            this.node = node;
+            this.parent = parent;
+            this.depth = (parent == null) ? 0 : parent.depth + 1;
+        }
+
+        /**
+         * @return  the time spent in the statement itself, its children left out
+         */
+        long self() {
+            return nanos - childNanos;
+        }
+
+        /**
+         * @return  the node type, and the line and position when the tree has them
+         */
+        String label() {
+            return (node.line > 0) ? String.format("%s@%d:%d", node.nt, node.line, node.pos) : node.nt.toString();
+        }
+
+        void exit(long elapsed) {
+            count++;
+            nanos += elapsed;
+            if (parent != null) parent.childNanos += elapsed;
+        }
+    }
+
+    /**
+     * What the statements that start on one line cost together
+     */
+    static final class Line {
+        final int line;
+        long count;
+        long self;
+
+        Line(int line) {
+            this.line = line;
+        }
+    }
+
+    private final List<Site> sites = new ArrayList<>();
+
+    /**
+     * Adds the site of a statement, called by the Interpreter while it resolves the tree
+     *
+     * @param node  the statement
+     * @param parent    the site of the statement it is in, null for the whole program
+     * @return  the site
+     */
+    Site site(Parser.Node node, Site parent) {
+        Site site = new Site(node, parent);
+        sites.add(site);
+        return site;
+    }
+
+    /**
+     * @return  every site in the order of the program
+     */
+    List<Site> sites() {
+        return sites;
+    }
+
+    /**
+     * @return  the sites that ran, the most self time first
+     */
+    List<Site> hottest() {
+        List<Site> hottest = new ArrayList<>();
+        for (Site site : sites) if (site.count > 0) hottest.add(site);
+        hottest.sort(Comparator.comparingLong(Site::self).reversed());
+        return hottest;
+    }
+
+    /**
+     * @return  the while loops that ran, the most time with their bodies first
+     */
+    List<Site> loops() {
+        List<Site> loops = new ArrayList<>();
+        for (Site site : sites) if (site.count > 0 && site.node.nt == Parser.NodeType.nd_While) loops.add(site);
+        loops.sort(Comparator.comparingLong((Site site) -> site.nanos).reversed());
+        return loops;
+    }
+
+    /**
+     * @return  the count and self time of the statements on each line, by line; a tree without
+     *          lines has them all on line 0
+     */
+    List<Line> lines() {
+        Map<Integer, Line> lines = new TreeMap<>();
+        for (Site site : sites) {
+            if (site.count == 0) continue;
+            Line line = lines.computeIfAbsent(site.node.line, Line::new);
+            line.count += site.count;
+            line.self += site.self();
+        }
+        return new ArrayList<>(lines.values());
+    }
+
+    /**
+     * Writes one line per site that ran: the labels from the program down to the site joined by
+     * ; and its self time in nanoseconds, as flame graph tools read them
+     *
+     * @param out   where to write
+     * @throws IOException  if out fails
+     */
+    void writeCollapsed(Appendable out) throws IOException {
+        String[] stack = new String[16];
+        for (Site site : sites) {
+            if (site.count == 0) continue;
+            // the sites are in pre-order, so the labels of the parents are already in place
+            if (site.depth >= stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[site.depth] = site.label();
+            for (int i = 0; i <= site.depth; i++) {
+                if (i > 0) out.append(';');
+                out.append(stack[i]);
+            }
+            out.append(' ').append(Long.toString(Math.max(0, site.self()))).append('\n');
+        }
+    }
+
+    /**
+     * Prints the hottest statements, the time per line and the hottest loops
+     *
+     * @param top   how many statements and loops to list
+     * @param out   where to print
+     */
+    void report(int top, PrintStream out) {
+        List<Site> hottest = hottest();
+        out.printf("%-24s %12s %12s %12s%n", "statement", "count", "self ms", "total ms");
+        for (Site site : hottest.subList(0, Math.min(top, hottest.size()))) {
+            out.printf("%-24s %12d %12.3f %12.3f%n", site.label(), site.count, site.self() / 1e6, site.nanos / 1e6);
+        }
+        out.printf("%n%-8s %12s %12s%n", "line", "count", "self ms");
+        for (Line line : lines()) {
+            out.printf("%-8d %12d %12.3f%n", line.line, line.count, line.self / 1e6);
+        }
+        List<Site> loops = loops();
+        if (loops.isEmpty()) return;
+        out.printf("%n%-24s %12s %12s %12s%n", "loop", "runs", "iterations", "total ms");
+        for (Site site : loops.subList(0, Math.min(top, loops.size()))) {
+            out.printf("%-24s %12d %12d %12.3f%n", site.label(), site.count, site.iterations, site.nanos / 1e6);
+        }
+    }
+}
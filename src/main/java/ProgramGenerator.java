@@ -0,0 +1,267 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Program Generator
+ *
+ * Writes random but valid programs for the language, for scale and stress testing. The same
+ * options and seed always give the same program, so large inputs can be recreated on demand
+ * instead of being checked in. Programs are streamed to a Writer one statement at a time.
+ *
+ * Every program also runs to completion: loops count a counter of their own up to a small
+ * bound, and / and % only ever divide by a positive literal.
+ */
+final class ProgramGenerator {
+
+    /**
+     * What to generate
+     */
+    static final class Options {
+        long seed = 1;
+        long size = 1 << 20;
+        int depth = 4;
+        int expressionDepth = 4;
+        int identifiers = 32;
+        double stringDensity = 0.3;
+        double identifierDensity = 0.5;
+
+        /** seed of the random generator */
+        Options seed(long seed) { this.seed = seed; return this; }
+        /** approximate size of the program in characters */
+        Options size(long size) { this.size = size; return this; }
+        /** how deep if, while and blocks may nest */
+        Options depth(int depth) { this.depth = depth; return this; }
+        /** how deep expressions may nest */
+        Options expressionDepth(int expressionDepth) { this.expressionDepth = expressionDepth; return this; }
+        /** how many different variables are used */
+        Options identifiers(int identifiers) { this.identifiers = Math.max(1, identifiers); return this; }
+        /** chance that a print argument is a string */
+        Options stringDensity(double stringDensity) { this.stringDensity = stringDensity; return this; }
+        /** chance that an expression operand is a variable instead of a literal */
+        Options identifierDensity(double identifierDensity) { this.identifierDensity = identifierDensity; return this; }
+    }
+
+    private static final String[] BINARY = {"*", "/", "%", "+", "-", "<", "<=", ">", ">=", "==", "!=", "&&", "||"};
+    private static final String[] UNARY = {"-", "+", "!"};
+    private static final String[] WORDS = {"alpha", "beta", "gamma", "delta", "value", "count", "total", "is", "prime", "fizz", "buzz", "done"};
+
+    private final Options options;
+    private final SplittableRandom random;
+    private int loops;
+
+    ProgramGenerator(Options options) {
+        this.options = options;
+        this.random = new SplittableRandom(options.seed);
+    }
+
+    /**
+     * Generates a program of the given size with the default options
+     *
+     * @param seed  seed of the random generator
+     * @param size  approximate size in characters
+     * @return  the program
+     */
+    static String generate(long seed, long size) {
+        StringBuilder sb = new StringBuilder((int) Math.min(size + 1024, Integer.MAX_VALUE - 16));
+        try {
+            new ProgramGenerator(new Options().seed(seed).size(size)).generate(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes top level statements until the program reaches the requested size
+     *
+     * @param out   where the program goes
+     * @return  how many characters were written
+     * @throws IOException  if writing fails
+     */
+    long generate(Appendable out) throws IOException {
+        long written = 0;
+        StringBuilder sb = new StringBuilder(4096);
+        for (int i = 0; i < options.identifiers; i++) {
+            sb.append('v').append(i).append(" = ").append(random.nextInt(100)).append(";\n");
+        }
+        while (written + sb.length() < options.size) {
+            if (random.nextInt(16) == 0) sb.append("/* generated ").append(random.nextInt(1000)).append(" */\n");
+            stmt(sb, 0, 0);
+            if (sb.length() >= 4096) {
+                out.append(sb);
+                written += sb.length();
+                sb.setLength(0);
+            }
+        }
+        out.append(sb);
+        return written + sb.length();
+    }
+
+    private void stmt(StringBuilder sb, int depth, int indent) {
+        indent(sb, indent);
+        int kind = (depth >= options.depth) ? random.nextInt(3) : random.nextInt(6);
+        switch (kind) {
+            case 0 -> {
+                sb.append(variable()).append(" = ");
+                expr(sb, 0);
+                sb.append(";\n");
+            }
+            case 1 -> {
+                sb.append("print(");
+                int args = 1 + random.nextInt(3);
+                for (int i = 0; i < args; i++) {
+                    if (i > 0) sb.append(", ");
+                    if (random.nextDouble() < options.stringDensity) string(sb);
+                    else expr(sb, 0);
+                }
+                sb.append(");\n");
+            }
+            case 2 -> {
+                sb.append("putc(");
+                if (random.nextBoolean()) sb.append('\'').append((char) ('a' + random.nextInt(26))).append('\'');
+                else sb.append(32 + random.nextInt(95));
+                sb.append(");\n");
+            }
+            case 3 -> {
+                sb.append("if (");
+                expr(sb, 0);
+                sb.append(")\n");
+                stmt(sb, depth + 1, indent + 1);
+                if (random.nextBoolean()) {
+                    indent(sb, indent);
+                    sb.append("else\n");
+                    stmt(sb, depth + 1, indent + 1);
+                }
+            }
+            case 4 -> {
+                String counter = "loop" + (loops++);
+                sb.append("{\n");
+                indent(sb, indent + 1);
+                sb.append(counter).append(" = 0;\n");
+                indent(sb, indent + 1);
+                sb.append("while (").append(counter).append(" < ").append(1 + random.nextInt(4)).append(") {\n");
+                block(sb, depth + 1, indent + 2);
+                indent(sb, indent + 2);
+                sb.append(counter).append(" = ").append(counter).append(" + 1;\n");
+                indent(sb, indent + 1);
+                sb.append("}\n");
+                indent(sb, indent);
+                sb.append("}\n");
+            }
+            default -> {
+                sb.append("{\n");
+                block(sb, depth + 1, indent + 1);
+                indent(sb, indent);
+                sb.append("}\n");
+            }
+        }
+    }
+
+    private void block(StringBuilder sb, int depth, int indent) {
+        int statements = 1 + random.nextInt(4);
+        for (int i = 0; i < statements; i++) stmt(sb, depth, indent);
+    }
+
+    private void expr(StringBuilder sb, int depth) {
+        int kind = (depth >= options.expressionDepth) ? 0 : random.nextInt(5);
+        switch (kind) {
+            case 0, 1 -> operand(sb);
+            case 2 -> {
+                sb.append(UNARY[random.nextInt(UNARY.length)]);
+                operand(sb);
+            }
+            case 3 -> {
+                sb.append('(');
+                expr(sb, depth + 1);
+                sb.append(')');
+            }
+            default -> {
+                String op = BINARY[random.nextInt(BINARY.length)];
+                expr(sb, depth + 1);
+                sb.append(' ').append(op).append(' ');
+                if (op.equals("/") || op.equals("%")) sb.append(1 + random.nextInt(9));
+                else expr(sb, depth + 1);
+            }
+        }
+    }
+
+    private void operand(StringBuilder sb) {
+        if (random.nextDouble() < options.identifierDensity) sb.append(variable());
+        else sb.append(random.nextInt(1000));
+    }
+
+    private String variable() {
+        return "v" + random.nextInt(options.identifiers);
+    }
+
+    private void string(StringBuilder sb) {
+        sb.append('"');
+        int words = 1 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        if (random.nextBoolean()) sb.append("\\n");
+        sb.append('"');
+    }
+
+    private static void indent(StringBuilder sb, int indent) {
+        for (int i = 0; i < indent; i++) sb.append("    ");
+    }
+
+    /**
+     * Parses sizes such as 4096, 64KB, 10MB or 1GB
+     *
+     * @param size  the size text
+     * @return  the size in characters
+     */
+    static long parseSize(String size) {
+        String text = size.trim().toUpperCase();
+        long unit = 1;
+        if (text.endsWith("KB")) unit = 1L << 10;
+        else if (text.endsWith("MB")) unit = 1L << 20;
+        else if (text.endsWith("GB")) unit = 1L << 30;
+        if (unit > 1) text = text.substring(0, text.length() - 2);
+        return Long.parseLong(text.trim()) * unit;
+    }
+
+    /**
+     * Usage: ProgramGenerator [--seed n] [--size 10MB] [--depth n] [--expr-depth n]
+     *        [--identifiers n] [--strings 0.3] [--idents 0.5] --out file
+     */
+    public static void main(String[] args) {
+        Options options = new Options();
+        Path output = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seed" -> options.seed(Long.parseLong(args[++i]));
+                case "--size" -> options.size(parseSize(args[++i]));
+                case "--depth" -> options.depth(Integer.parseInt(args[++i]));
+                case "--expr-depth" -> options.expressionDepth(Integer.parseInt(args[++i]));
+                case "--identifiers" -> options.identifiers(Integer.parseInt(args[++i]));
+                case "--strings" -> options.stringDensity(Double.parseDouble(args[++i]));
+                case "--idents" -> options.identifierDensity(Double.parseDouble(args[++i]));
+                case "--out" -> output = Path.of(args[++i]);
+                default -> {
+                    System.out.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+        if (output == null) {
+            System.out.println("Usage: ProgramGenerator [--seed n] [--size 10MB] [--depth n] [--expr-depth n] [--identifiers n] [--strings 0.3] [--idents 0.5] --out file");
+            System.exit(1);
+        }
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(output), 1 << 16)) {
+            long written = new ProgramGenerator(options).generate(out);
+            System.out.printf("Successfully wrote %d characters to %s%n", written, output);
+        } catch (IOException e) {
+            System.out.println("Exception: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * Symbol Table
+ *
+ * Interns the identifiers and string literals of a program. Every distinct spelling is stored
+ * once as a String and gets a dense int ID, starting at 0 in the order they are first seen.
+ * Looking up a spelling reads it in place from the source, a String is only made the first time
+ * it is seen, so lexing a name that is already known allocates nothing.
+ *
+ * A table is shared by the Lexer, the tokens and the Parser of one compilation, so IDs can be
+ * compared and used as array indices from the tokens to the tree. It is not thread safe.
+ */
+final class SymbolTable {
+    private String[] names;
+    private int[] hashes;
+    // open addressing, each entry is an ID + 1, 0 when free
+    private int[] table;
+    private int size;
+
+    SymbolTable() {
+        this.names = new String[64];
+        this.hashes = new int[64];
+        this.table = new int[128];
+        this.size = 0;
+    }
+
+    /**
+     * @param name  the spelling
+     * @return  its ID, a new one if the spelling was not seen before
+     */
+    int intern(CharSequence name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Interns a slice of the source without copying it when the spelling is already known
+     *
+     * @param source    the text the spelling is part of
+     * @param start offset of its first character
+     * @param end   offset just past it
+     * @return  its ID, a new one if the spelling was not seen before
+     */
+    int intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + source.charAt(i);
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+            if (hashes[entry - 1] == hash && matches(names[entry - 1], source, start, end)) return entry - 1;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int id = size++;
+        names[id] = source.subSequence(start, end).toString();
+        hashes[id] = hash;
+        table[slot] = id + 1;
+        if (size * 2 > table.length) rehash();
+        return id;
+    }
+
+    /**
+     * @param name  the spelling
+     * @return  its ID, -1 if it was never interned
+     */
+    int find(CharSequence name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) hash = 31 * hash + name.charAt(i);
+        int mask = table.length - 1;
+        for (int slot = spread(hash) & mask, entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+            if (hashes[entry - 1] == hash && matches(names[entry - 1], name, 0, name.length())) return entry - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @param id    an ID handed out by this table
+     * @return  the one String for that spelling
+     */
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return  how many spellings were interned, every ID is below it
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Forgets every spelling, IDs start at 0 again and the arrays are kept for reuse
+     */
+    void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+    }
+
+    private void rehash() {
+        int[] table = new int[this.table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = spread(hashes[id]) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = id + 1;
+        }
+        this.table = table;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+}
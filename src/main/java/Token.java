@@ -0,0 +1,40 @@
+/**
+ * Token
+ *
+ * Stores the information on a group of characters the Lexer categorized. The same token is
+ * handed straight to the Parser, the .lex text form is only produced by toString
+ */
+class Token {
+    public TokenType tokentype;
+    public String value;
+    public int line;
+    public int pos;
+    public int symbol;
+
+    Token(TokenType token, String value, int line, int pos) {
+        this(token, value, line, pos, -1);
+    }
+
+    /**
+     * @param symbol    the symbol ID of an identifier or string literal, -1 if it has none
+     */
+    Token(TokenType token, String value, int line, int pos, int symbol) {
+        this.tokentype = token; this.value = value; this.line = line; this.pos = pos; this.symbol = symbol;
+    }
+
+    /**
+     * Formats the token as one line of a .lex file
+     *
+     * @return  line, position, type and for identifiers and literals the value
+     */
+    @Override
+    public String toString() {
+        String result = String.format("%5d  %5d %-15s", this.line, this.pos, this.tokentype);
+        switch (this.tokentype) {
+            case Integer -> result += String.format("  %4s", value);
+            case Identifier -> result += String.format(" %s", value);
+            case String -> result += String.format(" \"%s\"", value);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.Arrays;
+
+/**
+ * Token Buffer
+ *
+ * Stores a whole token stream in parallel int arrays instead of one Token object per token.
+ * A token is its type ordinal, where its lexeme starts in the source, how long the lexeme is
+ * and the line and position it was found at. Values are slices of the source and are only
+ * turned into strings when asked for, identifiers and string literals carry their symbol ID and
+ * share the one String of the symbol table.
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private CharSequence source;
+    private int[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int[] positions;
+    private int[] symbols;
+    private final SymbolTable table;
+    private int size;
+
+    TokenBuffer(CharSequence source) {
+        this(source, 64);
+    }
+
+    /**
+     * @param source    the source code the tokens are slices of
+     * @param capacity  how many tokens to make room for up front
+     */
+    TokenBuffer(CharSequence source, int capacity) {
+        this(source, capacity, new SymbolTable());
+    }
+
+    /**
+     * @param source    the source code the tokens are slices of
+     * @param capacity  how many tokens to make room for up front
+     * @param table the symbol table identifiers and string literals are interned into
+     */
+    TokenBuffer(CharSequence source, int capacity, SymbolTable table) {
+        this.source = source;
+        this.table = table;
+        capacity = Math.max(capacity, 8);
+        this.types = new int[capacity];
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        this.lines = new int[capacity];
+        this.positions = new int[capacity];
+        this.symbols = new int[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Appends a token
+     *
+     * @param type  the token type
+     * @param start offset of the first character of the lexeme
+     * @param length    length of the lexeme
+     * @param line  the line the token starts on
+     * @param pos   the position on the line
+     */
+    void add(TokenType type, int start, int length, int line, int pos) {
+        int symbol = -1;
+        if (type == TokenType.Identifier) symbol = table.intern(source, start, start + length);
+        else if (type == TokenType.String) symbol = table.intern(source, start + 1, start + length - 1);
+        add(type, start, length, line, pos, symbol);
+    }
+
+    /**
+     * Appends a token that was already interned
+     *
+     * @param type  the token type
+     * @param start offset of the first character of the lexeme
+     * @param length    length of the lexeme
+     * @param line  the line the token starts on
+     * @param pos   the position on the line
+     * @param symbol    its ID in the symbol table, -1 if it has none
+     */
+    void add(TokenType type, int start, int length, int line, int pos, int symbol) {
+        if (size == types.length) grow();
+        types[size] = type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        positions[size] = pos;
+        symbols[size] = symbol;
+        size++;
+    }
+
+    /**
+     * Replaces a run of tokens after an edit of the source, in place
+     * The tokens after the run are moved by the edit: their offsets by the change in length,
+     * their lines by the change in lines and, up to the first line break, their positions
+     *
+     * @param from  index of the first token replaced
+     * @param to    index just past the last token replaced
+     * @param replacement   the new tokens, interned into the same symbol table
+     * @param source    the edited source
+     * @param startShift    added to the start offset of the tokens after the run
+     * @param lineShift added to their lines
+     * @param posShift  added to the positions of the ones before posUntil
+     * @param posUntil  index, before the edit, of the first token that keeps its position
+     */
+    void splice(int from, int to, TokenBuffer replacement, CharSequence source, int startShift, int lineShift, int posShift, int posUntil) {
+        int count = replacement.size;
+        int moved = size - to;
+        while (from + count + moved > types.length) grow();
+        System.arraycopy(types, to, types, from + count, moved);
+        System.arraycopy(starts, to, starts, from + count, moved);
+        System.arraycopy(lengths, to, lengths, from + count, moved);
+        System.arraycopy(lines, to, lines, from + count, moved);
+        System.arraycopy(positions, to, positions, from + count, moved);
+        System.arraycopy(symbols, to, symbols, from + count, moved);
+        System.arraycopy(replacement.types, 0, types, from, count);
+        System.arraycopy(replacement.starts, 0, starts, from, count);
+        System.arraycopy(replacement.lengths, 0, lengths, from, count);
+        System.arraycopy(replacement.lines, 0, lines, from, count);
+        System.arraycopy(replacement.positions, 0, positions, from, count);
+        System.arraycopy(replacement.symbols, 0, symbols, from, count);
+        int first = from + count, end = first + moved;
+        for (int i = first; i < end; i++) {
+            starts[i] += startShift;
+            lines[i] += lineShift;
+        }
+        for (int i = first, until = first + Math.max(posUntil - to, 0); i < until; i++) positions[i] += posShift;
+        size = end;
+        this.source = source;
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        symbols = Arrays.copyOf(symbols, capacity);
+    }
+
+    int size() { return size; }
+    CharSequence source() { return source; }
+    TokenType type(int i) { return TYPES[types[i]]; }
+    int start(int i) { return starts[i]; }
+    int length(int i) { return lengths[i]; }
+    int line(int i) { return lines[i]; }
+    int pos(int i) { return positions[i]; }
+    int symbol(int i) { return symbols[i]; }
+    SymbolTable symbols() { return table; }
+
+    /**
+     * The value of a token as a slice of the source, without copying it
+     *
+     * @param i the token index
+     * @return  the value, strings and character literals without their quotes
+     */
+    CharSequence value(int i) {
+        if (symbols[i] >= 0) return table.name(symbols[i]);
+        return value(source, type(i), starts[i], starts[i] + lengths[i]);
+    }
+
+    /**
+     * Builds the Token object for one entry, for callers that still want one
+     *
+     * @param i the token index
+     * @return  a new token
+     */
+    Token token(int i) {
+        return new Token(type(i), value(i).toString(), lines[i], positions[i], symbols[i]);
+    }
+
+    /**
+     * The value of a lexeme: the quotes are not part of a string or character literal
+     *
+     * @param source    the source code
+     * @param type  the token type
+     * @param start offset of the first character of the lexeme
+     * @param end   offset just past the lexeme
+     * @return  the value as a slice of the source
+     */
+    static CharSequence value(CharSequence source, TokenType type, int start, int end) {
+        if (type == TokenType.String) return source.subSequence(start + 1, end - 1);
+        if (type == TokenType.Integer && source.charAt(start) == '\'') {
+            if (end - start > 2 && source.charAt(end - 1) == '\'') end--;
+            return source.subSequence(start + 1, end);
+        }
+        return source.subSequence(start, end);
+    }
+
+    /**
+     * @return  a new cursor at the start of the buffer
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Cursor over the buffer, the current token is just an index into the arrays
+     */
+    final class Cursor implements TokenCursor {
+        private int index = -1;
+
+        @Override
+        public TokenType next() {
+            if (index < size - 1) index++;
+            return type();
+        }
+
+        @Override
+        public TokenType type() { return (index < 0) ? TokenType.End_of_input : TYPES[types[index]]; }
+
+        @Override
+        public int line() { return lines[index]; }
+
+        @Override
+        public int pos() { return positions[index]; }
+
+        @Override
+        public String value() { return TokenBuffer.this.value(index).toString(); }
+
+        @Override
+        public int symbol() { return (index < 0) ? -1 : symbols[index]; }
+
+        @Override
+        public SymbolTable symbols() { return table; }
+
+        /**
+         * @return  the index of the current token
+         */
+        int index() { return index; }
+
+        /**
+         * Moves the cursor to a token, as if next() had been called until it was reached
+         *
+         * @param index the index of the token
+         */
+        void seek(int index) { this.index = Math.min(index, size - 1); }
+    }
+}
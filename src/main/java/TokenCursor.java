@@ -0,0 +1,50 @@
+/**
+ * Forward only view over a stream of tokens
+ *
+ * A cursor is a flyweight: the current token is read through its accessors, so walking the
+ * stream does not create a Token per token. Once End_of_input is reached the cursor stays there.
+ */
+interface TokenCursor {
+
+    /**
+     * Advances to the next token
+     *
+     * @return  the type of the token now under the cursor
+     */
+    TokenType next();
+
+    /**
+     * @return  the type of the current token
+     */
+    TokenType type();
+
+    /**
+     * @return  the line the current token starts on
+     */
+    int line();
+
+    /**
+     * @return  the position on the line where the current token starts
+     */
+    int pos();
+
+    /**
+     * The value of the current token, only identifiers and literals need to ask for it
+     *
+     * @return  the value as a new string
+     */
+    String value();
+
+    /**
+     * The symbol ID of the current token, for cursors that intern their values
+     *
+     * @return  the ID of an identifier or string literal in symbols(), -1 for other tokens or
+     *          when the cursor does not intern
+     */
+    default int symbol() { return -1; }
+
+    /**
+     * @return  the table symbol() IDs belong to, null when the cursor does not intern
+     */
+    default SymbolTable symbols() { return null; }
+}
@@ -0,0 +1,180 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+
+/**
+ * Virtual Machine
+ *
+ * Runs the programs of the CodeGenerator. The dispatch loop keeps the program counter, the
+ * stack pointer and the arrays in locals and allocates nothing per instruction. Output is
+ * collected in a buffer that is handed to the sink in large pieces, as in the Interpreter.
+ */
+final class VirtualMachine {
+
+    private static final int FLUSH = 1 << 13;
+
+    private final CodeGenerator.Program program;
+    private int[] data;
+
+    VirtualMachine(CodeGenerator.Program program) {
+        this.program = program;
+        this.data = new int[program.names.length];
+    }
+
+    /**
+     * Lexes, parses, generates and runs a program
+     *
+     * @param source    the program
+     * @return  what the program printed
+     */
+    static String run(String source) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            new VirtualMachine(CodeGenerator.generate(new Parser(new Lexer(source)).parse())).run(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param name  a variable of the program
+     * @return  its value after the last run, 0 if the program has no such variable
+     */
+    int get(String name) {
+        for (int i = 0; i < program.names.length; i++) {
+            if (program.names[i].equals(name)) return data[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the program from fresh data
+     *
+     * @param out   where the program prints to
+     * @throws IOException  if the output can not be written
+     */
+    void run(Appendable out) throws IOException {
+        final int[] code = program.code;
+        final String[] strings = program.strings;
+        final int[] data = new int[program.names.length];
+        final int[] stack = new int[program.maxStack];
+        final StringBuilder buffer = new StringBuilder(FLUSH + 256);
+        this.data = data;
+        int pc = 0;
+        int sp = 0;
+        try {
+            while (true) {
+                switch (code[pc++]) {
+                    case CodeGenerator.FETCH -> stack[sp++] = data[code[pc++]];
+                    case CodeGenerator.STORE -> data[code[pc++]] = stack[--sp];
+                    case CodeGenerator.PUSH -> stack[sp++] = code[pc++];
+                    case CodeGenerator.ADD -> { sp--; stack[sp - 1] += stack[sp]; }
+                    case CodeGenerator.SUB -> { sp--; stack[sp - 1] -= stack[sp]; }
+                    case CodeGenerator.MUL -> { sp--; stack[sp - 1] *= stack[sp]; }
+                    case CodeGenerator.DIV -> { sp--; stack[sp - 1] /= stack[sp]; }
+                    case CodeGenerator.MOD -> { sp--; stack[sp - 1] %= stack[sp]; }
+                    case CodeGenerator.LT -> { sp--; stack[sp - 1] = (stack[sp - 1] < stack[sp]) ? 1 : 0; }
+                    case CodeGenerator.GT -> { sp--; stack[sp - 1] = (stack[sp - 1] > stack[sp]) ? 1 : 0; }
+                    case CodeGenerator.LE -> { sp--; stack[sp - 1] = (stack[sp - 1] <= stack[sp]) ? 1 : 0; }
+                    case CodeGenerator.GE -> { sp--; stack[sp - 1] = (stack[sp - 1] >= stack[sp]) ? 1 : 0; }
+                    case CodeGenerator.EQ -> { sp--; stack[sp - 1] = (stack[sp - 1] == stack[sp]) ? 1 : 0; }
+                    case CodeGenerator.NE -> { sp--; stack[sp - 1] = (stack[sp - 1] != stack[sp]) ? 1 : 0; }
+                    case CodeGenerator.NEG -> stack[sp - 1] = -stack[sp - 1];
+                    case CodeGenerator.NOT -> stack[sp - 1] = (stack[sp - 1] == 0) ? 1 : 0;
+                    case CodeGenerator.JMP -> pc = code[pc];
+                    case CodeGenerator.JZ -> pc = (stack[--sp] == 0) ? code[pc] : pc + 1;
+                    case CodeGenerator.JNZ -> pc = (stack[--sp] != 0) ? code[pc] : pc + 1;
+                    case CodeGenerator.ADD + CodeGenerator.IMMEDIATE -> stack[sp - 1] += code[pc++];
+                    case CodeGenerator.SUB + CodeGenerator.IMMEDIATE -> stack[sp - 1] -= code[pc++];
+                    case CodeGenerator.MUL + CodeGenerator.IMMEDIATE -> stack[sp - 1] *= code[pc++];
+                    case CodeGenerator.DIV + CodeGenerator.IMMEDIATE -> stack[sp - 1] /= code[pc++];
+                    case CodeGenerator.MOD + CodeGenerator.IMMEDIATE -> stack[sp - 1] %= code[pc++];
+                    case CodeGenerator.LT + CodeGenerator.IMMEDIATE -> stack[sp - 1] = (stack[sp - 1] < code[pc++]) ? 1 : 0;
+                    case CodeGenerator.GT + CodeGenerator.IMMEDIATE -> stack[sp - 1] = (stack[sp - 1] > code[pc++]) ? 1 : 0;
+                    case CodeGenerator.LE + CodeGenerator.IMMEDIATE -> stack[sp - 1] = (stack[sp - 1] <= code[pc++]) ? 1 : 0;
+                    case CodeGenerator.GE + CodeGenerator.IMMEDIATE -> stack[sp - 1] = (stack[sp - 1] >= code[pc++]) ? 1 : 0;
+                    case CodeGenerator.EQ + CodeGenerator.IMMEDIATE -> stack[sp - 1] = (stack[sp - 1] == code[pc++]) ? 1 : 0;
+                    case CodeGenerator.NE + CodeGenerator.IMMEDIATE -> stack[sp - 1] = (stack[sp - 1] != code[pc++]) ? 1 : 0;
+                    case CodeGenerator.ADD + CodeGenerator.VARIABLE -> stack[sp - 1] += data[code[pc++]];
+                    case CodeGenerator.SUB + CodeGenerator.VARIABLE -> stack[sp - 1] -= data[code[pc++]];
+                    case CodeGenerator.MUL + CodeGenerator.VARIABLE -> stack[sp - 1] *= data[code[pc++]];
+                    case CodeGenerator.DIV + CodeGenerator.VARIABLE -> stack[sp - 1] /= data[code[pc++]];
+                    case CodeGenerator.MOD + CodeGenerator.VARIABLE -> stack[sp - 1] %= data[code[pc++]];
+                    case CodeGenerator.LT + CodeGenerator.VARIABLE -> stack[sp - 1] = (stack[sp - 1] < data[code[pc++]]) ? 1 : 0;
+                    case CodeGenerator.GT + CodeGenerator.VARIABLE -> stack[sp - 1] = (stack[sp - 1] > data[code[pc++]]) ? 1 : 0;
+                    case CodeGenerator.LE + CodeGenerator.VARIABLE -> stack[sp - 1] = (stack[sp - 1] <= data[code[pc++]]) ? 1 : 0;
+                    case CodeGenerator.GE + CodeGenerator.VARIABLE -> stack[sp - 1] = (stack[sp - 1] >= data[code[pc++]]) ? 1 : 0;
+                    case CodeGenerator.EQ + CodeGenerator.VARIABLE -> stack[sp - 1] = (stack[sp - 1] == data[code[pc++]]) ? 1 : 0;
+                    case CodeGenerator.NE + CodeGenerator.VARIABLE -> stack[sp - 1] = (stack[sp - 1] != data[code[pc++]]) ? 1 : 0;
+                    case CodeGenerator.JLT -> { sp -= 2; pc = (stack[sp] < stack[sp + 1]) ? code[pc] : pc + 1; }
+                    case CodeGenerator.JGT -> { sp -= 2; pc = (stack[sp] > stack[sp + 1]) ? code[pc] : pc + 1; }
+                    case CodeGenerator.JLE -> { sp -= 2; pc = (stack[sp] <= stack[sp + 1]) ? code[pc] : pc + 1; }
+                    case CodeGenerator.JGE -> { sp -= 2; pc = (stack[sp] >= stack[sp + 1]) ? code[pc] : pc + 1; }
+                    case CodeGenerator.JEQ -> { sp -= 2; pc = (stack[sp] == stack[sp + 1]) ? code[pc] : pc + 1; }
+                    case CodeGenerator.JNE -> { sp -= 2; pc = (stack[sp] != stack[sp + 1]) ? code[pc] : pc + 1; }
+                    case CodeGenerator.JLT + CodeGenerator.JUMP_IMMEDIATE -> pc = (stack[--sp] < code[pc]) ? code[pc + 1] : pc + 2;
+                    case CodeGenerator.JGT + CodeGenerator.JUMP_IMMEDIATE -> pc = (stack[--sp] > code[pc]) ? code[pc + 1] : pc + 2;
+                    case CodeGenerator.JLE + CodeGenerator.JUMP_IMMEDIATE -> pc = (stack[--sp] <= code[pc]) ? code[pc + 1] : pc + 2;
+                    case CodeGenerator.JGE + CodeGenerator.JUMP_IMMEDIATE -> pc = (stack[--sp] >= code[pc]) ? code[pc + 1] : pc + 2;
+                    case CodeGenerator.JEQ + CodeGenerator.JUMP_IMMEDIATE -> pc = (stack[--sp] == code[pc]) ? code[pc + 1] : pc + 2;
+                    case CodeGenerator.JNE + CodeGenerator.JUMP_IMMEDIATE -> pc = (stack[--sp] != code[pc]) ? code[pc + 1] : pc + 2;
+                    case CodeGenerator.PRTC -> {
+                        buffer.append((char) stack[--sp]);
+                        if (buffer.length() >= FLUSH) { out.append(buffer); buffer.setLength(0); }
+                    }
+                    case CodeGenerator.PRTS -> {
+                        buffer.append(strings[code[pc++]]);
+                        if (buffer.length() >= FLUSH) { out.append(buffer); buffer.setLength(0); }
+                    }
+                    case CodeGenerator.PRTI -> {
+                        buffer.append(stack[--sp]);
+                        if (buffer.length() >= FLUSH) { out.append(buffer); buffer.setLength(0); }
+                    }
+                    case CodeGenerator.HALT -> {
+                        return;
+                    }
+                    default -> throw new IllegalStateException("Bad opcode " + code[pc - 1] + " at " + (pc - 1));
+                }
+            }
+        } finally {
+            out.append(buffer);
+        }
+    }
+
+    /**
+     * Usage: VirtualMachine [--asm] [-O] file
+     * Runs the program, or prints its assembly with --asm, with -O the tree goes through the
+     * Optimizer first
+     */
+    public static void main(String[] args) {
+        boolean asm = false, optimize = false;
+        int flags = 0;
+        for (; flags < args.length - 1; flags++) {
+            if (args[flags].equals("--asm") && !asm) asm = true;
+            else if (args[flags].equals("-O") && !optimize) optimize = true;
+            else break;
+        }
+        if (args.length == 0 || flags != args.length - 1) {
+            System.out.println("Usage: VirtualMachine [--asm] [-O] file");
+            System.exit(1);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        try {
+            Parser.Node tree = new Parser(Lexer.fromFile(Path.of(args[args.length - 1]))).parse();
+            CodeGenerator.Program program = CodeGenerator.generate(optimize ? Optimizer.optimize(tree) : tree);
+            if (asm) out.append(program.disassemble());
+            else new VirtualMachine(program).run(out);
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Exception: " + e.getMessage());
+            System.exit(1);
+        } catch (CompileException | ArithmeticException e) {
+            try { out.flush(); } catch (IOException ignored) { }
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+public class AstTest {
+
+    String expected;
+    String actual;
+
+    static String tree(Parser.Node tree) {
+        return new Parser(new Lexer("")).printAST(tree, new StringBuilder(), false);
+    }
+
+    static String text(Ast ast, int root) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        ast.write(root, sb);
+        return sb.toString();
+    }
+
+    @Test
+    void parseTest() throws IOException
+    {
+        // the arena gives the same tree as the Node objects, for one program after the other
+        Ast ast = new Ast();
+        for (String name : List.of("count", "hello", "prime", "loop", "99bottles", "fizzbuzz")) {
+            String source = ExpectedAndActual.getExpected(name, "lex");
+            ast.reset();
+            int root = new Parser(Parser.readTokens(new Scanner(source))).parse(ast);
+            expected = ExpectedAndActual.getExpected(name, "par");
+            actual = text(ast, root).strip();
+            Assertions.assertEquals(expected, actual);
+            Assertions.assertEquals(expected, tree(ast.toNode(root)).strip());
+        }
+        ast.reset();
+        Assertions.assertEquals(0, ast.count());
+        Assertions.assertEquals(Parser.NIL, new Parser(new Lexer("")).parse(ast));
+    }
+
+    @Test
+    void chunkTest() throws IOException
+    {
+        // a tree larger than a chunk, the arena is reused without growing again
+        String source = ProgramGenerator.generate(3, 1 << 18);
+        Ast ast = new Ast();
+        int root = new Parser(new Lexer(source)).parse(ast);
+        int count = ast.count();
+        Assertions.assertTrue(count > Ast.CHUNK);
+        Parser parser = new Parser(new Lexer(source));
+        expected = tree(parser.parse());
+        Assertions.assertEquals(expected, text(ast, root));
+
+        ast.reset();
+        root = new Parser(new Lexer(source)).parse(ast);
+        Assertions.assertEquals(count, ast.count());
+        Assertions.assertEquals(expected, text(ast, root));
+        Assertions.assertEquals(expected, tree(ast.toNode(root)));
+    }
+
+    @Test
+    void visitTest()
+    {
+        Ast ast = new Ast();
+        int root = new Parser(new Lexer("a = 1; while (a < 10) { a = a + 1; } print(\"a is \", a);")).parse(ast);
+        List<String> entered = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        ast.visit(root, new Ast.Visitor() {
+            @Override
+            public boolean enter(Ast ast, int node) {
+                entered.add(ast.type(node) + ((ast.value(node) != null) ? " " + ast.value(node) : ""));
+                // the body of the loop is skipped
+                return ast.type(node) != Parser.NodeType.nd_While;
+            }
+
+            @Override
+            public void leave(Ast ast, int node) {
+                left.add(ast.type(node).toString());
+            }
+        });
+        Assertions.assertEquals(List.of("Sequence", "Sequence", "Sequence", "Assign", "Identifier a", "Integer 1",
+                "While", "Sequence", "Sequence", "Prts", "String a is ", "Prti", "Identifier a"), entered);
+        Assertions.assertEquals(List.of("Identifier", "Integer", "Assign", "Sequence", "While", "Sequence",
+                "String", "Prts", "Sequence", "Identifier", "Prti", "Sequence", "Sequence"), left);
+        // a spelling is stored once: a, 1, 10 and the string
+        Assertions.assertEquals(4, ast.symbols().size());
+        Assertions.assertEquals(ast.symbol(ast.left(ast.right(ast.left(ast.left(root))))), ast.symbols().find("a"));
+    }
+
+    @Test
+    void addTest() throws IOException
+    {
+        String source = "s = 1; if (s) print(\"x\", s, -1); else while (!s) { putc(s); }";
+        Parser.Node tree = new Parser(new Lexer(source)).parse();
+        Ast ast = new Ast();
+        int root = ast.add(tree);
+        expected = tree(tree);
+        Assertions.assertEquals(expected, text(ast, root));
+        Assertions.assertEquals(expected, tree(ast.toNode(root)));
+        Assertions.assertEquals(Parser.NIL, ast.add(null));
+        Assertions.assertNull(ast.toNode(Parser.NIL));
+    }
+}
@@ -0,0 +1,37 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class BatchCompilerTest {
+
+    @TempDir
+    Path output;
+
+    @Test
+    void resourcesTest() throws IOException
+    {
+        List<Path> sources = BatchCompiler.sources(List.of(Path.of("src/main/resources")));
+        List<BatchCompiler.Result> results = new BatchCompiler(4, Lexer.Engine.CLASSIC).run(sources, output);
+
+        Assertions.assertEquals(sources.size(), results.size());
+        for (int i = 0; i < sources.size(); i++) Assertions.assertEquals(sources.get(i), results.get(i).source);
+        Assertions.assertEquals(ExpectedAndActual.getExpected("prime", "lex"), Files.readString(output.resolve("prime.lex")).strip());
+        Assertions.assertEquals(ExpectedAndActual.getActualParser("99bottles"), Files.readString(output.resolve("99bottles.par")).strip());
+    }
+
+    @Test
+    void badFileTest() throws IOException
+    {
+        List<Path> sources = List.of(Path.of("src/main/resources/ourProgram.c"), Path.of("src/main/resources/count.c"));
+        List<BatchCompiler.Result> results = new BatchCompiler(2, Lexer.Engine.TABLE).run(sources, output);
+
+        Assertions.assertFalse(results.get(0).ok());
+        Assertions.assertTrue(results.get(1).ok());
+        Assertions.assertTrue(Files.exists(output.resolve("count.par")));
+    }
+}
@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BytecodeCompilerTest {
+
+    String expected;
+    String actual;
+
+    @Test
+    void helloTest()
+    {
+        expected = ExpectedAndActual.getExpected("hello", "out");
+        actual = ExpectedAndActual.getActualBytecode("hello", "t");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void fizzbuzzTest()
+    {
+        expected = ExpectedAndActual.getExpected("fizzbuzz", "out");
+        actual = ExpectedAndActual.getActualBytecode("fizzbuzz", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void primeTest()
+    {
+        expected = ExpectedAndActual.getExpected("prime", "out");
+        actual = ExpectedAndActual.getActualBytecode("prime", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void bottleTest()
+    {
+        expected = ExpectedAndActual.getExpected("99bottles", "out");
+        actual = ExpectedAndActual.getActualBytecode("99bottles", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void sameAsInterpreterTest()
+    {
+        for (long seed = 1; seed <= 20; seed++) {
+            String source = ProgramGenerator.generate(seed, 4096);
+            Assertions.assertEquals(Interpreter.run(source), BytecodeCompiler.compileAndRun(source));
+        }
+        String source = ProgramGenerator.generate(99, 200000);
+        Assertions.assertEquals(Interpreter.run(source), BytecodeCompiler.compileAndRun(source));
+        Assertions.assertTrue(BytecodeCompiler.compile(new Parser(new Lexer(source)).parse()).methods() > 1);
+
+        String conditions = "a = 1; b = 0; x = 0; y = 0;"
+                + "if (a && !b || b) x = 1; if (!(a || b) || a && b) x = 2;"
+                + "while (y < 5 && (a || 1 / b)) y = y + 1;"
+                + "print(x, \" \", y, \" \", a && b, \" \", b || a, \" \", b && 1 / b, \" \", -y * 2 > -11, \" \", y >= 0, \" \", 2147483647 + 1);";
+        Assertions.assertEquals(Interpreter.run(conditions), BytecodeCompiler.compileAndRun(conditions));
+    }
+
+    @Test
+    void variablesTest() throws Exception
+    {
+        StringBuilder source = new StringBuilder("total = total + 1;\n");
+        for (int i = 0; i < 300; i++) source.append("v").append(i).append(" = ").append(i).append(" * 1000;\n");
+        BytecodeCompiler.Program program = BytecodeCompiler.compile(new Parser(new Lexer(source.toString())).parse());
+        program.run(new StringBuilder());
+        program.run(new StringBuilder());
+        Assertions.assertEquals(1, program.get("total"));
+        Assertions.assertEquals(299000, program.get("v299"));
+        Assertions.assertEquals(0, program.get("missing"));
+    }
+
+    @Test
+    void tooLargeTest()
+    {
+        StringBuilder source = new StringBuilder("i = 0; while (i < 2) {");
+        for (int i = 0; i < 6000; i++) source.append("x = x + i * 3;");
+        source.append("i = i + 1; } print(x);");
+        Parser.Node tree = new Parser(new Lexer(source.toString())).parse();
+        Assertions.assertThrows(CompileException.class, () -> BytecodeCompiler.compile(tree));
+        Assertions.assertEquals("18000", BytecodeCompiler.compileAndRun(source.toString()));
+    }
+
+    @Test
+    void longStringTest()
+    {
+        // a constant holds at most 65535 bytes of modified UTF-8, \u00e9 takes two
+        String text = "\u00e9".repeat(40000);
+        String source = "print(\"" + text + "\");";
+        Parser.Node tree = new Parser(new Lexer(source)).parse();
+        Assertions.assertThrows(CompileException.class, () -> BytecodeCompiler.compile(tree));
+        Assertions.assertEquals(text, BytecodeCompiler.compileAndRun(source));
+        String fits = "print(\"" + "x".repeat(65535) + "\");";
+        Assertions.assertEquals(Interpreter.run(fits), BytecodeCompiler.compileAndRun(fits));
+    }
+
+    @Test
+    void divideByZeroTest()
+    {
+        Assertions.assertThrows(ArithmeticException.class, () -> BytecodeCompiler.compileAndRun("x = 0; print(1 / x);"));
+    }
+}
@@ -0,0 +1,167 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Scanner;
+
+public class CompileCacheTest {
+
+    String expected;
+    String actual;
+
+    @TempDir
+    Path directory;
+
+    static String tree(Parser.Node tree) {
+        return new Parser(new Lexer("")).printAST(tree, new StringBuilder(), false);
+    }
+
+    @Test
+    void hitTest() throws IOException
+    {
+        CompileCache cache = new CompileCache(directory, 1 << 20);
+        String key = CompileCache.key("x = 1;".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertNull(cache.get(key));
+        cache.put(key, "lex", "par", 3, 17);
+        CompileCache.Entry entry = cache.get(key);
+        Assertions.assertEquals("lex", entry.lex);
+        Assertions.assertEquals("par", entry.par);
+        Assertions.assertEquals(3, entry.tokens);
+        Assertions.assertEquals(17, entry.nodes);
+        Assertions.assertEquals(1, cache.hits());
+        Assertions.assertEquals(1, cache.misses());
+        // the counts are the first line of the .par file
+        Assertions.assertEquals(11, cache.size());
+        // the same bytes give the same key, other bytes another one
+        Assertions.assertEquals(key, CompileCache.key("x = 1;".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertNotEquals(key, CompileCache.key("x = 2;".getBytes(StandardCharsets.UTF_8)));
+
+        // entries are still there when the cache is opened again
+        CompileCache reopened = new CompileCache(directory, 1 << 20);
+        Assertions.assertEquals(1, reopened.entries());
+        Assertions.assertEquals("par", reopened.get(key).par);
+        Assertions.assertEquals(17, reopened.get(key).nodes);
+    }
+
+    @Test
+    void countTest() throws IOException
+    {
+        // a string that holds a line break is one token on two lines of the .lex text
+        Path source = directory.resolve("lines.c");
+        Files.writeString(source, "s = 1;\nprint(\"two\nlines\", s);\n");
+        CompileCache cache = new CompileCache(directory.resolve("cache"), 1 << 20);
+        BatchCompiler.Result compiled = BatchCompiler.compile(source, Lexer.Engine.CLASSIC, cache);
+        BatchCompiler.Result hit = BatchCompiler.compile(source, Lexer.Engine.CLASSIC, cache);
+        Assertions.assertEquals(1, cache.hits());
+        Assertions.assertEquals(compiled.tokens, hit.tokens);
+        Assertions.assertEquals(compiled.nodes, hit.nodes);
+        Assertions.assertEquals(12, hit.tokens);
+        Assertions.assertNotEquals(hit.tokens, hit.lex.lines().count());
+    }
+
+    @Test
+    void corruptTest() throws IOException
+    {
+        // a damaged entry is dropped and counts as a miss, the next compile stores it again
+        Path source = directory.resolve("count.c");
+        Files.writeString(source, "x = 1;\nprint(x);\n");
+        CompileCache cache = new CompileCache(directory.resolve("cache"), 1 << 20);
+        BatchCompiler.Result compiled = BatchCompiler.compile(source, Lexer.Engine.CLASSIC, cache);
+        String key = CompileCache.key(Files.readAllBytes(source));
+        Path par = directory.resolve("cache").resolve(key + ".par");
+        Files.writeString(par, "garbage");
+        Assertions.assertNull(cache.get(key));
+        Assertions.assertEquals(2, cache.misses());
+        Assertions.assertEquals(0, cache.entries());
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertFalse(Files.exists(par));
+        Assertions.assertFalse(Files.exists(directory.resolve("cache").resolve(key + ".lex")));
+
+        expected = compiled.par;
+        actual = BatchCompiler.compile(source, Lexer.Engine.CLASSIC, cache).par;
+        Assertions.assertEquals(expected, actual);
+        Assertions.assertEquals(1, cache.entries());
+        Assertions.assertEquals(0, cache.hits());
+        Assertions.assertNotNull(cache.get(key));
+    }
+
+    @Test
+    void evictionTest() throws IOException
+    {
+        // an entry takes 5 + 5 bytes and 4 for its counts
+        CompileCache cache = new CompileCache(directory, 42);
+        cache.put("a", "aaaaa", "aaaaa", 1, 1);
+        cache.put("b", "bbbbb", "bbbbb", 1, 1);
+        cache.put("c", "ccccc", "ccccc", 1, 1);
+        // a is used last, so b is the least recently used
+        Assertions.assertNotNull(cache.get("a"));
+        cache.put("d", "ddddd", "ddddd", 1, 1);
+        Assertions.assertEquals(1, cache.evictions());
+        Assertions.assertNull(cache.get("b"));
+        Assertions.assertNotNull(cache.get("a"));
+        Assertions.assertNotNull(cache.get("c"));
+        Assertions.assertNotNull(cache.get("d"));
+        Assertions.assertEquals(42, cache.size());
+
+        // an entry larger than the whole cache does not stay
+        cache.put("e", "e".repeat(20), "e".repeat(20), 1, 1);
+        Assertions.assertEquals(0, cache.entries());
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    void readTest()
+    {
+        // the cached text reads back to the same tokens and tree
+        for (String name : List.of("count", "hello", "prime", "loop", "99bottles", "fizzbuzz")) {
+            String par = ExpectedAndActual.getExpected(name, "par");
+            CompileCache.Entry entry = new CompileCache.Entry(ExpectedAndActual.getExpected(name, "lex"), par, 0, 0);
+            expected = par;
+            actual = tree(entry.tree(new SymbolTable())).strip();
+            Assertions.assertEquals(expected, actual);
+            Parser parser = new Parser(entry.tokens());
+            Assertions.assertEquals(expected, parser.printAST(parser.parse(), new StringBuilder(), false).strip());
+        }
+        String source = "s = 1; if (s) print(\"two\nlines\", s, -1); else while (!s) { }";
+        Parser parser = new Parser(new Lexer(source));
+        expected = parser.printAST(parser.parse(), new StringBuilder(), false);
+        SymbolTable symbols = new SymbolTable();
+        Parser.Node tree = Parser.readAST(new Scanner(expected), symbols);
+        Assertions.assertEquals(expected, tree(tree));
+        Assertions.assertEquals(symbols.find("s"), tree.left.right.left.symbol);
+        Assertions.assertNull(Parser.readAST(new Scanner(";\n"), symbols));
+        Assertions.assertThrows(CompileException.class, () -> Parser.readAST(new Scanner("Sequence\n;\n"), new SymbolTable()));
+    }
+
+    @Test
+    void batchTest() throws IOException
+    {
+        CompileCache cache = new CompileCache(directory.resolve("cache"), 1 << 20);
+        List<Path> sources = BatchCompiler.sources(List.of(Path.of("src/main/resources")));
+        Path output = directory.resolve("output");
+        new BatchCompiler(2, Lexer.Engine.CLASSIC, cache).run(sources, output);
+        Assertions.assertEquals(0, cache.hits());
+        Assertions.assertEquals(sources.size(), cache.misses());
+        // ourProgram.c does not compile and is not cached
+        Assertions.assertEquals(sources.size() - 1, cache.entries());
+
+        Path again = directory.resolve("again");
+        List<BatchCompiler.Result> results = new BatchCompiler(2, Lexer.Engine.CLASSIC, cache).run(sources, again);
+        Assertions.assertEquals(sources.size() - 1, cache.hits());
+        Assertions.assertEquals(ExpectedAndActual.getExpected("prime", "lex"), Files.readString(again.resolve("prime.lex")).strip());
+        Assertions.assertEquals(Files.readString(output.resolve("99bottles.par")), Files.readString(again.resolve("99bottles.par")));
+        // a hit counts what compiling counts
+        for (BatchCompiler.Result result : results) {
+            if (!result.ok()) continue;
+            BatchCompiler.Result compiled = BatchCompiler.compile(result.source, Lexer.Engine.CLASSIC);
+            Assertions.assertEquals(compiled.tokens, result.tokens);
+            Assertions.assertEquals(compiled.nodes, result.nodes);
+            Assertions.assertTrue(result.nodes > 0);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+public class CompilerDaemonTest {
+
+    @TempDir
+    Path directory;
+
+    static PrintStream quiet() {
+        return new PrintStream(new ByteArrayOutputStream());
+    }
+
+    @Test
+    void protocolTest() throws IOException
+    {
+        Path output = directory;
+        try (CompilerDaemon daemon = new CompilerDaemon(output, Lexer.Engine.CLASSIC, quiet())) {
+            StringWriter out = new StringWriter();
+            daemon.serve(new StringReader("compile src/main/resources/prime.c\n\nstatus\nfrobnicate\nquit\ncompile src/main/resources/count.c\n"), out);
+            String[] lines = out.toString().split("\\R");
+            Assertions.assertEquals(3, lines.length);
+            Assertions.assertTrue(lines[0].startsWith("ok prime "));
+            Assertions.assertEquals("compiled 1, failed 0, skipped 0, watching 0", lines[1]);
+            Assertions.assertEquals("error unknown command: frobnicate", lines[2]);
+            Assertions.assertEquals(ExpectedAndActual.getExpected("prime", "lex"), Files.readString(output.resolve("prime.lex")).strip());
+            // after quit nothing else is read
+            Assertions.assertFalse(Files.exists(output.resolve("count.lex")));
+        }
+    }
+
+    @Test
+    void errorTest() throws IOException
+    {
+        Path output = directory;
+        try (CompilerDaemon daemon = new CompilerDaemon(output, Lexer.Engine.CLASSIC, quiet())) {
+            StringWriter out = new StringWriter();
+            daemon.serve(new StringReader("compile src/main/resources/ourProgram.c\ncompile nowhere.c\nstatus\n"), out);
+            String[] lines = out.toString().split("\\R");
+            Assertions.assertTrue(lines[0].startsWith("error src/main/resources/ourProgram.c: "));
+            Assertions.assertTrue(lines[1].startsWith("error nowhere.c: "));
+            Assertions.assertEquals("compiled 0, failed 2, skipped 0, watching 0", lines[2]);
+        }
+    }
+
+    @Test
+    void watchTest() throws IOException, InterruptedException
+    {
+        Path sources = Files.createDirectory(directory.resolve("sources"));
+        Path output = directory.resolve("output");
+        Files.writeString(sources.resolve("first.c"), "x = 1;\n");
+        try (CompilerDaemon daemon = new CompilerDaemon(output, Lexer.Engine.CLASSIC, quiet())) {
+            // the directory is compiled when it is added
+            daemon.watch(sources);
+            Assertions.assertTrue(Files.exists(output.resolve("first.par")));
+            Thread watcher = new Thread(daemon::run);
+            watcher.start();
+
+            // saved the way editors do, written aside and moved in, so it is never seen half written
+            Path saved = Files.writeString(output.resolve("second.tmp"), "print(42);\n");
+            Files.move(saved, sources.resolve("second.c"), StandardCopyOption.ATOMIC_MOVE);
+            Path par = output.resolve("second.par");
+            for (int i = 0; i < 200 && !Files.exists(par); i++) Thread.sleep(50);
+            Parser parser = new Parser(new Lexer("print(42);\n"));
+            Assertions.assertEquals(parser.printAST(parser.parse(), new StringBuilder(), false), Files.readString(par));
+
+            // an unchanged file is not compiled again
+            Assertions.assertNull(daemon.compile(sources.resolve("first.c"), false));
+            Assertions.assertNotNull(daemon.compile(sources.resolve("first.c"), true));
+            daemon.close();
+            watcher.join(10000);
+            Assertions.assertFalse(watcher.isAlive());
+        }
+    }
+
+    @Test
+    void writeErrorTest() throws IOException, InterruptedException
+    {
+        // a directory where an output should go makes writing it fail, only for that file
+        Path sources = Files.createDirectory(directory.resolve("sources"));
+        Path output = directory.resolve("output");
+        try (CompilerDaemon daemon = new CompilerDaemon(output, Lexer.Engine.CLASSIC, quiet())) {
+            Files.createDirectory(output.resolve("count.lex"));
+            StringWriter out = new StringWriter();
+            daemon.serve(new StringReader("compile src/main/resources/count.c\ncompile src/main/resources/prime.c\nstatus\n"), out);
+            String[] lines = out.toString().split("\\R");
+            Assertions.assertTrue(lines[0].startsWith("error src/main/resources/count.c: "));
+            Assertions.assertTrue(lines[1].startsWith("ok prime "));
+            Assertions.assertEquals("compiled 1, failed 1, skipped 0, watching 0", lines[2]);
+
+            // the watch goes on after a file it could not write
+            daemon.watch(sources);
+            Thread watcher = new Thread(daemon::run);
+            watcher.start();
+            Files.createDirectory(output.resolve("first.lex"));
+            Files.writeString(sources.resolve("first.c"), "x = 1;\n");
+            Thread.sleep(200);
+            Files.writeString(sources.resolve("second.c"), "print(42);\n");
+            Path par = output.resolve("second.par");
+            for (int i = 0; i < 200 && !Files.exists(par); i++) Thread.sleep(50);
+            Assertions.assertTrue(Files.exists(par));
+            Assertions.assertTrue(watcher.isAlive());
+            daemon.close();
+            watcher.join(10000);
+        }
+    }
+
+    @Test
+    void socketTest() throws IOException
+    {
+        Path output = directory;
+        try (CompilerDaemon daemon = new CompilerDaemon(output, Lexer.Engine.CLASSIC, quiet())) {
+            int port = daemon.listen(0);
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                OutputStreamWriter out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                out.write("compile src/main/resources/count.c\nquit\n");
+                out.flush();
+                String answer = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                Assertions.assertTrue(answer.startsWith("ok count "));
+            }
+            Assertions.assertTrue(Files.exists(output.resolve("count.lex")));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DiagnosticsTest {
+
+    String expected;
+    String actual;
+
+    @TempDir
+    Path directory;
+
+    static String tree(Parser.Node tree) {
+        return new Parser(new Lexer("")).printAST(tree, new StringBuilder(), false);
+    }
+
+    static String parse(String source) {
+        return tree(new Parser(new Lexer(source)).parse());
+    }
+
+    static List<String> messages(Diagnostics diagnostics) {
+        List<String> messages = new ArrayList<>();
+        for (Diagnostics.Diagnostic diagnostic : diagnostics.sorted()) messages.add(diagnostic.toString());
+        return messages;
+    }
+
+    @Test
+    void lexerTest()
+    {
+        for (Lexer.Engine engine : Lexer.Engine.values()) {
+            Diagnostics diagnostics = new Diagnostics();
+            TokenBuffer tokens = new Lexer("a = 1 @ 2;\nb = a & c $;\n", engine, new SymbolTable(), diagnostics).tokenize();
+            // the bad characters are dropped, the tokens around them are all there
+            Assertions.assertEquals(new Lexer("a = 1 2;\nb = a c ;\n").tokenize().size(), tokens.size());
+            Assertions.assertEquals(List.of(
+                    "error: Lexer Incapable of Handling this char unless as string or character in line 1, pos 7",
+                    "error: follow: unrecognized character: (32) ' ' in line 2, pos 7",
+                    "error: Lexer Incapable of Handling this char unless as string or character in line 2, pos 11"), messages(diagnostics));
+        }
+    }
+
+    @Test
+    void literalTest()
+    {
+        Diagnostics diagnostics = new Diagnostics();
+        TokenBuffer tokens = new Lexer("x = 'ab';\nprint(\"open);\n", Lexer.Engine.CLASSIC, new SymbolTable(), diagnostics).tokenize();
+        // 'a is dropped, b is an identifier and '; opens another literal that is not closed
+        Assertions.assertEquals(3, diagnostics.errors());
+        Assertions.assertEquals("error: follow: unrecognized character: (98) 'b' in line 1, pos 5", messages(diagnostics).get(0));
+        Assertions.assertEquals("error: EOF while scanning string literal in line 2, pos 7", messages(diagnostics).get(2));
+        Assertions.assertEquals(TokenType.End_of_input, tokens.type(tokens.size() - 1));
+
+        // a comment that runs into the end of the input is only a warning
+        diagnostics = new Diagnostics();
+        new Lexer("x = 1; /* never closed", Lexer.Engine.TABLE, new SymbolTable(), diagnostics).tokenize();
+        Assertions.assertFalse(diagnostics.hasErrors());
+        Assertions.assertEquals(1, diagnostics.warnings());
+        Assertions.assertEquals("warning: EOF while scanning comment in line 1, pos 8", diagnostics.list().get(0).toString());
+    }
+
+    @Test
+    void parserTest()
+    {
+        String source = "a = 1;\nb = ;\nwhile (a) {\n    c = (1 + ;\n    print(a);\n    d = 2 3;\n}\nprint(b);\n}\ne = 5;\n";
+        Diagnostics diagnostics = new Diagnostics();
+        Parser parser = new Parser(new Lexer(source, Lexer.Engine.CLASSIC, new SymbolTable(), diagnostics), diagnostics);
+        actual = tree(parser.parse());
+        // the statements in error are left out, everything else is parsed as usual
+        expected = parse("a = 1;\n;\nwhile (a) {\n    ;\n    print(a);\n    ;\n}\nprint(b);\n;\ne = 5;\n");
+        Assertions.assertEquals(expected, actual);
+        Assertions.assertEquals(List.of(
+                "error: error with expr in line 2, pos 5",
+                "error: error with expr in line 4, pos 14",
+                "error: : Expecting 'Semicolon', found: 'Integer' in line 6, pos 11",
+                "error: error in stmtRightBrace in line 9, pos 1"), messages(diagnostics));
+    }
+
+    @Test
+    void blockTest()
+    {
+        // an error right before the } of a block leaves the } to the block
+        Diagnostics diagnostics = new Diagnostics();
+        Parser parser = new Parser(new Lexer("if (x) { y = 1 } z = 2;"), diagnostics);
+        Assertions.assertEquals(parse("if (x) { ; } z = 2;"), tree(parser.parse()));
+        Assertions.assertEquals(1, diagnostics.errors());
+
+        // braces opened in a statement in error are skipped with it
+        diagnostics = new Diagnostics();
+        parser = new Parser(new Lexer("int main() { printf(\"hi\"); return 0; }\nx = 1;\n"), diagnostics);
+        Assertions.assertEquals(parse(";\nx = 1;\n"), tree(parser.parse()));
+        Assertions.assertEquals(1, diagnostics.errors());
+
+        // and the input may end inside a block
+        diagnostics = new Diagnostics();
+        parser = new Parser(new Lexer("while (x) { x = x - 1;"), diagnostics);
+        Assertions.assertEquals(parse("while (x) { x = x - 1; }"), tree(parser.parse()));
+        Assertions.assertEquals(List.of("error: LBrace: Expecting 'RightBrace', found: 'End_of_input' in line 1, pos 23"), messages(diagnostics));
+    }
+
+    @Test
+    void throwTest()
+    {
+        // without a collector the first error is thrown, as it always was
+        Assertions.assertThrows(CompileException.class, () -> new Lexer("a = 1 @ 2;").tokenize());
+        Assertions.assertThrows(CompileException.class, () -> new Parser(new Lexer("b = ;")).parse());
+    }
+
+    @Test
+    void batchTest() throws IOException
+    {
+        Path sources = Files.createDirectory(directory.resolve("sources"));
+        for (int i = 0; i < 50; i++) {
+            String source = (i % 10 == 3) ? "x = 1 @;\ny = ;\nprint(x);\n" : "x = " + i + ";\nprint(x);\n";
+            Files.writeString(sources.resolve(String.format("f%02d.c", i)), source);
+        }
+        List<BatchCompiler.Result> results = new BatchCompiler(4, Lexer.Engine.CLASSIC).run(BatchCompiler.sources(List.of(sources)), directory.resolve("output"));
+        int failed = 0;
+        for (BatchCompiler.Result result : results) {
+            if (result.ok()) continue;
+            failed++;
+            Assertions.assertEquals(2, result.diagnostics.errors());
+            Assertions.assertEquals("Lexer Incapable of Handling this char unless as string or character in line 1, pos 7", result.error);
+        }
+        Assertions.assertEquals(5, failed);
+    }
+}
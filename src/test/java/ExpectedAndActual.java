@@ -1,18 +1,15 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 
 public class ExpectedAndActual {
 
     static Scanner in;
-    static Map<String, Parser.TokenType> strToMap;
-
-    static
-    {
-        strToMap = new HashMap<>();
-        Arrays.stream(Parser.TokenType.values()).forEach(var -> strToMap.put(var.toString(), var));
-    }
 
     public static String getExpected(String fileName, String extension)
     {
@@ -38,47 +35,122 @@ public class ExpectedAndActual {
         return new Lexer(sb.toString()).printTokens().strip();
     }
 
+    public static String getActualLexer(String fileName, String extension, Lexer.Engine engine)
+    {
+        StringBuilder sb = new StringBuilder();
+        try{
+            in = new Scanner(new File("src/main/resources/"+fileName+"."+extension));
+            while(in.hasNextLine()) sb.append(in.nextLine()+ '\n');
+        } catch (FileNotFoundException e){
+            e.printStackTrace();
+        }
+        return new Lexer(sb.toString(), engine).printTokens().strip();
+    }
+
+    public static String getActualTokenBuffer(String fileName, String extension)
+    {
+        StringBuilder sb = new StringBuilder();
+        try{
+            TokenBuffer buffer = Lexer.fromFile(Path.of("src/main/resources/"+fileName+"."+extension)).tokenize();
+            for(int i = 0; i < buffer.size(); i++) sb.append(buffer.token(i)).append('\n');
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+        return sb.toString().strip();
+    }
+
     public static String getActualParser(String fileName)
     {
         StringBuilder result = new StringBuilder();
         try{
-            StringBuilder sb = new StringBuilder();
-            List<Parser.Token> lst = new ArrayList<>();
-            String value;
-            int pos, line;
-            String token;
-            boolean found;
+            in = new Scanner(new File("src/main/output/"+fileName+".lex"));
+            Parser p = new Parser(Parser.readTokens(in));
+            p.printAST(p.parse(), result);
+        } catch (FileNotFoundException e){
+            e.printStackTrace();
+        }
 
+        return result.toString().strip();
+    }
 
-            in = new Scanner(new File("src/main/output/"+fileName+".lex"));
+    public static String getActualPipeline(String fileName, String extension)
+    {
+        StringBuilder result = new StringBuilder();
+        try{
+            Parser p = new Parser(Lexer.fromFile(Path.of("src/main/resources/"+fileName+"."+extension)));
+            p.printAST(p.parse(), result);
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+
+        return result.toString().strip();
+    }
 
-            while (in.hasNext()) {
-                String str = in.nextLine();
-                StringTokenizer st = new StringTokenizer(str);
-                line = Integer.parseInt(st.nextToken());
-                pos = Integer.parseInt(st.nextToken());
-                token = st.nextToken();
-                value = "";
-                while (st.hasMoreTokens()) {
-                    value += st.nextToken() + " ";
-                }
-                found = false;
-                if (strToMap.containsKey(token)) {
-                    found = true;
-                    lst.add(new Parser.Token(strToMap.get(token), value, line, pos));
-                }
-                if (found == false) {
-                    throw new Exception("Token not found: '" + token + "'");
-                }
+    public static String getActualBinary(String fileName, String extension)
+    {
+        StringBuilder result = new StringBuilder();
+        try{
+            Path lexb = Files.createTempFile(fileName, ".lexb");
+            try (OutputStream out = Files.newOutputStream(lexb)) {
+                Lexer.writeBinary(Lexer.fromFile(Path.of("src/main/resources/"+fileName+"."+extension)).tokenize(), out);
             }
-            Parser p = new Parser(lst);
+            Parser p = new Parser(Parser.loadBinary(lexb));
             p.printAST(p.parse(), result);
-        } catch (FileNotFoundException e){
+            Files.delete(lexb);
+        } catch (IOException e){
             e.printStackTrace();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
         }
 
         return result.toString().strip();
     }
+
+    public static String getActualParb(String fileName, String extension)
+    {
+        StringBuilder result = new StringBuilder();
+        try{
+            Path parb = Files.createTempFile(fileName, ".parb");
+            try (OutputStream out = Files.newOutputStream(parb)) {
+                Parser.writeBinaryAST(new Parser(Lexer.fromFile(Path.of("src/main/resources/"+fileName+"."+extension))).parse(), out);
+            }
+            new Parser(new Lexer("")).printAST(Parser.loadBinaryAST(parb, new SymbolTable()), result, false);
+            Files.delete(parb);
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+
+        return result.toString().strip();
+    }
+
+    public static String getActualInterpreter(String fileName, String extension)
+    {
+        StringBuilder sb = new StringBuilder();
+        try{
+            new Interpreter(new Parser(Lexer.fromFile(Path.of("src/main/resources/"+fileName+"."+extension))).parse()).run(sb);
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+        return sb.toString().strip();
+    }
+
+    public static String getActualVirtualMachine(String fileName, String extension)
+    {
+        StringBuilder sb = new StringBuilder();
+        try{
+            new VirtualMachine(CodeGenerator.generate(new Parser(Lexer.fromFile(Path.of("src/main/resources/"+fileName+"."+extension))).parse())).run(sb);
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+        return sb.toString().strip();
+    }
+
+    public static String getActualBytecode(String fileName, String extension)
+    {
+        StringBuilder sb = new StringBuilder();
+        try{
+            BytecodeCompiler.compile(new Parser(Lexer.fromFile(Path.of("src/main/resources/"+fileName+"."+extension))).parse()).run(sb);
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+        return sb.toString().strip();
+    }
 }
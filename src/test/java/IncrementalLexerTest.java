@@ -0,0 +1,117 @@
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class IncrementalLexerTest {
+
+    String expected;
+    String actual;
+
+    static String tokens(TokenBuffer tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++) {
+            sb.append(tokens.type(i)).append(' ').append(tokens.start(i)).append(' ').append(tokens.length(i)).append(' ')
+                    .append(tokens.line(i)).append(':').append(tokens.pos(i)).append(' ').append(tokens.value(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void editTest()
+    {
+        String source = "count = 1;\nwhile (count < 10) {\n    print(count, \"\\n\");\n    count = count + 1;\n}\n";
+        IncrementalLexer lexer = new IncrementalLexer(source);
+        int offset = source.indexOf("10");
+        TokenBuffer tokens = lexer.edit(offset, 2, "1000");
+        String edited = source.substring(0, offset) + "1000" + source.substring(offset + 2);
+        expected = tokens(new Lexer(edited).tokenize());
+        actual = tokens(tokens);
+        Assertions.assertEquals(expected, actual);
+        Assertions.assertEquals(edited, lexer.source().toString());
+        // only 1000 is scanned again, from ) on the old tokens are moved
+        Assertions.assertEquals(1, lexer.relexed());
+        Assertions.assertEquals(tokens.size() - 1, lexer.reused());
+        Assertions.assertEquals(lexer.changedFrom() + 1, lexer.changedTo());
+        Assertions.assertEquals(lexer.changedTo(), lexer.replacedTo());
+    }
+
+    @Test
+    void commentTest()
+    {
+        String source = "a = 1;\nb = 2;\nc = 3;\nd = 4;\n";
+        IncrementalLexer lexer = new IncrementalLexer(source);
+        // opening a comment hides b and c, up to where it is closed
+        lexer.edit(source.indexOf("b"), 0, "/* ");
+        lexer.edit(lexer.source().toString().indexOf("d"), 0, "*/\n");
+        expected = tokens(new Lexer("a = 1;\n/* b = 2;\nc = 3;\n*/\nd = 4;\n").tokenize());
+        actual = tokens(lexer.tokens());
+        Assertions.assertEquals(expected, actual);
+        Assertions.assertEquals("Identifier d", lexer.tokens().type(4) + " " + lexer.tokens().value(4));
+        Assertions.assertEquals(5, lexer.tokens().line(4));
+
+        // and removing the opening brings them back, the closing one is left as * and /
+        int start = lexer.source().toString().indexOf("/*");
+        lexer.edit(start, 3, "");
+        expected = tokens(new Lexer("a = 1;\nb = 2;\nc = 3;\n*/\nd = 4;\n").tokenize());
+        Assertions.assertEquals(expected, tokens(lexer.tokens()));
+        Assertions.assertEquals(TokenType.Op_multiply, lexer.tokens().type(12));
+    }
+
+    @Test
+    void stringTest()
+    {
+        String source = "print(\"one\ntwo\nthree\");\nx = 1;\n";
+        IncrementalLexer lexer = new IncrementalLexer(source);
+        // a string can span lines, closing it early turns its lines back into tokens
+        lexer.edit(source.indexOf("two"), 0, "\");\nprint(\"");
+        expected = tokens(new Lexer("print(\"one\n\");\nprint(\"two\nthree\");\nx = 1;\n").tokenize());
+        Assertions.assertEquals(expected, tokens(lexer.tokens()));
+        lexer.edit(0, lexer.source().toString().indexOf("x"), "");
+        expected = tokens(new Lexer("x = 1;\n").tokenize());
+        Assertions.assertEquals(expected, tokens(lexer.tokens()));
+        // an edit that does not lex is refused and changes nothing
+        String before = lexer.source().toString();
+        Assertions.assertThrows(CompileException.class, () -> lexer.edit(before.length(), 0, "\""));
+        Assertions.assertEquals(before, lexer.source().toString());
+        Assertions.assertEquals(expected, tokens(lexer.tokens()));
+    }
+
+    @Test
+    void symbolTest()
+    {
+        IncrementalLexer lexer = new IncrementalLexer("total = total + step;");
+        int total = lexer.tokens().symbol(0);
+        lexer.edit(0, 0, "step = 2; ");
+        Assertions.assertEquals(total, lexer.tokens().symbol(4));
+        Assertions.assertSame(lexer.tokens().symbols().name(total), lexer.tokens().value(4));
+    }
+
+    @Test
+    void randomEditTest()
+    {
+        String[] fragments = {"/*", "*/", "\"", "//", "\n", " ", "x", "abc", "23", "'a'", "+", "-", "==", "<=", "if", "while", "(", ")",
+                "{", "}", ";", "print(\"hi\\n\");", "/* c\n c */", "#", "/"};
+        SplittableRandom random = new SplittableRandom(15);
+        for (long seed = 1; seed <= 40; seed++) {
+            String source = ProgramGenerator.generate(seed, 2048);
+            IncrementalLexer lexer = new IncrementalLexer(source, (seed % 2 == 0) ? Lexer.Engine.TABLE : Lexer.Engine.CLASSIC);
+            for (int edit = 0; edit < 50; edit++) {
+                int offset = random.nextInt(source.length() + 1);
+                int removed = random.nextInt(Math.min(8, source.length() - offset) + 1);
+                String inserted = (random.nextInt(4) == 0) ? "" : fragments[random.nextInt(fragments.length)];
+                String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+                try {
+                    expected = tokens(new Lexer(edited).tokenize());
+                } catch (CompileException e) {
+                    Assertions.assertThrows(CompileException.class, () -> lexer.edit(offset, removed, inserted));
+                    continue;
+                }
+                actual = tokens(lexer.edit(offset, removed, inserted));
+                Assertions.assertEquals(expected, actual);
+                Assertions.assertEquals(lexer.tokens().size(), lexer.relexed() + lexer.reused());
+                source = edited;
+            }
+        }
+    }
+}
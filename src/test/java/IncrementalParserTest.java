@@ -0,0 +1,167 @@
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class IncrementalParserTest {
+
+    String expected;
+    String actual;
+
+    static String tree(Parser.Node tree) {
+        return new Parser(new Lexer("")).printAST(tree, new StringBuilder(), false);
+    }
+
+    static String parse(String source) {
+        return tree(new Parser(new Lexer(source)).parse());
+    }
+
+    /**
+     * @return  the line and pos of every statement, in the order of the tree
+     */
+    static String positions(Parser.Node tree) {
+        StringBuilder sb = new StringBuilder();
+        positions(tree, sb);
+        return sb.toString();
+    }
+
+    private static void positions(Parser.Node t, StringBuilder sb) {
+        while (t != null) {
+            if (t.line > 0) sb.append(t.nt).append('@').append(t.line).append(':').append(t.pos).append(' ');
+            positions(t.left, sb);
+            t = t.right;
+        }
+    }
+
+    @Test
+    void editTest()
+    {
+        String source = "count = 1;\nn = 1;\nlimit = 100;\n"
+                + "while (n < limit) {\n    k = 3;\n    p = 1;\n    n = n + 2;\n    while ((k * k <= n) && (p)) {\n        p = n / k * k != n;\n        k = k + 2;\n    }\n"
+                + "    if (p) {\n        print(n, \" is prime\\n\");\n        count = count + 1;\n    }\n}\nprint(\"Total primes found: \", count, \"\\n\");\n";
+        IncrementalParser parser = new IncrementalParser(source);
+        Assertions.assertEquals(parse(source), tree(parser.tree()));
+
+        int offset = source.indexOf("k = k + 2");
+        parser.edit(offset + 8, 1, "4");
+        String edited = source.substring(0, offset + 8) + "4" + source.substring(offset + 9);
+        expected = parse(edited);
+        actual = tree(parser.tree());
+        Assertions.assertEquals(expected, actual);
+        // the statement, its block and while and the block and while around those are parsed
+        // again, their neighbours are reused
+        Assertions.assertEquals(5, parser.reparsed());
+        Assertions.assertEquals(6, parser.reused());
+        Assertions.assertTrue(parser.reparsedNodes() < Optimizer.count(parser.tree()) / 2);
+    }
+
+    @Test
+    void elseTest()
+    {
+        // an if takes the else after it, so it is parsed again when one is added or removed
+        String source = "if (a) if (b) x = 1;\ny = 2;\n";
+        IncrementalParser parser = new IncrementalParser(source);
+        parser.edit(source.indexOf("y"), 0, "else ");
+        Assertions.assertEquals(parse("if (a) if (b) x = 1;\nelse y = 2;\n"), tree(parser.tree()));
+        parser.edit(source.indexOf("y"), 5, "");
+        Assertions.assertEquals(parse(source), tree(parser.tree()));
+    }
+
+    @Test
+    void errorTest()
+    {
+        String source = "a = 1;\nwhile (a < 10) {\n    a = a + 1;\n}\nprint(a);\n";
+        IncrementalParser parser = new IncrementalParser(source);
+        int offset = source.indexOf("}");
+        Assertions.assertThrows(CompileException.class, () -> parser.edit(offset, 1, ""));
+        Assertions.assertNull(parser.tree());
+        parser.edit(offset, 0, "}");
+        Assertions.assertEquals(parse(source), tree(parser.tree()));
+        Assertions.assertEquals("10", Interpreter.run(source));
+    }
+
+    @Test
+    void positionTest()
+    {
+        // statements after an edit are reused where they were moved to
+        String source = "a = 1;\nwhile (a < 10) {\n    a = a + 1;\n    if (a) print(a, \"\\n\");\n}\nprint(a);\n";
+        IncrementalParser parser = new IncrementalParser(source);
+        parser.edit(0, 0, "b = 2;\n\n");
+        String edited = "b = 2;\n\n" + source;
+        Assertions.assertTrue(parser.reused() > 0);
+        expected = positions(new Parser(new Lexer(edited)).parse());
+        Assertions.assertEquals(expected, positions(parser.tree()));
+        Assertions.assertTrue(expected.contains("While@4:1 "));
+        // on the line of the edit the columns move too
+        parser.edit(edited.indexOf("while"), 0, "x = 0; ");
+        edited = edited.replace("while", "x = 0; while");
+        Assertions.assertEquals(positions(new Parser(new Lexer(edited)).parse()), positions(parser.tree()));
+        parser.edit(0, 8, "");
+        Assertions.assertEquals(positions(new Parser(new Lexer(edited.substring(8))).parse()), positions(parser.tree()));
+    }
+
+    @Test
+    void largeTest()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("x").append(i).append(" = ").append(i).append(";\n");
+        }
+        String source = sb.toString();
+        IncrementalParser parser = new IncrementalParser(source);
+        int nodes = Optimizer.count(parser.tree());
+        int offset = source.indexOf("x19990 = ") + 9;
+        parser.edit(offset, 0, "1 + ");
+        // one statement and the chain after it, all other statements are reused
+        Assertions.assertEquals(1, parser.reparsed());
+        Assertions.assertEquals(9, parser.reused());
+        Assertions.assertEquals(3 * 9, parser.reusedNodes());
+        Assertions.assertTrue(parser.reparsedNodes() < 20);
+        Assertions.assertEquals(nodes + 2, Optimizer.count(parser.tree()));
+        Assertions.assertEquals(parse(parser.lexer().source().toString()), tree(parser.tree()));
+    }
+
+    @Test
+    void randomEditTest()
+    {
+        String[] fragments = {"/*", "*/", "\n", " ", "x", "1", "+", "-", "if (x) ", "else ", "while (y) ", "{", "}", ";", "z = 3;",
+                "{ a = 1; b = 2; }", "if (q) r = 1; ", "if (q) r = 1; else ", "print(\"hi\\n\");"};
+        SplittableRandom random = new SplittableRandom(16);
+        for (long seed = 1; seed <= 20; seed++) {
+            String source = ProgramGenerator.generate(seed, 4096);
+            IncrementalParser parser = new IncrementalParser(source);
+            for (int edit = 0; edit < 40; edit++) {
+                int offset = random.nextInt(source.length() + 1);
+                int removed = random.nextInt(Math.min(6, source.length() - offset) + 1);
+                String inserted = (random.nextInt(4) == 0) ? "" : fragments[random.nextInt(fragments.length)];
+                String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+                try {
+                    new Lexer(edited).tokenize();
+                } catch (CompileException e) {
+                    // refused by the lexer, nothing changes
+                    Assertions.assertThrows(CompileException.class, () -> parser.edit(offset, removed, inserted));
+                    continue;
+                }
+                try {
+                    expected = parse(edited);
+                } catch (CompileException e) {
+                    expected = null;
+                }
+                try {
+                    actual = tree(parser.edit(offset, removed, inserted));
+                } catch (CompileException e) {
+                    actual = null;
+                }
+                Assertions.assertEquals(expected, actual);
+                if (expected != null) Assertions.assertEquals(positions(new Parser(new Lexer(edited)).parse()), positions(parser.tree()));
+                if (expected == null) {
+                    // back to where it parsed
+                    actual = tree(parser.edit(offset, inserted.length(), source.substring(offset, offset + removed)));
+                    Assertions.assertEquals(parse(source), actual);
+                } else {
+                    source = edited;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class InterpreterTest {
+
+    String expected;
+    String actual;
+
+    @Test
+    void helloTest()
+    {
+        expected = ExpectedAndActual.getExpected("hello", "out");
+        actual = ExpectedAndActual.getActualInterpreter("hello", "t");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void countTest()
+    {
+        expected = ExpectedAndActual.getExpected("count", "out");
+        actual = ExpectedAndActual.getActualInterpreter("count", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void fizzbuzzTest()
+    {
+        expected = ExpectedAndActual.getExpected("fizzbuzz", "out");
+        actual = ExpectedAndActual.getActualInterpreter("fizzbuzz", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void primeTest()
+    {
+        expected = ExpectedAndActual.getExpected("prime", "out");
+        actual = ExpectedAndActual.getActualInterpreter("prime", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void bottleTest()
+    {
+        expected = ExpectedAndActual.getExpected("99bottles", "out");
+        actual = ExpectedAndActual.getActualInterpreter("99bottles", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void operatorTest()
+    {
+        Assertions.assertEquals("-3 1 2 1 0 1 0 1 a\\", Interpreter.run(
+                "print(-7 / 2, \" \", -7 % 2 + 2, \" \", 7 % 5, \" \", 2 <= 2, \" \", 2 > 2, \" \", !0, \" \", !5, \" \", 1 != 2, \" \");"
+                + "putc('a'); print(\"\\\\\");"));
+    }
+
+    @Test
+    void shortCircuitTest()
+    {
+        Assertions.assertEquals("0 1", Interpreter.run("x = 0; print(x && 1 / x, \" \", 1 || 1 / x);"));
+    }
+
+    @Test
+    void slotTest()
+    {
+        Interpreter interpreter = new Interpreter(new Parser(new Lexer("a = 2; b = a * a; a = b + 1; c = c;")).parse());
+        Assertions.assertEquals(3, interpreter.slotCount());
+        Assertions.assertEquals(0, interpreter.get("a"));
+        Assertions.assertEquals("", Interpreter.run("a = 2;"));
+        Assertions.assertDoesNotThrow(() -> interpreter.run(new StringBuilder()));
+        Assertions.assertEquals(5, interpreter.get("a"));
+        Assertions.assertEquals(4, interpreter.get("b"));
+        Assertions.assertEquals(0, interpreter.get("c"));
+    }
+
+    @Test
+    void longProgramTest()
+    {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100000; i++) source.append("x = x + 1;\n");
+        source.append("print(x);");
+        Assertions.assertEquals("100000", Interpreter.run(source.toString()));
+    }
+}
@@ -1,8 +1,14 @@
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Scanner;
 
 public class LexerTest {
@@ -10,6 +16,9 @@ public class LexerTest {
     String expected;
     String actual;
 
+    @TempDir
+    Path directory;
+
     @Test
     void countTest()
     {
@@ -57,4 +66,89 @@ public class LexerTest {
         actual = ExpectedAndActual.getActualLexer("fizzbuzz", "c");
         Assertions.assertEquals(expected, actual);
     }
+
+    @Test
+    void primeTokenBufferTest()
+    {
+        expected = ExpectedAndActual.getExpected("prime", "lex");
+        actual = ExpectedAndActual.getActualTokenBuffer("prime", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void bottleTokenBufferTest()
+    {
+        expected = ExpectedAndActual.getExpected("99bottles", "lex");
+        actual = ExpectedAndActual.getActualTokenBuffer("99bottles", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void primeTableEngineTest()
+    {
+        expected = ExpectedAndActual.getExpected("prime", "lex");
+        actual = ExpectedAndActual.getActualLexer("prime", "c", Lexer.Engine.TABLE);
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void fizzbuzzTableEngineTest()
+    {
+        expected = ExpectedAndActual.getExpected("fizzbuzz", "lex");
+        actual = ExpectedAndActual.getActualLexer("fizzbuzz", "c", Lexer.Engine.TABLE);
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void helloTableEngineTest()
+    {
+        expected = ExpectedAndActual.getExpected("hello", "lex");
+        actual = ExpectedAndActual.getActualLexer("hello", "t", Lexer.Engine.TABLE);
+        Assertions.assertEquals(expected, actual);
+    }
+
+    static String tokens(Lexer lexer) {
+        StringBuilder sb = new StringBuilder();
+        while (lexer.next() != TokenType.End_of_input) {
+            sb.append(lexer.type()).append(' ').append(lexer.line()).append(':').append(lexer.pos()).append(' ').append(lexer.value()).append('\n');
+        }
+        return sb.append(lexer.line()).append(':').append(lexer.pos()).toString();
+    }
+
+    @Test
+    void bulkScanTest()
+    {
+        // comments, literals and runs of whitespace are skipped at once, the positions stay exact
+        String source = "/* a comment\n   over two lines */ name_1 = \"a literal longer than eight\";\n\t        x = name_1;\n";
+        expected = "Identifier 2:22 name_1\nOp_assign 2:29 =\nString 2:31 a literal longer than eight\nSemicolon 2:60 ;\n"
+                + "Identifier 3:10 x\nOp_assign 3:12 =\nIdentifier 3:14 name_1\nSemicolon 3:20 ;\n4:1";
+        // spaces in front move the text against the eight byte words of a mapped file
+        for (int shift = 0; shift < 8; shift++) {
+            String shifted = " ".repeat(shift) + source;
+            for (Lexer.Engine engine : Lexer.Engine.values()) {
+                Assertions.assertEquals(expected, tokens(new Lexer(shifted, engine)));
+                Lexer.MappedSource mapped = new Lexer.MappedSource(ByteBuffer.wrap(shifted.getBytes(StandardCharsets.US_ASCII)));
+                Assertions.assertEquals(expected, tokens(new Lexer(mapped, engine)));
+            }
+        }
+    }
+
+    @Test
+    void utf8Test() throws IOException
+    {
+        // a file that is not ASCII is decoded as UTF-8, not read a byte per character
+        String source = "print(\"caf\u00e9\\n\");\nx = 1;\n";
+        Path file = Files.writeString(directory.resolve("utf8.c"), source);
+        expected = tokens(new Lexer(source));
+        Assertions.assertTrue(expected.contains("String 1:7 caf\u00e9\\n\nRightParen 1:15 "));
+        for (Lexer.Engine engine : Lexer.Engine.values()) {
+            Assertions.assertEquals(expected, tokens(Lexer.fromFile(file, engine)));
+        }
+        CompileCache cache = new CompileCache(directory.resolve("cache"), 1 << 20);
+        BatchCompiler.Result result = BatchCompiler.compile(file, Lexer.Engine.CLASSIC, cache);
+        Assertions.assertTrue(result.lex.contains("\"caf\u00e9\\n\""));
+        Assertions.assertEquals(new Lexer(source).printTokens(), result.lex);
+        // an ASCII file is still read in place
+        Assertions.assertTrue(Lexer.MappedSource.of(ByteBuffer.wrap("x = 1;".getBytes(StandardCharsets.US_ASCII))) instanceof Lexer.MappedSource);
+    }
 }
@@ -0,0 +1,100 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class MetricsTest {
+
+    String expected;
+    String actual;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void countTest() throws IOException
+    {
+        List<Path> sources = BatchCompiler.sources(List.of(Path.of("src/main/resources")));
+        Metrics.count(true);
+        try {
+            Metrics.reset();
+            List<BatchCompiler.Result> results = new BatchCompiler(2, Lexer.Engine.CLASSIC).run(sources, directory.resolve("counted"));
+            Metrics.Snapshot snapshot = Metrics.snapshot();
+            long bytes = 0, tokens = 0, nodes = 0;
+            for (BatchCompiler.Result result : results) {
+                bytes += result.bytes;
+                tokens += result.tokens;
+                nodes += result.nodes;
+            }
+            // ourProgram.c is read, lexed and parsed but not printed or written
+            Assertions.assertEquals(sources.size() - 1, snapshot.compiled);
+            Assertions.assertEquals(1, snapshot.failed);
+            Assertions.assertEquals(sources.size(), snapshot.count(Metrics.Phase.LEX));
+            Assertions.assertEquals(sources.size() - 1, snapshot.count(Metrics.Phase.PRINT));
+            Assertions.assertEquals(sources.size() - 1, snapshot.count(Metrics.Phase.WRITE));
+            Assertions.assertEquals(bytes, snapshot.bytes(Metrics.Phase.READ));
+            Assertions.assertEquals(tokens, snapshot.tokens(Metrics.Phase.LEX));
+            Assertions.assertEquals(nodes, snapshot.nodes(Metrics.Phase.PARSE));
+            Assertions.assertTrue(snapshot.nanos(Metrics.Phase.PARSE) > 0);
+            Assertions.assertTrue(snapshot.allocated(Metrics.Phase.FORMAT) > 0);
+            Assertions.assertTrue(snapshot.output(Metrics.Phase.WRITE) > snapshot.output(Metrics.Phase.PRINT));
+            Assertions.assertTrue(snapshot.tokensPerSecond() > 0);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            snapshot.print(new PrintStream(out, true));
+            actual = out.toString();
+            Assertions.assertTrue(actual.startsWith("phase "));
+            Assertions.assertTrue(actual.contains("\nparse "));
+            expected = snapshot + System.lineSeparator();
+            Assertions.assertTrue(actual.endsWith(expected));
+
+            Metrics.reset();
+            Assertions.assertEquals(0, Metrics.snapshot().count(Metrics.Phase.LEX));
+        } finally {
+            Metrics.count(false);
+            Metrics.reset();
+        }
+        // nothing is counted while counting is off
+        new BatchCompiler(1, Lexer.Engine.CLASSIC).run(sources, directory.resolve("uncounted"));
+        Assertions.assertEquals(0, Metrics.snapshot().count(Metrics.Phase.LEX));
+        Assertions.assertEquals(0, Metrics.snapshot().compiled);
+    }
+
+    @Test
+    void eventTest() throws IOException
+    {
+        Path file = directory.resolve("metrics.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("minicompiler.Phase");
+            recording.enable("minicompiler.File");
+            recording.start();
+            BatchCompiler.compile(Path.of("src/main/resources/prime.c"), Lexer.Engine.CLASSIC);
+            recording.stop();
+            recording.dump(file);
+        }
+        int phases = 0, files = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().equals("minicompiler.Phase")) {
+                phases++;
+                Assertions.assertTrue(event.getString("file").endsWith("prime.c"));
+                if (event.getString("phase").equals("parse")) Assertions.assertTrue(event.getLong("nodes") > 0);
+            } else if (event.getEventType().getName().equals("minicompiler.File")) {
+                files++;
+                Assertions.assertTrue(event.getBoolean("ok"));
+                Assertions.assertEquals(Files.size(Path.of("src/main/resources/prime.c")), event.getLong("bytes"));
+            }
+        }
+        // read, lex, parse, format and print, compile does not write
+        Assertions.assertEquals(5, phases);
+        Assertions.assertEquals(1, files);
+    }
+}
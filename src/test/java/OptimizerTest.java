@@ -0,0 +1,129 @@
+import java.io.IOException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class OptimizerTest {
+
+    String expected;
+    String actual;
+
+    static String optimized(String source) {
+        Parser parser = new Parser(new Lexer(source));
+        return parser.printAST(Optimizer.optimize(parser.parse()), new StringBuilder(), false);
+    }
+
+    @Test
+    void foldTest()
+    {
+        expected = "Assign\nIdentifier x \nInteger 10 \n";
+        actual = optimized("x = 2 * 3 + 4;");
+        Assertions.assertEquals(expected, actual);
+
+        expected = "Assign\nIdentifier x \nInteger -7 \n";
+        actual = optimized("x = -(3 + 4) * (1 < 2) + !5;");
+        Assertions.assertEquals(expected, actual);
+
+        expected = "Assign\nIdentifier x \nDivide\nInteger 1 \nInteger 0 \n";
+        actual = optimized("x = 1 / 0;");
+        Assertions.assertEquals(expected, actual);
+
+        expected = "Assign\nIdentifier x \nNot\nNot\nIdentifier y \n;\n;\n";
+        actual = optimized("x = 1 && y;");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void simplifyTest()
+    {
+        expected = "Assign\nIdentifier x \nIdentifier y \n";
+        actual = optimized("x = (y * 1 + 0) / 1 - 0;");
+        Assertions.assertEquals(expected, actual);
+
+        // !!y is 0 or 1, it only becomes y where its truth is all that counts
+        expected = "Assign\nIdentifier x \nNot\nNot\nIdentifier y \n;\n;\n";
+        actual = optimized("x = !!y;");
+        Assertions.assertEquals(expected, actual);
+
+        expected = "While\nIdentifier y \nAssign\nIdentifier y \nInteger 0 \n";
+        actual = optimized("while (!!y) y = 0;");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void pruneTest()
+    {
+        expected = "Prts\nString \"yes\" \n;\n";
+        actual = optimized("if (2 > 1) print(\"yes\"); else print(\"no\");");
+        Assertions.assertEquals(expected, actual);
+
+        expected = ";\n";
+        actual = optimized("if (0) print(\"no\"); while (1 - 1) { print(\"never\"); }");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void flattenTest()
+    {
+        expected = "Sequence\nAssign\nIdentifier x \nInteger 1 \nAssign\nIdentifier y \nInteger 2 \n";
+        actual = optimized("{ { ; } x = 1; { ; { y = 2; } } ; }");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void statisticsTest()
+    {
+        Optimizer optimizer = new Optimizer();
+        Parser.Node tree = new Parser(new Lexer("x = 1 + 2; if (0) x = 3; y = x * 1;")).parse();
+        Parser.Node result = optimizer.run(tree);
+        Assertions.assertEquals(4, optimizer.passes().size());
+        Assertions.assertEquals("fold", optimizer.passes().get(0).name);
+        Assertions.assertEquals(1, optimizer.passes().get(0).changes);
+        Assertions.assertEquals(1, optimizer.passes().get(1).changes);
+        Assertions.assertEquals(1, optimizer.passes().get(2).changes);
+        Assertions.assertEquals(Optimizer.count(tree), optimizer.passes().get(0).nodesBefore);
+        Assertions.assertEquals(Optimizer.count(result), optimizer.passes().get(3).nodesAfter);
+        Assertions.assertTrue(optimizer.passes().get(3).nodesAfter < optimizer.passes().get(0).nodesBefore);
+        Assertions.assertTrue(optimizer.report().startsWith("pass"));
+    }
+
+    @Test
+    void sameOutputTest()
+    {
+        for (long seed = 1; seed <= 40; seed++) {
+            String source = ProgramGenerator.generate(seed, 4096);
+            Parser.Node tree = new Parser(new Lexer(source)).parse();
+            Parser.Node optimized = Optimizer.optimize(tree);
+            expected = Interpreter.run(source);
+            Assertions.assertEquals(expected, run(optimized, 0));
+            Assertions.assertEquals(expected, run(optimized, 1));
+            Assertions.assertEquals(expected, run(optimized, 2));
+        }
+    }
+
+    @Test
+    void deepTest()
+    {
+        int depth = 100000;
+        String source = "x = " + "(1 + ".repeat(depth) + "1" + ")".repeat(depth) + ";" + ";".repeat(2 * depth) + "print(x);";
+        Optimizer optimizer = new Optimizer();
+        Parser.Node tree = optimizer.run(new Parser(new Lexer(source)).parse());
+        Assertions.assertEquals(String.valueOf(depth + 1), run(tree, 0));
+        Assertions.assertEquals(6, Optimizer.count(tree));
+    }
+
+    /**
+     * Runs a tree on the Interpreter (0), the VirtualMachine (1) or as bytecode (2)
+     */
+    static String run(Parser.Node tree, int backend) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            if (backend == 0) new Interpreter(tree).run(sb);
+            else if (backend == 1) new VirtualMachine(CodeGenerator.generate(tree)).run(sb);
+            else BytecodeCompiler.compile(tree).run(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+}
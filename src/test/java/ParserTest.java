@@ -1,6 +1,13 @@
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 public class ParserTest {
 
     String expected;
@@ -53,4 +60,190 @@ public class ParserTest {
         actual = ExpectedAndActual.getActualParser("fizzbuzz");
         Assertions.assertEquals(expected, actual);
     }
+
+    @Test
+    void countPipelineTest()
+    {
+        expected = ExpectedAndActual.getActualParser("count");
+        actual = ExpectedAndActual.getActualPipeline("count", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void primePipelineTest()
+    {
+        expected = ExpectedAndActual.getActualParser("prime");
+        actual = ExpectedAndActual.getActualPipeline("prime", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void bottlePipelineTest()
+    {
+        expected = ExpectedAndActual.getActualParser("99bottles");
+        actual = ExpectedAndActual.getActualPipeline("99bottles", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void primeBinaryTest()
+    {
+        expected = ExpectedAndActual.getActualPipeline("prime", "c");
+        actual = ExpectedAndActual.getActualBinary("prime", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void bottleBinaryTest()
+    {
+        expected = ExpectedAndActual.getActualPipeline("99bottles", "c");
+        actual = ExpectedAndActual.getActualBinary("99bottles", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    static String tree(String source) {
+        Parser p = new Parser(new Lexer(source));
+        return p.printAST(p.parse(), new StringBuilder(), false);
+    }
+
+    @Test
+    void notTest()
+    {
+        expected = "Sequence\n;\nAssign\nIdentifier a \nNot\nIdentifier b \n;\n";
+        actual = tree("a = !b;");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void printElseTest()
+    {
+        // print takes its ; so an else can follow it
+        expected = "Sequence\n;\nIf\nIdentifier a \nIf\nSequence\n;\nPrti\nIdentifier a \n;\n"
+                + "Sequence\nSequence\n;\nPrts\nString \"x\" \n;\nPrti\nInteger 1 \n;\n";
+        actual = tree("if (a) print(a); else print(\"x\", 1);");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void primeParbTest()
+    {
+        expected = ExpectedAndActual.getActualPipeline("prime", "c");
+        actual = ExpectedAndActual.getActualParb("prime", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void bottleParbTest()
+    {
+        expected = ExpectedAndActual.getActualPipeline("99bottles", "c");
+        actual = ExpectedAndActual.getActualParb("99bottles", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void parbTest() throws IOException
+    {
+        Parser parser = new Parser(new Lexer("x = 10; if (x) print(\"a\", x, \"\u00e9\"); else while (!x) { }"));
+        Parser.Node tree = parser.parse();
+        expected = parser.printAST(tree, new StringBuilder(), false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Parser.writeBinaryAST(tree, out);
+        ByteBuffer bytes = ByteBuffer.wrap(out.toByteArray());
+        SymbolTable symbols = new SymbolTable();
+        Parser.Node loaded = Parser.readBinaryAST(bytes, symbols);
+        Assertions.assertEquals(expected, parser.printAST(loaded, new StringBuilder(), false));
+        // x, a and the other string, each stored and interned once
+        Assertions.assertEquals(3, symbols.size());
+        Assertions.assertEquals(symbols.find("x"), loaded.left.right.left.symbol);
+
+        Ast ast = new Ast();
+        StringBuilder sb = new StringBuilder();
+        ast.write(Parser.readBinaryAST(bytes, ast), sb);
+        Assertions.assertEquals(expected, sb.toString());
+
+        // an empty program is one missing node
+        out.reset();
+        Parser.writeBinaryAST(null, out);
+        Assertions.assertNull(Parser.readBinaryAST(ByteBuffer.wrap(out.toByteArray()), new SymbolTable()));
+    }
+
+    @Test
+    void corruptParbTest() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Parser.writeBinaryAST(new Parser(new Lexer("x = 1; print(x);")).parse(), out);
+        byte[] bytes = out.toByteArray();
+        Assertions.assertThrows(IOException.class, () -> Parser.readBinaryAST(ByteBuffer.wrap(Arrays.copyOf(bytes, 30)), new SymbolTable()));
+        Assertions.assertThrows(IOException.class, () -> Parser.readBinaryAST(ByteBuffer.wrap(new byte[Parser.PARB_HEADER]), new SymbolTable()));
+        byte[] version = bytes.clone();
+        version[5] = 9;
+        Assertions.assertThrows(IOException.class, () -> Parser.readBinaryAST(ByteBuffer.wrap(version), new SymbolTable()));
+    }
+
+    @Test
+    void corruptLexbTest() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Lexer.writeBinary(new Lexer("x = 1; print(\"x is \", x);").tokenize(), out);
+        byte[] bytes = out.toByteArray();
+        Assertions.assertEquals(12, new Parser.BinaryCursor(ByteBuffer.wrap(bytes)).size());
+        Assertions.assertThrows(IOException.class, () -> new Parser.BinaryCursor(ByteBuffer.wrap(Arrays.copyOf(bytes, 40))));
+        // a header, a record or a string entry that points past the file
+        for (int[] corrupt : new int[][] {{8, Integer.MAX_VALUE}, {8, -1}, {12, -1}, {12, 1 << 28}, {16, -5},
+                {Lexer.LEXB_HEADER + 12, 7}, {ByteBuffer.wrap(bytes).getInt(16), bytes.length}}) {
+            byte[] copy = bytes.clone();
+            ByteBuffer.wrap(copy).putInt(corrupt[0], corrupt[1]);
+            Assertions.assertThrows(IOException.class, () -> new Parser.BinaryCursor(ByteBuffer.wrap(copy)));
+        }
+        byte[] type = bytes.clone();
+        type[Lexer.LEXB_HEADER] = (byte) 200;
+        Assertions.assertThrows(IOException.class, () -> new Parser.BinaryCursor(ByteBuffer.wrap(type)));
+    }
+
+    @Test
+    void deepNestingTest()
+    {
+        int depth = 100000;
+        StringBuilder source = new StringBuilder("x = ");
+        source.append("(-".repeat(depth)).append("1").append(")".repeat(depth)).append(";\n");
+        source.append("while (x) {".repeat(depth)).append("x = 0;").append("}".repeat(depth)).append("\n");
+        Parser parser = new Parser(new Lexer(source.toString()));
+        actual = parser.printAST(parser.parse(), new StringBuilder(), false);
+        Assertions.assertTrue(actual.startsWith("Sequence\nSequence\n;\nAssign\nIdentifier x \nNegate\nNegate\n"));
+        Assertions.assertTrue(actual.endsWith("Assign\nIdentifier x \nInteger 0 \n"));
+    }
+
+    @Test
+    void writeTest() throws IOException
+    {
+        Parser parser = new Parser(new Lexer("x = 10; if (x) print(\"a\", x); else while (!x) { }"));
+        Parser.Node tree = parser.parse();
+        expected = parser.printAST(tree, new StringBuilder(), false);
+        StringWriter out = new StringWriter();
+        Parser.writeAST(tree, out);
+        Assertions.assertEquals(expected, out.toString());
+        StringBuilder sb = new StringBuilder();
+        Parser.writeAST(tree, sb);
+        Assertions.assertEquals(expected, sb.toString());
+    }
+
+    @Test
+    void echoTest()
+    {
+        Parser parser = new Parser(new Lexer("print(\"a\", x);"));
+        Parser.Node tree = parser.parse();
+        PrintStream console = System.out;
+        ByteArrayOutputStream echo = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(echo, true));
+            parser.printAST(tree, new StringBuilder(), false);
+            Assertions.assertEquals(0, echo.size());
+            parser.printAST(tree, new StringBuilder(), true);
+        } finally {
+            System.setOut(console);
+        }
+        expected = "\tSequence      \n\t;\n\tSequence      \n\tSequence      \n\t;\n\tPrts          \n\tString        \t \"a\" \n\t;\n"
+                + "\tPrti          \n\tIdentifier    \t x \n\t;\n";
+        Assertions.assertEquals(expected, echo.toString());
+    }
 }
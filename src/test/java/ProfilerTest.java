@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProfilerTest {
+
+    String expected;
+    String actual;
+
+    static final String PROGRAM = "i = 0;\nwhile (i < 6) {\n    i = i + 1;\n    if (i % 2) print(i, \" \");\n}\nprint(\"done\");\n";
+
+    static String run(Parser.Node tree, Profiler profiler) throws IOException {
+        StringBuilder out = new StringBuilder();
+        new Interpreter(tree, profiler).run(out);
+        return out.toString();
+    }
+
+    static Profiler.Site site(Profiler profiler, String label) {
+        for (Profiler.Site site : profiler.sites()) if (site.label().equals(label)) return site;
+        throw new AssertionError("no site " + label);
+    }
+
+    @Test
+    void countTest() throws IOException
+    {
+        Parser.Node tree = new Parser(new Lexer(PROGRAM)).parse();
+        Profiler profiler = new Profiler();
+        // profiling does not change what the program does
+        expected = Interpreter.run(PROGRAM);
+        actual = run(tree, profiler);
+        Assertions.assertEquals(expected, actual);
+
+        Assertions.assertEquals(1, site(profiler, "Assign@1:1").count);
+        Profiler.Site loop = site(profiler, "While@2:1");
+        Assertions.assertEquals(1, loop.count);
+        Assertions.assertEquals(6, loop.iterations);
+        Assertions.assertEquals(6, site(profiler, "Assign@3:5").count);
+        Assertions.assertEquals(6, site(profiler, "If@4:5").count);
+        // the print of the if runs for 1, 3 and 5, its items are sites of their own
+        Assertions.assertEquals(3, site(profiler, "Sequence@4:16").count);
+        Assertions.assertEquals(3, site(profiler, "Prti@4:22").count);
+        Assertions.assertEquals(3, site(profiler, "Prts@4:25").count);
+        Assertions.assertEquals(List.of(loop), profiler.loops());
+
+        // a site's time holds the time of the statements in it
+        Assertions.assertTrue(loop.nanos >= site(profiler, "If@4:5").nanos + site(profiler, "Assign@3:5").nanos);
+        Assertions.assertTrue(loop.self() >= 0);
+
+        List<Integer> lines = new ArrayList<>();
+        for (Profiler.Line line : profiler.lines()) lines.add(line.line);
+        // line 0 is the program itself
+        Assertions.assertEquals(List.of(0, 1, 2, 3, 4, 6), lines);
+        Assertions.assertEquals(6 + 3 * 3, profiler.lines().get(4).count);
+    }
+
+    @Test
+    void collapsedTest() throws IOException
+    {
+        Profiler profiler = new Profiler();
+        run(new Parser(new Lexer(PROGRAM)).parse(), profiler);
+        StringBuilder out = new StringBuilder();
+        profiler.writeCollapsed(out);
+        String[] stacks = out.toString().split("\n");
+        Assertions.assertTrue(stacks[0].matches("Sequence \\d+"));
+        Assertions.assertTrue(stacks[1].matches("Sequence;Assign@1:1 \\d+"));
+        Assertions.assertTrue(out.toString().contains("\nSequence;While@2:1;Sequence@2:15;If@4:5;Sequence@4:16;Prti@4:22 "));
+        // one line per site that ran
+        long ran = profiler.sites().stream().filter(site -> site.count > 0).count();
+        Assertions.assertEquals(ran, stacks.length);
+        long total = 0;
+        for (String stack : stacks) total += Long.parseLong(stack.substring(stack.lastIndexOf(' ') + 1));
+        // the self times add up to the time of the whole program
+        Assertions.assertEquals(profiler.sites().get(0).nanos, total);
+    }
+
+    @Test
+    void optimizedTest() throws IOException
+    {
+        // the statements the Optimizer rewrites keep their lines
+        Parser.Node tree = Optimizer.optimize(new Parser(new Lexer("x = 1 * 3;\nwhile (!!(x > 0)) x = x - 1;\nprint(x, \"\\n\");\n")).parse());
+        Profiler profiler = new Profiler();
+        Assertions.assertEquals("0\n", run(tree, profiler));
+        Assertions.assertEquals(1, site(profiler, "Assign@1:1").count);
+        Assertions.assertEquals(3, site(profiler, "While@2:1").iterations);
+        Assertions.assertEquals(1, site(profiler, "Prti@3:7").count);
+    }
+}
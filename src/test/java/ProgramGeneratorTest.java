@@ -0,0 +1,41 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+public class ProgramGeneratorTest {
+
+    @Test
+    void sameSeedTest()
+    {
+        Assertions.assertEquals(ProgramGenerator.generate(7, 8192), ProgramGenerator.generate(7, 8192));
+        Assertions.assertNotEquals(ProgramGenerator.generate(7, 8192), ProgramGenerator.generate(8, 8192));
+    }
+
+    @Test
+    void sizeTest()
+    {
+        String program = ProgramGenerator.generate(3, 65536);
+        Assertions.assertTrue(program.length() >= 65536);
+        Assertions.assertTrue(program.length() < 65536 + 8192);
+    }
+
+    @Test
+    void parsesTest() throws IOException
+    {
+        for (long seed = 1; seed <= 20; seed++) {
+            StringBuilder sb = new StringBuilder();
+            new ProgramGenerator(new ProgramGenerator.Options().seed(seed).size(16384).depth(6).expressionDepth(8).identifiers(4).stringDensity(0.8)).generate(sb);
+            Parser p = new Parser(new Lexer(sb.toString(), Lexer.Engine.TABLE).tokenize());
+            Assertions.assertNotNull(p.parse());
+        }
+    }
+
+    @Test
+    void sizeOptionTest()
+    {
+        Assertions.assertEquals(4096, ProgramGenerator.parseSize("4096"));
+        Assertions.assertEquals(64L << 10, ProgramGenerator.parseSize("64KB"));
+        Assertions.assertEquals(1L << 30, ProgramGenerator.parseSize("1gb"));
+    }
+}
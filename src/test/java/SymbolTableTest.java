@@ -0,0 +1,114 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Scanner;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SymbolTableTest {
+
+    @Test
+    void internTest()
+    {
+        SymbolTable symbols = new SymbolTable();
+        Assertions.assertEquals(0, symbols.intern("count"));
+        Assertions.assertEquals(1, symbols.intern("total"));
+        Assertions.assertEquals(0, symbols.intern(new StringBuilder("count")));
+        Assertions.assertEquals(1, symbols.intern("x = total;", 4, 9));
+        Assertions.assertEquals(2, symbols.intern(""));
+        Assertions.assertEquals(3, symbols.size());
+        Assertions.assertEquals("total", symbols.name(1));
+        Assertions.assertEquals(1, symbols.find("total"));
+        Assertions.assertEquals(-1, symbols.find("tota"));
+    }
+
+    @Test
+    void growTest()
+    {
+        SymbolTable symbols = new SymbolTable();
+        for (int i = 0; i < 100000; i++) {
+            Assertions.assertEquals(i, symbols.intern("v" + i));
+        }
+        for (int i = 0; i < 100000; i++) {
+            Assertions.assertEquals(i, symbols.intern("v" + i));
+            Assertions.assertEquals("v" + i, symbols.name(i));
+        }
+        Assertions.assertEquals(100000, symbols.size());
+    }
+
+    @Test
+    void lexerTest()
+    {
+        Lexer lexer = new Lexer("count = count + 1; print(\"count\", count); while (x) x = 0;");
+        SymbolTable symbols = lexer.symbols();
+        int count = -1;
+        while (lexer.next() != TokenType.End_of_input) {
+            switch (lexer.type()) {
+                case Identifier, String -> {
+                    Assertions.assertSame(symbols.name(lexer.symbol()), lexer.value());
+                    if (lexer.value().equals("count")) {
+                        if (count < 0) count = lexer.symbol();
+                        Assertions.assertEquals(count, lexer.symbol());
+                    }
+                }
+                default -> Assertions.assertEquals(-1, lexer.symbol());
+            }
+        }
+        // count, x
+        Assertions.assertEquals(2, symbols.size());
+    }
+
+    @Test
+    void treeTest()
+    {
+        Parser parser = new Parser(new Lexer("a = 1; b = a; print(\"a\", a, \"a\");").tokenize());
+        Parser.Node tree = parser.parse();
+        List<Parser.Node> leaves = new ArrayList<>();
+        Deque<Parser.Node> stack = new ArrayDeque<>(List.of(tree));
+        while (!stack.isEmpty()) {
+            Parser.Node t = stack.pop();
+            if (t.nt == Parser.NodeType.nd_Ident || t.nt == Parser.NodeType.nd_String) leaves.add(t);
+            if (t.left != null) stack.push(t.left);
+            if (t.right != null) stack.push(t.right);
+        }
+        // a, b, a, "a", a, "a"
+        Assertions.assertEquals(6, leaves.size());
+        Parser.Node first = leaves.stream().filter(t -> t.nt == Parser.NodeType.nd_Ident && t.value.equals("a")).findFirst().orElseThrow();
+        Parser.Node string = leaves.stream().filter(t -> t.nt == Parser.NodeType.nd_String).findFirst().orElseThrow();
+        for (Parser.Node t : leaves) {
+            if (!t.value.equals("a")) continue;
+            Assertions.assertEquals(first.symbol, t.symbol);
+            Assertions.assertSame(first.value, t.value);
+        }
+        Assertions.assertEquals(first.symbol, string.symbol);
+        Assertions.assertSame(parser.symbols().name(first.symbol), string.value);
+    }
+
+    @Test
+    void lexFileTest()
+    {
+        // tokens read back from .lex text are interned by the parser itself
+        String lex = new Lexer("y = y + 1; print(y);").printTokens();
+        Parser parser = new Parser(Parser.readTokens(new Scanner(lex)));
+        Parser.Node tree = parser.parse();
+        Assertions.assertEquals(1, parser.symbols().size());
+        Assertions.assertEquals(0, tree.left.right.left.symbol);
+        Assertions.assertEquals("1", Interpreter.run("y = y + 1; print(y);"));
+    }
+
+    @Test
+    void clearTest()
+    {
+        SymbolTable symbols = new SymbolTable();
+        for (int i = 0; i < 200; i++) symbols.intern("name" + i);
+        symbols.clear();
+        Assertions.assertEquals(0, symbols.size());
+        Assertions.assertEquals(-1, symbols.find("name7"));
+        // IDs start at 0 again
+        Assertions.assertEquals(0, symbols.intern("name7"));
+        Assertions.assertEquals(1, symbols.intern("other"));
+        Assertions.assertEquals(0, symbols.find("name7"));
+    }
+}
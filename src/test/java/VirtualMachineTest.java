@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class VirtualMachineTest {
+
+    String expected;
+    String actual;
+
+    @Test
+    void helloTest()
+    {
+        expected = ExpectedAndActual.getExpected("hello", "out");
+        actual = ExpectedAndActual.getActualVirtualMachine("hello", "t");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void fizzbuzzTest()
+    {
+        expected = ExpectedAndActual.getExpected("fizzbuzz", "out");
+        actual = ExpectedAndActual.getActualVirtualMachine("fizzbuzz", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void primeTest()
+    {
+        expected = ExpectedAndActual.getExpected("prime", "out");
+        actual = ExpectedAndActual.getActualVirtualMachine("prime", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void bottleTest()
+    {
+        expected = ExpectedAndActual.getExpected("99bottles", "out");
+        actual = ExpectedAndActual.getActualVirtualMachine("99bottles", "c");
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    void sameAsInterpreterTest()
+    {
+        for (long seed = 1; seed <= 40; seed++) {
+            String source = ProgramGenerator.generate(seed, 4096);
+            Assertions.assertEquals(Interpreter.run(source), VirtualMachine.run(source));
+        }
+        String conditions = "a = 1; b = 0; x = 0; y = 0;"
+                + "if (a && !b || b) x = 1; if (!(a || b) || a && b) x = 2;"
+                + "while (y < 5 && (a || 1 / b)) y = y + 1;"
+                + "print(x, \" \", y, \" \", a && b, \" \", b || a, \" \", b && 1 / b, \" \", -y * 2 > -11);";
+        Assertions.assertEquals(Interpreter.run(conditions), VirtualMachine.run(conditions));
+        Assertions.assertEquals("1 5 0 1 0 1", VirtualMachine.run(conditions));
+    }
+
+    @Test
+    void disassembleTest()
+    {
+        CodeGenerator.Program program = CodeGenerator.generate(new Parser(new Lexer("i = 0; while (i < 3) { print(\"i\\n\"); i = i + 1; }")).parse());
+        Assertions.assertEquals(String.join("\n",
+                "Datasize: 1 Strings: 1",
+                "\"i\\n\"",
+                "    0 push 0",
+                "    2 store [0]",
+                "    4 jmp (9) 14",
+                "    6 prts \"i\\n\"",
+                "    8 fetch [0]",
+                "   10 addi 1",
+                "   12 store [0]",
+                "   14 fetch [0]",
+                "   16 jlti 3 (-12) 6",
+                "   19 halt",
+                ""), program.disassemble());
+        Assertions.assertEquals(1, program.maxStack);
+    }
+
+    @Test
+    void variablesTest()
+    {
+        VirtualMachine vm = new VirtualMachine(CodeGenerator.generate(new Parser(new Lexer("a = 6; b = a * 7; c = b % 5 - a;")).parse()));
+        Assertions.assertDoesNotThrow(() -> vm.run(new StringBuilder()));
+        Assertions.assertEquals(42, vm.get("b"));
+        Assertions.assertEquals(-4, vm.get("c"));
+    }
+}